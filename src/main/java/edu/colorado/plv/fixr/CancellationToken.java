@@ -0,0 +1,143 @@
+package edu.colorado.plv.fixr;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Cooperative cancellation of the extraction of a method.
+ *
+ * Soot and the analyses do not check the interruption status of the
+ * thread, so interrupting a thread does not stop the extraction.
+ * Instead, the long running loops of the extraction call
+ * CancellationToken.check(), which throws an ExtractionCancelledException
+ * if the token installed in the current thread has been cancelled.
+ *
+ * A thread without a token is never cancelled.
+ */
+public class CancellationToken {
+  private static final ThreadLocal<CancellationToken> current =
+      new ThreadLocal<CancellationToken>();
+
+  private final String description;
+  private volatile boolean cancelled = false;
+  /* true if another thread is responsible for releasing the token */
+  private volatile boolean handedOff = false;
+  /* timer that cancels the token, null if there is none */
+  private ScheduledFuture<?> timer = null;
+  /* System.nanoTime() when the timer expires */
+  private long deadline = 0;
+  /* nanoseconds left of the budget when the timer is paused, -1 if it is
+   * not paused */
+  private long remaining = -1;
+
+  public CancellationToken(String description) {
+    this.description = description;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public void cancel() {
+    this.cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Set the timer that cancels the token at deadline (System.nanoTime()).
+   */
+  public synchronized void setTimer(ScheduledFuture<?> timer, long deadline) {
+    this.timer = timer;
+    this.deadline = deadline;
+    this.remaining = -1;
+  }
+
+  /**
+   * @return the System.nanoTime() when the timer expires
+   */
+  public synchronized long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Stops the timer associated to the token.
+   * The method can be called multiple times.
+   */
+  public synchronized void release() {
+    if (null != timer) {
+      timer.cancel(false);
+      timer = null;
+    }
+    remaining = -1;
+  }
+
+  /**
+   * Stops the timer, keeping the time left of the budget (e.g. while the
+   * extraction waits for a worker).
+   *
+   * @param now the current System.nanoTime()
+   */
+  public synchronized void pause(long now) {
+    if (null != timer) {
+      timer.cancel(false);
+      timer = null;
+      remaining = Math.max(0, deadline - now);
+    }
+  }
+
+  /**
+   * @return the nanoseconds left of the budget of the paused timer, or -1
+   * if the timer is not paused. The timer is not paused anymore.
+   */
+  public synchronized long takeRemaining() {
+    long left = remaining;
+    remaining = -1;
+    return left;
+  }
+
+  /**
+   * Mark that the token will be released by another thread (e.g. the
+   * worker completing the extraction).
+   */
+  public void handOff() {
+    this.handedOff = true;
+  }
+
+  public boolean isHandedOff() {
+    return handedOff;
+  }
+
+  /**
+   * Install token in the current thread.
+   *
+   * @param token the token to install (may be null)
+   * @return the token previously installed in the current thread
+   */
+  public static CancellationToken enter(CancellationToken token) {
+    CancellationToken previous = current.get();
+    if (null == token) current.remove();
+    else current.set(token);
+    return previous;
+  }
+
+  /**
+   * @return the token installed in the current thread or null
+   */
+  public static CancellationToken current() {
+    return current.get();
+  }
+
+  /**
+   * Throws an ExtractionCancelledException if the token of the current
+   * thread has been cancelled.
+   */
+  public static void check() {
+    CancellationToken token = current.get();
+    if (null != token && token.cancelled) {
+      throw new ExtractionCancelledException("Extraction of " +
+          token.description + " cancelled");
+    }
+  }
+}
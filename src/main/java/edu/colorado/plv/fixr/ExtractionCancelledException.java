@@ -0,0 +1,13 @@
+package edu.colorado.plv.fixr;
+
+/**
+ * Raised by CancellationToken.check() when the extraction of the current
+ * method has been cancelled (e.g. it exceeded its time budget).
+ */
+public class ExtractionCancelledException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public ExtractionCancelledException(String message) {
+    super(message);
+  }
+}
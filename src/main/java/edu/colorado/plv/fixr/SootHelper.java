@@ -6,6 +6,7 @@ import java.util.List;
 
 import edu.colorado.plv.fixr.graphs.CDFGToDotGraph;
 import edu.colorado.plv.fixr.graphs.UnitCdfgGraph;
+import edu.colorado.plv.fixr.slicing.MethodPackageSeed;
 import soot.Body;
 import soot.CompilationDeathException;
 import soot.G;
@@ -37,6 +38,8 @@ public class SootHelper {
 
   public static void reset() {
     G.reset();
+    /* the caches refer to the objects of the previous Soot instance */
+    MethodPackageSeed.clearCache();
   }
 
   public static void configure(String classpath,
@@ -244,6 +247,17 @@ public class SootHelper {
   }
 
   public static void run(String[] args) {
+    run(args, null);
+  }
+
+  /**
+   * Runs Soot, skipping the application classes in skipClasses.
+   *
+   * The classes in skipClasses are turned into library classes after
+   * loading them, so the body packs (and the transformers in jtp) do
+   * not process their methods.
+   */
+  public static void run(String[] args, java.util.Set<String> skipClasses) {
     // Replicates the soot.Main.run() method skipping the output
     Date start = new Date();
 
@@ -263,6 +277,13 @@ public class SootHelper {
       G.v().out.println("Soot started on " + start);
 
       Scene.v().loadNecessaryClasses();
+      if (null != skipClasses && ! skipClasses.isEmpty()) {
+        List<SootClass> appClasses =
+          new ArrayList<SootClass>(Scene.v().getApplicationClasses());
+        for (SootClass c : appClasses) {
+          if (skipClasses.contains(c.getName())) c.setLibraryClass();
+        }
+      }
       PackManager.v().runPacks();
 
       Timers.v().totalTimer.end();
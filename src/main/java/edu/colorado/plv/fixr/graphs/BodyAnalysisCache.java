@@ -0,0 +1,84 @@
+package edu.colorado.plv.fixr.graphs;
+
+import edu.colorado.plv.fixr.slicing.ReachingDefinitions;
+import soot.Body;
+import soot.Unit;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.graph.MHGDominatorsFinder;
+import soot.toolkits.graph.MHGPostDominatorsFinder;
+
+/**
+ * Analyses of a body shared by the stages of the extraction.
+ *
+ * The exceptional CFG of the body, its data dependency graph (and the
+ * reaching definitions) and its dominators and post-dominators are
+ * computed the first time they are requested and then reused. All the
+ * analyses are computed on the same CFG.
+ *
+ * A pass that changes the body must call invalidate, so that the
+ * analyses are computed again on the new body.
+ */
+public class BodyAnalysisCache {
+  private final Body body;
+  private ExceptionalUnitGraph cfg = null;
+  private DataDependencyGraph ddg = null;
+  private MHGDominatorsFinder<Unit> dominators = null;
+  private MHGPostDominatorsFinder<Unit> postDominators = null;
+
+  public BodyAnalysisCache(Body body) {
+    this.body = body;
+  }
+
+  public Body getBody() {
+    return body;
+  }
+
+  /**
+   * Uses cfg as the CFG of the body, if it has not been computed yet.
+   *
+   * cfg must be an exceptional unit graph of the current body.
+   *
+   * @return true if cfg is the CFG of the analyses
+   */
+  public synchronized boolean adoptCfg(ExceptionalUnitGraph cfg) {
+    assert cfg.getBody() == body;
+    if (null == this.cfg) this.cfg = cfg;
+    return this.cfg == cfg;
+  }
+
+  public synchronized ExceptionalUnitGraph getCfg() {
+    if (null == cfg) cfg = new ExceptionalUnitGraph(body);
+    return cfg;
+  }
+
+  public synchronized DataDependencyGraph getDdg() {
+    if (null == ddg) ddg = new DataDependencyGraph(getCfg());
+    return ddg;
+  }
+
+  public ReachingDefinitions getReachingDefinitions() {
+    return getDdg().getReachingDefinitions();
+  }
+
+  public synchronized MHGDominatorsFinder<Unit> getDominators() {
+    if (null == dominators) dominators = new MHGDominatorsFinder<Unit>(getCfg());
+    return dominators;
+  }
+
+  public synchronized MHGPostDominatorsFinder<Unit> getPostDominators() {
+    if (null == postDominators) {
+      postDominators = new MHGPostDominatorsFinder<Unit>(getCfg());
+    }
+    return postDominators;
+  }
+
+  /**
+   * Discards the analyses, after a change of the body.
+   */
+  public synchronized void invalidate() {
+    cfg = null;
+    ddg = null;
+    dominators = null;
+    postDominators = null;
+  }
+}
@@ -38,10 +38,25 @@ public class UnitCdfgGraph extends ExceptionalUnitGraph {
   protected Map<Local, List<Unit>> useEdges = null;
   protected Map<Unit, List<Local>> defEdges = null;
   protected DataDependencyGraph ddg = null;
+  protected BodyAnalysisCache analyses = null;
 
   public UnitCdfgGraph(Body body) {
+    this(body, new BodyAnalysisCache(body));
+  }
+
+  /**
+   * Builds the CDFG reusing the analyses of body.
+   *
+   * The data dependency graph is taken from analyses if it is still
+   * valid (it was computed on an exceptional graph of the same body),
+   * otherwise it is computed on this graph.
+   */
+  public UnitCdfgGraph(Body body, BodyAnalysisCache analyses) {
     super(body);
-    this.ddg = new DataDependencyGraph(this);
+    assert analyses.getBody() == body;
+    this.analyses = analyses;
+    analyses.adoptCfg(this);
+    this.ddg = analyses.getDdg();
 
     addDataDependentNodes();
     pruneDataDependent();
@@ -65,6 +80,8 @@ public class UnitCdfgGraph extends ExceptionalUnitGraph {
 
   }
 
+  public BodyAnalysisCache getAnalyses() {return analyses;}
+
   public Map<Local, List<Unit>> useEdges() {return useEdges;}
   public Map<Unit, List<Local>> defEdges() {return defEdges;}
 
@@ -8,6 +8,8 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.colorado.plv.fixr.CancellationToken;
+import edu.colorado.plv.fixr.graphs.BodyAnalysisCache;
 import edu.colorado.plv.fixr.graphs.DataDependencyGraph;
 import edu.colorado.plv.fixr.slicing.APISlicer;
 import edu.colorado.plv.fixr.slicing.ReachingDefinitions;
@@ -30,12 +32,29 @@ import soot.toolkits.graph.UnitGraph;
 public class BodySimplifier {
   private Body body;
   protected DataDependencyGraph ddg = null;
+  /* analyses of the body, invalidated when the body changes (can be null) */
+  private BodyAnalysisCache analyses = null;
   private Logger logger = LoggerFactory.getLogger(APISlicer.class);
   private Set<String> packageSet = null;
 
   public BodySimplifier(UnitGraph graph, Collection<String> packages) {
-    this.body = graph.getBody();
-    this.ddg = new DataDependencyGraph(graph);
+    this(graph.getBody(), new DataDependencyGraph(graph), packages);
+  }
+
+  /**
+   * Simplifies the body of analyses, reusing its data dependency graph.
+   *
+   * The analyses are invalidated if the simplification changes the body.
+   */
+  public BodySimplifier(BodyAnalysisCache analyses, Collection<String> packages) {
+    this(analyses.getBody(), analyses.getDdg(), packages);
+    this.analyses = analyses;
+  }
+
+  private BodySimplifier(Body body, DataDependencyGraph ddg,
+      Collection<String> packages) {
+    this.body = body;
+    this.ddg = ddg;
     this.packageSet = new HashSet<String>();
     for (String s : packages) {
       this.packageSet.add(s);
@@ -47,14 +66,19 @@ public class BodySimplifier {
     Map<Unit, Set<Unit>> duChain = rd.getDefinedUnits();
 
     // inline the equalities - recompute the duChain
-    inlineEqualities(this.body, duChain);
+    boolean changed = inlineEqualities(this.body, duChain);
+    if (changed && null != analyses) analyses.invalidate();
 
     return (Body) body;
   }
 
-  private void inlineEqualities(Body body, Map<Unit, Set<Unit>> duChain) {
+  /**
+   * @return true if the body changed
+   */
+  private boolean inlineEqualities(Body body, Map<Unit, Set<Unit>> duChain) {
     logger.warn("Inlining equalities...");
     boolean fixPoint = false;
+    boolean changed = false;
 
     /* get all the assignments */
     Set<Unit> assignments = new HashSet<Unit>();
@@ -65,6 +89,7 @@ public class BodySimplifier {
     PatchingChain<Unit> pc = body.getUnits();
 
     while (! fixPoint) {
+      CancellationToken.check();
       fixPoint = true;
       Set<Unit> newAssignments = new HashSet<Unit>();
       newAssignments.addAll(assignments);
@@ -122,12 +147,14 @@ public class BodySimplifier {
             updateDuChain(duChain, u, nextUnit);
 
             fixPoint = false;
+            changed = true;
             }
           }
         }
       }
       assignments = newAssignments;
     }
+    return changed;
   }
 
   /**
@@ -4,18 +4,22 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.Stack;
+import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import edu.colorado.plv.fixr.graphs.DataDependencyGraph;
+import edu.colorado.plv.fixr.CancellationToken;
 import edu.colorado.plv.fixr.SootHelper;
 
 import soot.Body;
@@ -266,6 +270,7 @@ public class APISlicer {
 
     /* 2. Reachability algorithm */
     while (! toProcess.isEmpty()) {
+      CancellationToken.check();
       Object current = toProcess.pop();
       if (visitedNodes.contains(current)) continue; /* skip visited nodes */
 
@@ -391,6 +396,79 @@ public class APISlicer {
   }
 
 
+  /**
+   * Immutable multiset of the labels (conditions) of an edge in the
+   * SlicerGraph.
+   *
+   * The number of occurrences of a label matters when building the sliced
+   * body, since each occurrence adds the target of the edge to the
+   * targets of the condition.
+   */
+  private static final class LabelSet {
+    static final LabelSet EMPTY = new LabelSet(new HashMap<Object, Integer>());
+
+    private final Map<Object, Integer> counts;
+    private final int size;
+
+    private LabelSet(Map<Object, Integer> counts) {
+      this.counts = counts;
+      long size = 0;
+      for (Integer c : counts.values()) size += c.intValue();
+      this.size = (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    static LabelSet of(List<Object> labels) {
+      Map<Object, Integer> counts = new HashMap<Object, Integer>();
+      for (Object label : labels) add(counts, label, 1);
+      return new LabelSet(counts);
+    }
+
+    private static void add(Map<Object, Integer> counts, Object label, int n) {
+      Integer old = counts.get(label);
+      long sum = (null == old ? 0L : old.longValue()) + n;
+      counts.put(label, (int) Math.min(sum, Integer.MAX_VALUE));
+    }
+
+    LabelSet union(LabelSet other) {
+      if (other.counts.isEmpty()) return this;
+      if (this.counts.isEmpty()) return other;
+      Map<Object, Integer> counts = new HashMap<Object, Integer>(this.counts);
+      for (Map.Entry<Object, Integer> entry : other.counts.entrySet())
+        add(counts, entry.getKey(), entry.getValue().intValue());
+      return new LabelSet(counts);
+    }
+
+    boolean contains(Object label) {
+      return counts.containsKey(label);
+    }
+
+    /** Number of labels, counting their occurrences */
+    int size() {
+      return size;
+    }
+
+    /** Labels and their number of occurrences */
+    Set<Map.Entry<Object, Integer>> entrySet() {
+      return counts.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return (other instanceof LabelSet) &&
+          counts.equals(((LabelSet) other).counts);
+    }
+
+    @Override
+    public int hashCode() {
+      return counts.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return counts.toString();
+    }
+  }
+
   /**
    * Class used to build the sliced body given the a set of relevant
    * units.
@@ -404,16 +482,21 @@ public class APISlicer {
    */
   private class SlicerGraph {
     Body srcBody;
-    /* Adjacency matrix, contains true if the edge i-j exists */
-    boolean[][] edges;
-    /* Labels of the edges */
-    List<Object>[][] edgeLabels;
+    /* succs[i] contains the ids of the successors of the i-th unit, in
+     * increasing order */
+    int[][] succs;
+    /* succLabels[i][n] are the labels of the edge from i to succs[i][n] */
+    LabelSet[][] succLabels;
+    /* hasPreds[i] is true if there is an edge that ends in the i-th unit */
+    boolean[] hasPreds;
     /* unitsInSlice[i] is true if the i-th unit is in the slice */
     boolean[]  unitsInSlice;
     /* idToUnit[i] is the i-th unit */
     Unit[] idToUnit;
     /* Map from units to ids */
     Map<Unit,Integer> unitToId;
+    /* Label sets used in the graph, shared by the edges */
+    Map<LabelSet, LabelSet> labelPool;
 
 
     /**
@@ -423,15 +506,15 @@ public class APISlicer {
      * @param g a unit graph
      * @param unitsInSlice units of g that must be kept in the slice.
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public SlicerGraph(UnitGraph g, Set<Unit> unitsInSlice) {
       srcBody = g.getBody();
       int size = srcBody.getUnits().size();
-      edges = new boolean[size][size];
-      edgeLabels = new List[size][size];
+      succs = new int[size][];
+      succLabels = new LabelSet[size][];
       this.unitsInSlice = new boolean[size];
       idToUnit = new Unit[size];
       unitToId = new HashMap<Unit, Integer>();
+      labelPool = new HashMap<LabelSet, LabelSet>();
 
       /* Initializes the nodes */
       int id = 0;
@@ -439,59 +522,69 @@ public class APISlicer {
         idToUnit[id] = u;
         this.unitsInSlice[id] = unitsInSlice.contains(u);
         unitToId.put(u, new Integer(id));
-
-        for (int j = 0; j < edges.length; j++) {
-          edges[id][j] = false;
-          edgeLabels[id][j] = new ArrayList();
-        }
-
         id = id + 1;
       }
 
-      /* Fill the edges matrix */
+      /* Fill the adjacency lists */
       for (Unit u : g.getBody().getUnits()) {
         List<Unit> successors = g.getSuccsOf(u);
         id = unitToId.get(u).intValue();
 
         LabelHandler handler = new LabelHandler(u, g, successors);
+        SortedMap<Integer, LabelSet> uEdges = new TreeMap<Integer, LabelSet>();
 
         for (Unit succ : successors) {
           int dstId = unitToId.get(succ).intValue();
-          edges[id][dstId] = true;
 
           List<Object> conditions = handler.getConditions(idToUnit[dstId]);
+          LabelSet labels;
           if (null != conditions)
-            edgeLabels[id][dstId].addAll(conditions);
+            labels = LabelSet.of(conditions);
           else
-            edgeLabels[id][dstId].add(LabelHandler.EMPTY_LABEL);
+            labels = LabelSet.of(Collections.<Object>singletonList(LabelHandler.EMPTY_LABEL));
+          uEdges.put(dstId, union(uEdges.get(dstId), labels));
+        }
+
+        succs[id] = new int[uEdges.size()];
+        succLabels[id] = new LabelSet[uEdges.size()];
+        int n = 0;
+        for (Map.Entry<Integer, LabelSet> entry : uEdges.entrySet()) {
+          succs[id][n] = entry.getKey().intValue();
+          succLabels[id][n] = entry.getValue();
+          n = n + 1;
         }
       }
 
       if (PRINT_DEBUG_GRAPHS)
         printGraph("/tmp/pre_slice.dot");
 
-      /* computes the transitive edges across the nodes not in the slice */
+      /* computes the transitive edges across the nodes not in the slice
+       * and keeps only the edges in the slice */
       transitiveClosure();
 
-      /* remove all the edges (and labels) not in the slice */
-      for (int i = 0; i < edges.length; i++) {
-        for (int j = 0; j < edges.length; j++) {
-          if (! isEdgeInSlice(i,j)) {
-            edges[i][j] = false;
-            edgeLabels[i][j] = null;           
-          }
-        }
-      }
-
       if (PRINT_DEBUG_GRAPHS)
         printGraph("/tmp/post_slice.dot");
     }
 
+    /**
+     * Returns the label set in the pool equal to the union of l1 and l2
+     * (l1 may be null).
+     */
+    private LabelSet union(LabelSet l1, LabelSet l2) {
+      LabelSet res = (null == l1) ? l2 : l1.union(l2);
+      LabelSet pooled = labelPool.get(res);
+      if (null == pooled) {
+        labelPool.put(res, res);
+        pooled = res;
+      }
+      return pooled;
+    }
+
     private void printGraph(String fname) {
       try {
         BufferedWriter writer = new BufferedWriter(new FileWriter(fname));
         writer.write("digraph G {\n");
-        for (int i = 0; i < edges.length; i++) {
+        for (int i = 0; i < idToUnit.length; i++) {
           String s = idToUnit[i].toString();
           s = s.replace('"', ' ');
           if (unitsInSlice[i]) {
@@ -502,13 +595,12 @@ public class APISlicer {
           }
         }
 
-        for (int i = 0; i < edges.length; i++) {
-          for (int j = 0; j < edges.length; j++) {
-            if (edges[i][j]) {
-              writer.write("n" + i + " -> " + "n" + j + "[ label = \"(" +
-                  i + "," + j + ") " +
-                  this.edgeLabels[i][j] + "\" ];\n") ;
-            }
+        for (int i = 0; i < idToUnit.length; i++) {
+          for (int n = 0; n < succs[i].length; n++) {
+            int j = succs[i][n];
+            writer.write("n" + i + " -> " + "n" + j + "[ label = \"(" +
+                i + "," + j + ") " +
+                this.succLabels[i][n] + "\" ];\n") ;
           }
         }
         writer.write("}\n");
@@ -519,16 +611,8 @@ public class APISlicer {
       }
     }
 
-    private boolean isEdgeInSlice(int i, int j)
-    {
-      return this.unitsInSlice[i] && this.unitsInSlice[j];
-    }
-
     private boolean hasEdges(int srcUnitId) {
-      boolean hasEdges = false;
-      for (int j = 0; j < edges.length && ! hasEdges; j++)
-        hasEdges = hasEdges || (edges[srcUnitId][j]);
-      return hasEdges;
+      return succs[srcUnitId].length > 0;
     }
 
     /**
@@ -540,33 +624,102 @@ public class APISlicer {
      * The idea is to compute the control flow from a unit in the slice to another
      * unit in the slice that flows through units that are not in the slice.
      *
-     * The procedure uses a modified version of Floyd-Warshall, which keeps into
-     * account  the in slice/not in slice property and the labels on the edges.
+     * The procedure is Floyd-Warshall restricted to the intermediate nodes
+     * not in the slice: the reachable nodes are bit vectors (one row for
+     * each node, updated a word at a time) and the labels are kept only for
+     * the edges that start in the slice.
+     * The labels of an edge (i,j) accumulate the labels of (i,k) each time
+     * k is used as intermediate node, in the same order of the original
+     * matrix-based version.
+     * The labels of (i,k) are discarded once k has been processed, since
+     * they are not read anymore.
      *
-     * The method changes the internal data structures of the graph.
+     * At the end, the graph only contains the edges in the slice.
      */
+    @SuppressWarnings("unchecked")
     private void transitiveClosure() {
-      for (int k = 0; k < edges.length; k++) {
+      int size = idToUnit.length;
+      int words = (size + 63) >>> 6;
+      long[][] reach = new long[size][];
+      Map<Integer, LabelSet>[] labels = new Map[size];
+
+      for (int i = 0; i < size; i++) {
+        reach[i] = new long[words];
+        if (this.unitsInSlice[i]) labels[i] = new HashMap<Integer, LabelSet>();
+        for (int n = 0; n < succs[i].length; n++) {
+          int j = succs[i][n];
+          reach[i][j >>> 6] |= (1L << j);
+          if (this.unitsInSlice[i]) labels[i].put(j, succLabels[i][n]);
+        }
+      }
+
+      for (int k = 0; k < size; k++) {
         /* Skip all the executions where k (the intermediate node) is in the
          * slice.
          *
          * In this case we do not want to create a transitive edge.
          * */
         if (this.unitsInSlice[k]) continue;
-        for (int j = 0; j < edges.length; j++) {
-          for (int i = 0; i < edges.length; i++) {
-            if (edges[i][k] && edges[k][j]) {
-              edges[i][j] = true;
-
-              if (this.unitsInSlice[i]) {
-                /* set the label for the edge */
-                assert edgeLabels[i][j] != null;
-                edgeLabels[i][j].addAll(edgeLabels[i][k]);                                
-              }
+        CancellationToken.check();
+        long[] reachK = reach[k];
+
+        for (int i = 0; i < size; i++) {
+          long[] reachI = reach[i];
+          if (i == k || 0 == (reachI[k >>> 6] & (1L << k))) continue;
+
+          for (int w = 0; w < words; w++) reachI[w] |= reachK[w];
+
+          if (this.unitsInSlice[i]) {
+            /* set the label for the edges */
+            Map<Integer, LabelSet> labelsI = labels[i];
+            for (int j = nextSetBit(reachK, 0); j >= 0; j = nextSetBit(reachK, j + 1)) {
+              /* the labels (i,j) of a processed node j are not used */
+              if (! this.unitsInSlice[j] && j < k) continue;
+              /* read (i,k) again: it changes if k is in a loop */
+              LabelSet viaK = labelsI.get(k);
+              if (null != viaK) labelsI.put(j, union(labelsI.get(j), viaK));
             }
+            labelsI.remove(k);
           }
         }
       }
+
+      /* remove all the edges (and labels) not in the slice */
+      hasPreds = new boolean[size];
+      for (int i = 0; i < size; i++) {
+        List<Integer> iSuccs = new ArrayList<Integer>();
+        if (this.unitsInSlice[i]) {
+          for (int j = nextSetBit(reach[i], 0); j >= 0; j = nextSetBit(reach[i], j + 1)) {
+            if (this.unitsInSlice[j]) iSuccs.add(j);
+          }
+        }
+
+        succs[i] = new int[iSuccs.size()];
+        succLabels[i] = new LabelSet[iSuccs.size()];
+        for (int n = 0; n < iSuccs.size(); n++) {
+          int j = iSuccs.get(n).intValue();
+          LabelSet l = labels[i].get(j);
+          succs[i][n] = j;
+          succLabels[i][n] = (null == l) ? LabelSet.EMPTY : l;
+          hasPreds[j] = true;
+        }
+
+        reach[i] = null;
+        labels[i] = null;
+      }
+    }
+
+    /* Index of the first bit set in bits from the index from, -1 if none */
+    private int nextSetBit(long[] bits, int from) {
+      int w = from >>> 6;
+      if (w >= bits.length) return -1;
+      long word = bits[w] & (-1L << from);
+      while (true) {
+        if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+        w = w + 1;
+        if (w == bits.length) return -1;
+        word = bits[w];
+      }
     }
 
     /**
@@ -617,13 +770,8 @@ public class APISlicer {
      */
     private List<Integer> getHeadsInSlice() {
       List<Integer> heads = new ArrayList<Integer>();
-      for (int i = 0; i < edges.length; i++) {
-        if (unitsInSlice[i]) {
-          boolean isHead = true;
-          for (int j = 0; (isHead && j < edges.length); j++)
-            isHead = isHead && ! edges[j][i];
-          if (isHead) heads.add(i);
-        }
+      for (int i = 0; i < idToUnit.length; i++) {
+        if (unitsInSlice[i] && ! hasPreds[i]) heads.add(i);
       }
       return heads;
     }
@@ -778,6 +926,7 @@ public class APISlicer {
         List<Integer> handlerList)
     {
       while (! toVisit.isEmpty()) {
+        CancellationToken.check();
         int srcUnitId = toVisit.pop().intValue();
         Unit srcUnit = this.idToUnit[srcUnitId];
         Unit dstUnit = null;
@@ -803,12 +952,12 @@ public class APISlicer {
           */
           List<Integer> successors = new ArrayList<Integer>();
           boolean hasEmpty = false;
-          for (int j = 0; j < edges[srcUnitId].length; j++) {
-            if (! unitsInSlice[j]) continue;
+          for (int n = 0; n < succs[srcUnitId].length; n++) {
+            int j = succs[srcUnitId][n];
 
-            if (edges[srcUnitId][j] && !statusMap.containsKey(new Integer(j))) {
+            if (!statusMap.containsKey(new Integer(j))) {
               int succStatus = getStatus(statusMap, idToUnit[j]);
-              if (this.edgeLabels[srcUnitId][j].contains(LabelHandler.EMPTY_LABEL)) {
+              if (this.succLabels[srcUnitId][n].contains(LabelHandler.EMPTY_LABEL)) {
                 /* the empty label should be on just one edge */
                 assert ! hasEmpty;
                 hasEmpty = true;
@@ -911,21 +1060,23 @@ public class APISlicer {
     {
       Map<Object, List<Unit>> c2t = new HashMap<Object, List<Unit>>();
 
-      for (int j = 0; j < edges[srcUnitId].length; j++) {
-        if (! this.edges[srcUnitId][j]) continue;
-        boolean edgeInSlice = isEdgeInSlice(srcUnitId, j);
-        if (edgeInSlice) {
-          boolean edgeHasJumpLabel = (! this.edgeLabels[srcUnitId][j].contains(LabelHandler.EMPTY_LABEL)) ||
-              (this.edgeLabels[srcUnitId][j].size() > 1);
-          if (edgeInSlice && edgeHasJumpLabel) {
-            for (Object condition : this.edgeLabels[srcUnitId][j]) {
-              if (condition == LabelHandler.EMPTY_LABEL) continue;
-              List<Unit> targets = c2t.get(condition);
-              if (null == targets) {
-                targets = new ArrayList<Unit>();
-                c2t.put(condition, targets);
-              }
-              assert idToDstUnit[j] != null;
+      for (int n = 0; n < succs[srcUnitId].length; n++) {
+        int j = succs[srcUnitId][n];
+        LabelSet labels = this.succLabels[srcUnitId][n];
+        boolean edgeHasJumpLabel = (! labels.contains(LabelHandler.EMPTY_LABEL)) ||
+            (labels.size() > 1);
+        if (edgeHasJumpLabel) {
+          for (Map.Entry<Object, Integer> entry : labels.entrySet()) {
+            Object condition = entry.getKey();
+            if (condition == LabelHandler.EMPTY_LABEL) continue;
+            List<Unit> targets = c2t.get(condition);
+            if (null == targets) {
+              targets = new ArrayList<Unit>();
+              c2t.put(condition, targets);
+            }
+            assert idToDstUnit[j] != null;
+            /* the target is repeated for each occurrence of the label */
+            for (int c = 0; c < entry.getValue().intValue(); c++) {
               targets.add(idToDstUnit[j]);
             }
           }
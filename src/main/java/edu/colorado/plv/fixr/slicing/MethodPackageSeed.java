@@ -3,9 +3,11 @@ package edu.colorado.plv.fixr.slicing;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import soot.Hierarchy;
 import soot.RefType;
@@ -21,11 +23,14 @@ import soot.jimple.InvokeExpr;
 public class MethodPackageSeed implements SlicingCriterion {
   // TODO: replace with trie (not a big problem if we have just android)
 
+  /* maximum number of methods in the cache of the overriding methods of
+   * each list of packages */
+  public static final int MAX_CACHED_METHODS = 1 << 16;
+
   private List<String> packagePrefixes;
-  private Map<Unit, Boolean> isInSeed = new HashMap<Unit,Boolean>();
-  /* local cache */
-  private static Map<SootMethod, Boolean> methodOverride =
-    new HashMap<SootMethod, Boolean>();
+  private Map<Unit, Boolean> isInSeed = new ConcurrentHashMap<Unit,Boolean>();
+  /* index of the current Scene */
+  private static volatile SceneIndex sceneIndex = null;
 
   public MethodPackageSeed(Collection<String> packages) {
     //TODO extend package prefix to a collection of regexp,
@@ -40,6 +45,15 @@ public class MethodPackageSeed implements SlicingCriterion {
     this.packagePrefixes = new LinkedList<String>(packageList);
   }
 
+  /**
+   * Clears the cache of the overriding methods, e.g. when Soot is reset.
+   *
+   * The cache is also discarded when the Scene changes.
+   */
+  public static void clearCache() {
+    sceneIndex = null;
+  }
+
   public static MethodPackageSeed createAndroidSeed() {
     Collection<String> packageList = new LinkedList<String>();
     packageList.add("android.");
@@ -91,40 +105,142 @@ public class MethodPackageSeed implements SlicingCriterion {
   }
 
   private boolean isSeed(SootMethod method, SootClass superClass) {
+    SceneIndex index = getSceneIndex();
+    Map<SootMethod, Boolean> methodOverride = index.getOverrides(packagePrefixes);
+
     Boolean res = methodOverride.get(method);
     if (null != res) return res;
-    if (null == superClass || superClass.isInterface()) {
-      methodOverride.put(method, false);
-      return false;
+
+    boolean isSeed = false;
+    String key = signatureKey(method);
+    /* walk the superclasses, looking for a method with the same name and
+     * parameters declared in one of the packages */
+    for (SootClass c = superClass;
+         null != c && ! c.isInterface();
+         c = c.hasSuperclass() ? c.getSuperclass() : null) {
+      if (isInPackageList(c.getName())) {
+        List<Type> returnTypes = index.getSignatures(c).get(key);
+        if (null != returnTypes) {
+          for (Type returnType : returnTypes) {
+            if (isSubType(method.getReturnType(), returnType)) {
+              isSeed = true;
+              break;
+            }
+          }
+        }
+        if (isSeed) break;
+      }
+    }
+
+    methodOverride.put(method, isSeed);
+    return isSeed;
+  }
+
+  private static SceneIndex getSceneIndex() {
+    Scene scene = Scene.v();
+    SceneIndex index = sceneIndex;
+    if (null == index || index.scene != scene) {
+      synchronized (MethodPackageSeed.class) {
+        index = sceneIndex;
+        if (null == index || index.scene != scene) {
+          index = new SceneIndex(scene);
+          sceneIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /* name and parameter types of method */
+  private static String signatureKey(SootMethod method) {
+    return method.getName() + method.getParameterTypes().toString();
+  }
+
+  /**
+   * Methods of the classes of a Scene and the cache of the overriding
+   * methods.
+   *
+   * The methods of a class are indexed by name and parameter types the
+   * first time the class is queried, and indexed again if the number of
+   * its methods changes (e.g. when a phantom method is added). The
+   * overriding methods are cached for each list of packages, keeping
+   * the MAX_CACHED_METHODS most recently used ones.
+   */
+  private static class SceneIndex {
+    private final Scene scene;
+    private final Map<SootClass, ClassSignatures> signatures =
+      new ConcurrentHashMap<SootClass, ClassSignatures>();
+    private final ConcurrentHashMap<List<String>, Map<SootMethod, Boolean>> overrides =
+      new ConcurrentHashMap<List<String>, Map<SootMethod, Boolean>>();
+
+    private SceneIndex(Scene scene) {
+      this.scene = scene;
+    }
+
+    /**
+     * @return a map from the name and parameters of the methods of
+     * sootClass to their return types
+     */
+    private Map<String, List<Type>> getSignatures(SootClass sootClass) {
+      ClassSignatures classSignatures = signatures.get(sootClass);
+      if (null == classSignatures ||
+          classSignatures.methodCount != sootClass.getMethodCount()) {
+        classSignatures = new ClassSignatures(sootClass);
+        signatures.put(sootClass, classSignatures);
+      }
+      return classSignatures.returnTypes;
     }
 
-    if (isInPackageList(superClass.getName())) {
+    private Map<SootMethod, Boolean> getOverrides(List<String> packagePrefixes) {
+      Map<SootMethod, Boolean> cache = overrides.get(packagePrefixes);
+      if (null == cache) {
+        cache = Collections.synchronizedMap(
+            new LinkedHashMap<SootMethod, Boolean>(16, 0.75f, true) {
+              private static final long serialVersionUID = 1L;
+
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<SootMethod, Boolean> eldest) {
+                return size() > MAX_CACHED_METHODS;
+              }
+            });
+        Map<SootMethod, Boolean> previous =
+          overrides.putIfAbsent(new LinkedList<String>(packagePrefixes), cache);
+        if (null != previous) cache = previous;
+      }
+      return cache;
+    }
+  }
+
+  /* Return types of the methods of a class, by name and parameters */
+  private static class ClassSignatures {
+    private final int methodCount;
+    private final Map<String, List<Type>> returnTypes =
+      new HashMap<String, List<Type>>();
+
+    private ClassSignatures(SootClass sootClass) {
+      this.methodCount = sootClass.getMethodCount();
       try {
-        superClass.checkLevel(SootClass.SIGNATURES);
-
-        for (SootMethod m : superClass.getMethods()) {
-          if(method.getName().equals(m.getName()) &&
-             method.getParameterTypes().equals(m.getParameterTypes()) &&
-             isSubType(method.getReturnType(), m.getReturnType())) {
-            methodOverride.put(method, true);
-            return true;
+        sootClass.checkLevel(SootClass.SIGNATURES);
+
+        for (SootMethod m : sootClass.getMethods()) {
+          String key = signatureKey(m);
+          List<Type> types = returnTypes.get(key);
+          if (null == types) {
+            types = new LinkedList<Type>();
+            returnTypes.put(key, types);
           }
+          types.add(m.getReturnType());
         }
       } catch (java.lang.RuntimeException re) {
-        /* superClass.checkLevel(SIGNATURE) returns a runtime exception.
+        /* sootClass.checkLevel(SIGNATURE) returns a runtime exception.
          *
-         * In this case we generate a warning and we return false.
+         * In this case the class has no methods.
          * We do not want to block the extraction because some class was not
          * resolved.
          */
+        returnTypes.clear();
       }
     }
-
-    /* try to look in the superclass */
-    boolean isSeed = superClass.hasSuperclass() &&
-      isSeed(method, superClass.getSuperclass());
-    methodOverride.put(method, isSeed);
-    return isSeed;
   }
 
 
@@ -1,32 +1,43 @@
 package edu.colorado.plv.fixr.slicing;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 import soot.Local;
+import soot.Scene;
 import soot.toolkits.scalar.FlowSet;
 
 
 /**
  * Data structure used in the RelevantVariablesAnalysis as in and out set associated to each node.
  *
+ * The set of relevant variables is a bitset indexed by the number of the
+ * locals (Local.getNumber()). The bitset only stores the words from the
+ * first to the last word that contain a local: the locals of a body are
+ * numbered when they are created, so their numbers are close and the
+ * operations on the sets are a few word operations.
+ *
  * @author Sergio Mover
  *
  */
 public class RVDomain implements FlowSet {
+  private static final long[] NO_WORDS = new long[0];
 
   /**
    * True if the node can reach a seed in the CFG
    * Lattice view: all the elements in relevantVariables have the same value of reachSeed
    */
   private boolean reachSeed;
-  // TODO: Replace with an implementation of Soot FlowSet object (maybe bounded) for efficiency
   /**
-   * Set of relevant variables a
+   * Set of relevant variables: the bit i of words[j] is set if the
+   * local with number (base + j) * 64 + i is relevant
    */
-  private Set<Local> relevantVariables;
+  private long[] words;
+  /* index of the first word in words */
+  private int base;
 
   /**
    * @return the reachSeed
@@ -38,12 +49,16 @@ public class RVDomain implements FlowSet {
 
   public RVDomain() {
     this.reachSeed = false;
-    this.relevantVariables = new HashSet<Local>();
+    this.words = NO_WORDS;
+    this.base = 0;
   }
 
   @Override
   public boolean isEmpty() {
-    return this.relevantVariables.isEmpty();
+    for (long w : this.words) {
+      if (0 != w) return false;
+    }
+    return true;
   }
 
   @Override
@@ -51,7 +66,10 @@ public class RVDomain implements FlowSet {
     assert arg0 instanceof Local;
 
     if (! this.reachSeed) this.reachSeed = true;
-    this.relevantVariables.add((Local) arg0);
+    int number = ((Local) arg0).getNumber();
+    int word = number >>> 6;
+    ensureWords(word, word + 1);
+    this.words[word - this.base] |= 1L << number;
   }
 
   @Override
@@ -65,7 +83,7 @@ public class RVDomain implements FlowSet {
    */
   public void setReachSeed(boolean reachSeed) {
     /* if reachSeed is false, then the relevant var set is empty */
-    assert reachSeed || (this.relevantVariables.isEmpty());
+    assert reachSeed || (this.isEmpty());
     this.reachSeed = reachSeed;
   }
 
@@ -73,14 +91,13 @@ public class RVDomain implements FlowSet {
   @Override
   public void clear() {
     this.reachSeed = false;
-    this.relevantVariables.clear();
+    Arrays.fill(this.words, 0L);
   }
 
   @Override
   public FlowSet clone() {
     RVDomain rv = new RVDomain();
-    rv.reachSeed = this.reachSeed;
-    rv.relevantVariables.addAll(this.relevantVariables);
+    this.copy(rv);
     return rv;
   }
 
@@ -88,14 +105,17 @@ public class RVDomain implements FlowSet {
   public boolean contains(Object arg0) {
     assert arg0 instanceof Local;
 
-    return this.relevantVariables.contains((Local) arg0);
+    int number = ((Local) arg0).getNumber();
+    int word = (number >>> 6) - this.base;
+    return word >= 0 && word < this.words.length &&
+        0 != (this.words[word] & (1L << number));
   }
 
   public boolean hasVar(Object arg0) {
     assert arg0 instanceof Local;
     Local other = (Local) arg0;
 
-    for (Local v : this.relevantVariables) {
+    for (Local v : this) {
       if (v.getName() == other.getName() &&
           v.getType().equals(other.getType())) {
         return true;
@@ -110,10 +130,17 @@ public class RVDomain implements FlowSet {
   @Override
   public void copy(FlowSet dest) {
     RVDomain rv = (RVDomain) dest;
+    if (rv == this) return;
+
     rv.reachSeed = this.reachSeed;
     // No deep copy of the elements
-    rv.relevantVariables.clear();
-    rv.relevantVariables.addAll(this.relevantVariables);
+    if (rv.words.length == this.words.length && rv.words != NO_WORDS) {
+      System.arraycopy(this.words, 0, rv.words, 0, this.words.length);
+    }
+    else {
+      rv.words = this.words.length == 0 ? NO_WORDS : this.words.clone();
+    }
+    rv.base = this.base;
   }
 
   @Override
@@ -125,7 +152,11 @@ public class RVDomain implements FlowSet {
       return;
     }
     else {
-      this.relevantVariables.remove(rv.relevantVariables);
+      int from = Math.max(this.base, rv.base);
+      int to = Math.min(this.base + this.words.length, rv.base + rv.words.length);
+      for (int i = from; i < to; i++) {
+        this.words[i - this.base] &= ~rv.words[i - rv.base];
+      }
     }
   }
 
@@ -143,10 +174,12 @@ public class RVDomain implements FlowSet {
     }
     else {
       assert this.reachSeed && otherRv.reachSeed;
-      destRv.clear();
-      destRv.reachSeed = true;
-      destRv.relevantVariables.addAll(this.relevantVariables);
-      destRv.relevantVariables.removeAll(otherRv.relevantVariables);
+      if (destRv == otherRv) {
+        /* other is overwritten by the copy */
+        otherRv = (RVDomain) otherRv.clone();
+      }
+      this.copy(destRv);
+      destRv.difference(otherRv);
     }
   }
 
@@ -162,10 +195,18 @@ public class RVDomain implements FlowSet {
     this.reachSeed = this.reachSeed && otherRv.reachSeed;
 
     if (! this.reachSeed) {
-      this.relevantVariables.clear();
+      Arrays.fill(this.words, 0L);
     }
     else {
-      this.relevantVariables.retainAll(otherRv.relevantVariables);
+      for (int i = 0; i < this.words.length; i++) {
+        int word = i + this.base - otherRv.base;
+        if (word >= 0 && word < otherRv.words.length) {
+          this.words[i] &= otherRv.words[word];
+        }
+        else {
+          this.words[i] = 0L;
+        }
+      }
     }
   }
 
@@ -181,10 +222,11 @@ public class RVDomain implements FlowSet {
     }
     else {
       assert this.reachSeed && otherRv.reachSeed;
-      destRv.clear();
-      destRv.reachSeed = true;
-      destRv.relevantVariables.addAll(this.relevantVariables);
-      destRv.relevantVariables.retainAll(otherRv.relevantVariables);
+      if (destRv == otherRv) {
+        otherRv = (RVDomain) otherRv.clone();
+      }
+      this.copy(destRv);
+      destRv.intersection(otherRv);
     }
   }
 
@@ -199,22 +241,10 @@ public class RVDomain implements FlowSet {
       return false;
     }
     else {
-      /* dumb implementation if intersect */
-      Set<Local> small;
-      Set<Local> big;
-
-
-      if (this.size() > other.size()) {
-        big = this.relevantVariables;
-        small = other.relevantVariables;
-      }
-      else {
-        small = this.relevantVariables;
-        big = other.relevantVariables;
-      }
-
-      for (Local l : small) {
-        if (big.contains(l)) {
+      int from = Math.max(this.base, other.base);
+      int to = Math.min(this.base + this.words.length, other.base + other.words.length);
+      for (int i = from; i < to; i++) {
+        if (0 != (this.words[i - this.base] & other.words[i - other.base])) {
           /* non-empty intersection */
           return true;
         }
@@ -226,7 +256,32 @@ public class RVDomain implements FlowSet {
 
   @Override
   public Iterator<Local> iterator() {
-    return this.relevantVariables.iterator();
+    return new Iterator<Local>() {
+      private int word = 0;
+      private long remaining = words.length > 0 ? words[0] : 0L;
+
+      @Override
+      public boolean hasNext() {
+        while (0 == remaining && word + 1 < words.length) {
+          word = word + 1;
+          remaining = words[word];
+        }
+        return 0 != remaining;
+      }
+
+      @Override
+      public Local next() {
+        if (! hasNext()) throw new NoSuchElementException();
+        int bit = Long.numberOfTrailingZeros(remaining);
+        remaining = remaining & (remaining - 1);
+        return getLocal(((base + word) << 6) + bit);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
 
   @Override
@@ -241,12 +296,16 @@ public class RVDomain implements FlowSet {
 
   @Override
   public int size() {
-    return this.relevantVariables.size();
+    int size = 0;
+    for (long w : this.words) size += Long.bitCount(w);
+    return size;
   }
 
   @Override
   public List<?> toList() {
-    return null;
+    List<Local> list = new ArrayList<Local>();
+    for (Local l : this) list.add(l);
+    return list;
   }
 
   @Override
@@ -254,8 +313,12 @@ public class RVDomain implements FlowSet {
     RVDomain otherRv = (RVDomain) other;
     this.reachSeed = this.reachSeed || otherRv.reachSeed;
 
-    if (this.reachSeed) {
-      this.relevantVariables.addAll(otherRv.relevantVariables);
+    if (this.reachSeed && otherRv.words.length > 0) {
+      ensureWords(otherRv.base, otherRv.base + otherRv.words.length);
+      int offset = otherRv.base - this.base;
+      for (int i = 0; i < otherRv.words.length; i++) {
+        this.words[i + offset] |= otherRv.words[i];
+      }
     }
   }
 
@@ -273,10 +336,13 @@ public class RVDomain implements FlowSet {
     }
     else {
       assert this.reachSeed && otherRv.reachSeed;
-      destRv.clear();
-      destRv.reachSeed = true;
-      destRv.relevantVariables.addAll(this.relevantVariables);
-      destRv.relevantVariables.addAll(otherRv.relevantVariables);
+      if (destRv == otherRv) {
+        otherRv.union(this);
+      }
+      else {
+        this.copy(destRv);
+        destRv.union(otherRv);
+      }
     }
   }
 
@@ -292,13 +358,22 @@ public class RVDomain implements FlowSet {
    */
   @Override
   public int hashCode() {
-    assert this.reachSeed || this.relevantVariables.size() == 0;
+    assert this.reachSeed || this.isEmpty();
 
     if (! this.reachSeed) {
       return 0;
     }
     else {
-      return this.relevantVariables.hashCode();
+      /* independent from the words allocated around the set */
+      int hash = 1;
+      for (int i = 0; i < this.words.length; i++) {
+        long w = this.words[i];
+        if (0 != w) {
+          hash = 31 * hash + (this.base + i);
+          hash = 31 * hash + (int) (w ^ (w >>> 32));
+        }
+      }
+      return hash;
     }
   }
 
@@ -312,7 +387,13 @@ public class RVDomain implements FlowSet {
       return false;
     }
     else {
-      return this.relevantVariables.equals(otherRV.relevantVariables);
+      int from = Math.min(this.base, otherRV.base);
+      int to = Math.max(this.base + this.words.length,
+          otherRV.base + otherRV.words.length);
+      for (int i = from; i < to; i++) {
+        if (this.getWord(i) != otherRV.getWord(i)) return false;
+      }
+      return true;
     }
   }
 
@@ -321,11 +402,37 @@ public class RVDomain implements FlowSet {
    */
   @Override
   public String toString() {
-    // TODO use a string buffer
-    String str = "" + this.reachSeed;
-    for (Local i : this.relevantVariables) str = str + " " + i.toString();
+    StringBuilder str = new StringBuilder();
+    str.append(this.reachSeed);
+    for (Local i : this) str.append(" ").append(i.toString());
 
-    return str;
+    return str.toString();
   }
 
+  /* word i of the bitset, 0 if it is not stored */
+  private long getWord(int i) {
+    int word = i - this.base;
+    return (word >= 0 && word < this.words.length) ? this.words[word] : 0L;
+  }
+
+  /* Extends the bitset to contain the words from first to last (excluded) */
+  private void ensureWords(int first, int last) {
+    if (this.words.length == 0) {
+      this.words = new long[last - first];
+      this.base = first;
+    }
+    else if (first < this.base || last > this.base + this.words.length) {
+      int newBase = Math.min(first, this.base);
+      int newEnd = Math.max(last, this.base + this.words.length);
+      long[] newWords = new long[newEnd - newBase];
+      System.arraycopy(this.words, 0, newWords, this.base - newBase,
+          this.words.length);
+      this.words = newWords;
+      this.base = newBase;
+    }
+  }
+
+  private static Local getLocal(int number) {
+    return (Local) Scene.v().getLocalNumberer().get(number);
+  }
 }
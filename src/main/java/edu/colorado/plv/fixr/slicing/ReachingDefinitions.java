@@ -1,12 +1,13 @@
 package edu.colorado.plv.fixr.slicing;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import edu.colorado.plv.fixr.CancellationToken;
 import soot.Local;
 import soot.Unit;
 import soot.Value;
@@ -36,6 +37,8 @@ public class ReachingDefinitions extends ForwardFlowAnalysis<Unit, FlowSet> {
   private Map<Unit, FlowSet> kill;
   private Map<Unit, FlowSet> gen;
   private AbstractBoundedFlowSet baseSet;
+  /* for each local, the set of the units that define it */
+  private Map<Local, FlowSet> local2DefsMap;
 
   public ReachingDefinitions(DirectedGraph<Unit> graph) {
     super(graph);
@@ -57,8 +60,10 @@ public class ReachingDefinitions extends ForwardFlowAnalysis<Unit, FlowSet> {
      * KILL(u) := {all the other units that define the same element of u}
      * GEN(u) := {all the definitions generated by u}
      *
+     * The units are collected in the order of the graph, so the
+     * reachable definitions are listed in a deterministic order.
      */
-    Set<Unit> defUnit = new HashSet<Unit>();
+    List<Unit> defUnit = new ArrayList<Unit>();
     for (Unit u : graph) {
       if (u.getDefBoxes().size() > 0) {
         defUnit.add(u);
@@ -69,7 +74,22 @@ public class ReachingDefinitions extends ForwardFlowAnalysis<Unit, FlowSet> {
     defsUniverse = new ArrayFlowUniverse<Unit>(defUnit.toArray(new Unit[defUnit.size()]));
     baseSet = new ArrayPackedSet(defsUniverse);
 
+    /* index the definitions of each local, so that the kill sets are
+     * the union of the definitions of the locals defined by the unit */
+    local2DefsMap = new HashMap<Local, FlowSet>();
     for (Unit u : defUnit) {
+      for (Local l : getDefLocals(u, false)) {
+        FlowSet defs = local2DefsMap.get(l);
+        if (null == defs) {
+          defs = baseSet.emptySet();
+          local2DefsMap.put(l, defs);
+        }
+        defs.add(u);
+      }
+    }
+
+    for (Unit u : defUnit) {
+      CancellationToken.check();
       computeSets(u);
     }
 
@@ -130,16 +150,12 @@ public class ReachingDefinitions extends ForwardFlowAnalysis<Unit, FlowSet> {
     FlowSet killSet = baseSet.emptySet();
     FlowSet genSet = baseSet.emptySet();
 
-    /* get the set of units that declare */
+    /* kill all the definitions of the locals defined by u (the sets
+     * share the universe, so the union is a bitwise or) */
     for (Local l : getDefLocals(u, false)) {
-      for (Iterator<Unit> unitIter = baseSet.topSet().iterator();
-           unitIter.hasNext();) {
-        Unit u2 = unitIter.next();
-        if (u2 != u && getDefLocals(u2, false).contains(l)) {
-          killSet.add(u2);
-        }
-      }
+      killSet.union(local2DefsMap.get(l));
     }
+    killSet.remove(u);
     genSet.add(u);
 
     kill.put(u, killSet);
@@ -27,10 +27,19 @@ public class RelevantVariablesAnalysis extends BackwardFlowAnalysis<Unit, RVDoma
 
 
   public RelevantVariablesAnalysis(DirectedGraph<Unit> graph, SlicingCriterion criterion) {
+    this(graph, criterion, new UseHelper());
+  }
+
+  /**
+   * Computes the relevant variables sharing helper with the other
+   * analyses of the same body.
+   */
+  public RelevantVariablesAnalysis(DirectedGraph<Unit> graph, SlicingCriterion criterion,
+      UseHelper helper) {
     super(graph);
     this.sc = criterion;
 
-    this.helper = UseHelper.getHelper();
+    this.helper = helper;
     this.seeds = new HashSet<Unit>();
     this.relevantStmt = new HashSet<Unit>();
 
@@ -45,10 +45,12 @@ public class SliceStmtAnalysis {
     this.branches = new HashSet<Unit>();
     this.rel_var = new HashMap<Unit,RVDomain>();
     this.rel_var_branch = new HashMap<Unit,RelevantVariablesAnalysis>();
-    this.helper = UseHelper.getHelper();
+    /* uses and defines of the units of this graph */
+    this.helper = new UseHelper();
 
     /* Initial value for sets */
-    RelevantVariablesAnalysis rv = new RelevantVariablesAnalysis(graph, this.sc);
+    RelevantVariablesAnalysis rv = new RelevantVariablesAnalysis(graph, this.sc,
+        this.helper);
     for (Unit u : this.graph) {
       RVDomain dom = rv.getFlowBefore(u);
       rel_var.put(u, dom);
@@ -116,7 +118,8 @@ public class SliceStmtAnalysis {
       for (Unit branch : newBranches) {
         RelevantVariablesAnalysis rv = this.rel_var_branch.get(branch);
         if (null == rv) {
-          rv = new RelevantVariablesAnalysis(graph, new SlicingStmts(branch));
+          rv = new RelevantVariablesAnalysis(graph, new SlicingStmts(branch),
+              this.helper);
           this.rel_var_branch.put(branch, rv);
         }
         var_u.union(rv.getFlowBefore(branch));
@@ -12,34 +12,32 @@ import soot.ValueBox;
 /**
  * Helper class used to memoize the set of uses/defines for units
  * 
+ * A helper is created for the analyses of a body (e.g. by
+ * SliceStmtAnalysis) and is released with them, so the memoized units
+ * do not outlive the extraction of their method. The helper can be
+ * used by several threads.
+ * 
  * @author Sergio Mover
  *
  */
 public class UseHelper {
-	private static UseHelper helper = new UseHelper();
-	
 	/* definitions of node */
 	private Map<Unit, RVDomain> defs;
 	/* uses of nodes */
 	private Map<Unit, RVDomain> uses;
 	
-	private UseHelper() {
+	public UseHelper() {
  		this.defs = new HashMap<Unit, RVDomain>();
 		this.uses = new HashMap<Unit, RVDomain>();
 	}
 
-	public static UseHelper getHelper()
-	{
-		return helper;
-	}
-	
 	/**
 	 * Get all the locals defined by unit.
 	 *  
 	 * @param unit
 	 * @return
 	 */
-	public RVDomain getRVDomainDefs(Unit unit) {
+	public synchronized RVDomain getRVDomainDefs(Unit unit) {
 		RVDomain unit_defs = this.defs.get(unit);
 		if (null == unit_defs) {
 			/* compute the definition for the unit */
@@ -55,7 +53,7 @@ public class UseHelper {
 	 * @param unit
 	 * @return
 	 */	
-	public RVDomain getRVDomainUses(Unit unit) {
+	public synchronized RVDomain getRVDomainUses(Unit unit) {
 		RVDomain unit_uses= this.uses.get(unit);
 		if (null == unit_uses) {			 
 			unit_uses = filterToLocal(unit.getUseBoxes());			
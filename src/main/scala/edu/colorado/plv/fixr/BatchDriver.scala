@@ -0,0 +1,220 @@
+package edu.colorado.plv.fixr
+
+import java.io.BufferedReader
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.io.PrintWriter
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import edu.colorado.plv.fixr.Main.MainOptions
+import edu.colorado.plv.fixr.extractors.FileAcdfgSink
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgReader
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgSink
+
+/**
+  * Runs a list of extractions in the same JVM.
+  *
+  * Each non-empty line of the job file contains the command line options
+  * of an extraction (e.g. -p app/classes -l android.jar -o out -n user).
+  * Options are separated by spaces, double quotes group an option that
+  * contains spaces. Lines starting with # are comments.
+  *
+  * Soot is reset before each job. The status of each job is appended to
+  * the report (a tab separated file) as soon as the job terminates.
+  */
+class BatchDriver(jobFile : String, reportFile : String) {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  /**
+    * Runs all the jobs.
+    *
+    * @return true if all the jobs terminated successfully
+    */
+  def run() : Boolean = {
+    val jobs = BatchDriver.readJobs(jobFile)
+    val report = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(reportFile), "utf-8"))
+    var failed = 0
+
+    try {
+      report.println(List("job", "status", "graphs", "time_ms", "output_dir",
+        "message").mkString("\t"))
+      report.flush()
+
+      for ((job, index) <- jobs.zipWithIndex) {
+        logger.info("Starting job {} of {}{}", (index + 1).toString,
+          jobs.size.toString, "")
+        val start = System.currentTimeMillis()
+        val result = BatchDriver.runJob(job)
+        val elapsed = System.currentTimeMillis() - start
+
+        if (result.status != BatchDriver.OK) failed = failed + 1
+        report.println(List((index + 1).toString, result.status,
+          BatchDriver.listGraphs(result.outputDir).size.toString, elapsed.toString,
+          String.valueOf(result.outputDir),
+          BatchDriver.cleanMessage(result.message)).mkString("\t"))
+        report.flush()
+        logger.info("Job {} terminated with status {}{}", (index + 1).toString,
+          result.status, "")
+      }
+    }
+    finally {
+      report.close()
+    }
+
+    logger.info("Batch terminated: {} jobs, {} failed", jobs.size.toString, failed.toString)
+    failed == 0
+  }
+}
+
+/**
+  * Result of an extraction job.
+  *
+  * @param status one of BatchDriver.OK, BatchDriver.FAILED and
+  *  BatchDriver.INVALID
+  * @param outputDir output directory of the job (null if unknown)
+  * @param message error message
+  * @param graphs names of the graphs written or found by the job
+  */
+case class JobResult(status : String, outputDir : String, message : String,
+  graphs : List[String] = Nil)
+
+object BatchDriver {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  val OK = "OK"
+  val FAILED = "FAILED"
+  val INVALID = "INVALID"
+
+  /** Runs the extraction job with the command line options args */
+  def runJob(args : Array[String]) : JobResult =
+    runJob(Main.parser.parse(args, MainOptions()))
+
+  /** Runs the extraction job with the (already parsed) options */
+  def runJob(parsed : Option[MainOptions]) : JobResult = {
+    parsed match {
+      case None => JobResult(INVALID, null, "cannot parse the options")
+      case Some(mainopt) if mainopt.visualize || null != mainopt.batch ||
+          mainopt.server >= 0 || mainopt.processes > 1 =>
+        JobResult(INVALID, mainopt.outputDir, "only single process extraction jobs are supported")
+      case Some(mainopt) => {
+        /* start from a fresh Soot instance */
+        SootHelper.reset()
+
+        Main.getExtractorOptions(mainopt) match {
+          case None => JobResult(INVALID, mainopt.outputDir, "invalid options")
+          case Some(options) =>
+            try {
+              val graphs = Main.extract(options)
+              JobResult(OK, options.outputDir, "", graphs)
+            }
+            catch {
+              case e : Exception => {
+                logger.error("Exception in the extraction job", e)
+                JobResult(FAILED, options.outputDir, e.toString)
+              }
+              case e : StackOverflowError => {
+                logger.error("StackOverflowError in the extraction job", e)
+                JobResult(FAILED, options.outputDir, e.toString)
+              }
+            }
+        }
+      }
+    }
+  }
+
+  /** Reads the jobs (the options of each extraction) from jobFile */
+  def readJobs(jobFile : String) : List[Array[String]] = {
+    val reader = new BufferedReader(new InputStreamReader(
+      new FileInputStream(jobFile), "utf-8"))
+    try {
+      val jobs = scala.collection.mutable.ListBuffer[Array[String]]()
+      var line = reader.readLine()
+      while (null != line) {
+        val trimmed = line.trim
+        if (! trimmed.isEmpty && ! trimmed.startsWith("#")) {
+          jobs += splitArgs(trimmed)
+        }
+        line = reader.readLine()
+      }
+      jobs.toList
+    }
+    finally {
+      reader.close()
+    }
+  }
+
+  /** Splits a line in arguments, double quotes group the spaces */
+  def splitArgs(line : String) : Array[String] = {
+    val args = scala.collection.mutable.ArrayBuffer[String]()
+    val current = new StringBuilder()
+    var inQuotes = false
+    var hasArg = false
+
+    for (c <- line) {
+      if (c == '"') {
+        inQuotes = ! inQuotes
+        hasArg = true
+      }
+      else if (Character.isWhitespace(c) && ! inQuotes) {
+        if (hasArg) args += current.toString
+        current.clear()
+        hasArg = false
+      }
+      else {
+        current.append(c)
+        hasArg = true
+      }
+    }
+    if (hasArg) args += current.toString
+
+    args.toArray
+  }
+
+  /**
+    * Graphs in the output directory: the .acdfg.bin files and the graphs
+    * of the complete segments, as references for
+    * SegmentAcdfgReader.loadGraph
+    */
+  def listGraphs(outputDir : String) : Set[String] = {
+    if (null == outputDir) Set[String]()
+    else {
+      val files = new File(outputDir).listFiles()
+      if (null == files) Set[String]()
+      else {
+        val graphFiles = files.filter(_.getName().endsWith(FileAcdfgSink.EXT)).map(_.getPath())
+        val segmentGraphs = for {
+          indexFile <- SegmentAcdfgSink.listIndexes(outputDir)
+          entry <- SegmentAcdfgSink.readIndex(indexFile)
+        } yield SegmentAcdfgSink.segmentOfIndex(indexFile).getPath() +
+          SegmentAcdfgReader.SEPARATOR + entry.name
+        graphFiles.toSet ++ segmentGraphs
+      }
+    }
+  }
+
+  /**
+    * References (see listGraphs) to the graphs of outputDir with the
+    * given names, sorted by name.
+    */
+  def findGraphs(outputDir : String, names : List[String]) : List[String] = {
+    val nameSet = names.toSet
+    listGraphs(outputDir).toList.map(reference => (graphName(reference), reference)).
+      filter(graph => nameSet.contains(graph._1)).sorted.map(_._2)
+  }
+
+  /* Name of the graph of a reference returned by listGraphs */
+  private def graphName(reference : String) : String =
+    SegmentAcdfgReader.splitReference(reference) match {
+      case Some((segment, name)) => name
+      case None => new File(reference).getName().stripSuffix(FileAcdfgSink.EXT)
+    }
+
+  private def cleanMessage(message : String) : String =
+    if (null == message) "" else message.replaceAll("[\t\r\n]", " ")
+}
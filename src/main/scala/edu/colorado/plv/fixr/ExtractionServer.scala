@@ -0,0 +1,159 @@
+package edu.colorado.plv.fixr
+
+import java.io.BufferedOutputStream
+import java.io.BufferedReader
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.InputStreamReader
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.SocketException
+import java.nio.file.Files
+import java.util.concurrent.LinkedBlockingQueue
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import edu.colorado.plv.fixr.Main.MainOptions
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgReader
+
+/**
+  * Extraction server that keeps the JVM running between the extractions.
+  *
+  * The server listens on a port of the loopback interface. A client
+  * connects, sends a request line and reads the response; the
+  * connections are queued and served one at a time (Soot is not thread
+  * safe), resetting Soot before each job.
+  *
+  * Request: a line (UTF-8) with the command line options of the
+  * extraction, as in the job file of the batch mode, or the line
+  * "shutdown" to stop the server.
+  *
+  * Response (java.io.DataOutputStream encoding):
+  *  - status (UTF): OK, FAILED or INVALID
+  *  - message (UTF)
+  *  - number of graphs (int), followed by the name (UTF), the size (int)
+  *    and the protobuf bytes of each ACDFG of the methods extracted by
+  *    the job, including the graphs already in its output directory.
+  */
+class ExtractionServer(port : Int) {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  private val serverSocket = new ServerSocket(port, ExtractionServer.BACKLOG,
+    InetAddress.getLoopbackAddress())
+  private val connections = new LinkedBlockingQueue[Socket]()
+  @volatile private var running = true
+
+  /** Port where the server listens */
+  def getPort : Int = serverSocket.getLocalPort()
+
+  /**
+    * Serves the requests until a client sends the shutdown request.
+    *
+    * The jobs are executed on the thread that calls serve.
+    */
+  def serve() : Unit = {
+    val acceptor = new Thread(new Runnable() {
+      override def run() : Unit = acceptConnections()
+    }, "extraction-server-acceptor")
+    acceptor.setDaemon(true)
+    acceptor.start()
+
+    try {
+      while (running) {
+        val socket = connections.take()
+        try {
+          handle(socket)
+        }
+        catch {
+          case e : IOException =>
+            logger.warn("Error communicating with the client: {}", e.toString)
+        }
+        finally {
+          socket.close()
+        }
+      }
+    }
+    finally {
+      serverSocket.close()
+      var socket = connections.poll()
+      while (null != socket) {
+        socket.close()
+        socket = connections.poll()
+      }
+    }
+    logger.info("Extraction server terminated")
+  }
+
+  private def acceptConnections() : Unit = {
+    try {
+      while (running) connections.put(serverSocket.accept())
+    }
+    catch {
+      /* the socket is closed when the server terminates */
+      case e : SocketException => ()
+    }
+  }
+
+  private def handle(socket : Socket) : Unit = {
+    val in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "utf-8"))
+    val out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))
+    val request = in.readLine()
+
+    if (null == request) {
+      logger.warn("Empty request")
+    }
+    else if (request.trim == ExtractionServer.SHUTDOWN) {
+      logger.info("Received the shutdown request")
+      running = false
+      writeResponse(out, JobResult(BatchDriver.OK, null, "shutdown"), Nil)
+    }
+    else {
+      logger.info("Received the job {}", request)
+      val parsed = Main.parser.parse(BatchDriver.splitArgs(request.trim), MainOptions())
+      val result = BatchDriver.runJob(parsed)
+      /* the graphs that already exist are not extracted again, but they
+       * are graphs of the job */
+      writeResponse(out, result, BatchDriver.findGraphs(result.outputDir, result.graphs))
+    }
+  }
+
+  private def writeResponse(out : DataOutputStream, result : JobResult,
+    graphs : List[String]) : Unit = {
+    out.writeUTF(result.status)
+    out.writeUTF(String.valueOf(result.message))
+    out.writeInt(graphs.size)
+    /* the segments are opened once, and their graphs are decoded by the
+     * reader */
+    val readers = scala.collection.mutable.HashMap[String, SegmentAcdfgReader]()
+    try {
+      for (graph <- graphs) {
+        val bytes = SegmentAcdfgReader.splitReference(graph) match {
+          case Some((segment, name)) => {
+            val reader = readers.getOrElseUpdate(segment,
+              new SegmentAcdfgReader(new File(segment)))
+            reader.get(name) match {
+              case Some(acdfg) => acdfg.toByteArray()
+              case None => throw new Exception("Graph " + name + " not found in the segment")
+            }
+          }
+          case None => Files.readAllBytes(new File(graph).toPath())
+        }
+        out.writeUTF(new File(graph).getName())
+        out.writeInt(bytes.length)
+        out.write(bytes)
+      }
+    }
+    finally {
+      readers.values.foreach(_.close())
+    }
+    out.flush()
+  }
+}
+
+object ExtractionServer {
+  val SHUTDOWN = "shutdown"
+  private val BACKLOG = 50
+}
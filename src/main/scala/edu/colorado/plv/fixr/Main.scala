@@ -9,9 +9,12 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import edu.colorado.plv.fixr.abstraction.Acdfg
 import edu.colorado.plv.fixr.abstraction.AcdfgToDotGraph
+import edu.colorado.plv.fixr.extractors.AcdfgSink
 import edu.colorado.plv.fixr.extractors.Extractor
 import edu.colorado.plv.fixr.extractors.ExtractorOptions
+import edu.colorado.plv.fixr.extractors.MethodBagIndex
 import edu.colorado.plv.fixr.extractors.MultipleExtractor
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgReader
 import edu.colorado.plv.fixr.graphs.UnitCdfgGraph
 import edu.colorado.plv.fixr.slicing.APISlicer
 import edu.colorado.plv.fixr.slicing.MethodPackageSeed
@@ -22,6 +25,7 @@ import soot.SootClass
 import soot.toolkits.graph.pdg.EnhancedUnitGraph
 import edu.colorado.plv.fixr.extractors.MethodExtractor
 import edu.colorado.plv.fixr.visualization.Visualizer
+import edu.colorado.plv.fixr.protobuf.ProtoIso.Iso
 import soot.PhaseOptions
 import soot.options.Options
 import soot.PackManager
@@ -54,7 +58,121 @@ object Main {
     var repoName : String = null,
     var url : String = null,
     var commitHash : String = null,
-    to : Long = 0)
+    to : Long = 0,
+    workers : Int = 1,
+    incremental : Boolean = false,
+    batch : String = null,
+    batchReport : String = "batch_report.tsv",
+    server : Int = -1,
+    processes : Int = 1,
+    outputFormat : String = AcdfgSink.FILES,
+    segmentDictionary : Boolean = false,
+    compactIds : Boolean = false,
+    dedup : Boolean = false,
+    fingerprintIndex : String = null,
+    methodIndex : Boolean = false,
+    metricsReport : String = null,
+    shardClasses : String = null)
+
+  /* Parser of the command line options */
+  val parser = new scopt.OptionParser[MainOptions]("scopt") {
+    head("GraphExtractor", "0.1")
+    //
+    opt[Boolean]('v', "visualize-iso") action { (x, c) =>
+      c.copy(visualize = x) } text("Set to true to visualize an embedding/isomorphism")
+
+    opt[String]('1', "graph1") action { (x, c) =>
+      c.copy(graph1 = x) } text("Path to first ACDFG protobuf (or segment#graph_name)")
+
+    opt[String]('2', "graph2") action { (x, c) =>
+      c.copy(graph2 = x) } text("Path to second ACDFG protobuf (or segment#graph_name)")
+
+    opt[String]('i', "graph2") action { (x, c) =>
+      c.copy(iso = x) } text("Path to embedding/isomorphism protobuf")
+
+    opt[String]('l', "cp") action { (x, c) =>
+    c.copy(sootClassPath = x) } text("cp is the soot classpath")
+    //
+    opt[Boolean]('s', "read-from-sources") action { (x, c) =>
+      c.copy(readFromSources = x) } text("Set to true to use Jimple as input")
+    //
+    opt[Boolean]('a', "read-from-apk") action { (x, c) =>
+      c.copy(readFromApk = x) } text("Set to true to use read APKs as input")
+    //
+    opt[String]('w', "android-jars") action { (x, c) =>
+      c.copy(androidJars = x) } text("Path to Android platform in the android-sdk")
+    //
+    opt[Boolean]('j', "jphanthom") action { (x, c) =>
+      c.copy(useJPhantom = x) } text("Set to true to use JPhantom")
+    opt[String]('z', "jphantom-folder") action { (x, c) =>
+      c.copy(outPhantomJar = x) } text("Path to the generated JPhantom classes")
+    //
+    opt[String]('f', "slice-filter").action { (x, c) =>
+    c.copy(sliceFilter = x) } text("Package prefixes to use as seed for slicing (: separated list)")
+    //
+    opt[String]('k', "extract-from-packages").action { (x, c) =>
+    c.copy(extractFromPackages = x) } text("Extract graphs only from this packages (: separated list)")
+    opt[String]('q', "java-file-filter").action { (x,c) =>
+      c.copy(extractFromPackages = AppCodeDetector.packageListFromFileList(x)) }
+    //
+    opt[String]('p', "process-dir") action { (x, c) =>
+    c.copy(processDir = x) } text("Comma (:) separated list of input directories to process")
+    //
+    opt[String]('c', "class-name") action { (x, c) =>
+    c.copy(className = x) } text("Name of the class to be processed.")
+    //
+    opt[String]('m', "method-name") action { (x, c) =>
+    c.copy(methodName = x) } text("Name of the method to be processed.")
+    //
+    opt[String]('o', "output-dir").action { (x, c) =>
+    c.copy(outputDir = x) } text("Path of the output directory for the ACDFG.")
+    //
+    opt[String]('d', "provenance-dir").action { (x, c) =>
+    c.copy(provenanceDir = x) } text("Path of the directory used to store the provenance information.")
+    //
+    opt[Long]('t', "time-out") action { (x, c) =>
+      c.copy(to= x) } text("Set the time out (0 for no time out)")
+    // Manually added for GitHub provenance --Rhys
+    opt[String]('n', "user-name") action { (x, c) =>
+      c.copy(userName = x) } text("GitHub username of the user who owns the repository being ingested (case-sensitive).")
+    opt[String]('r', "repo-name") action { (x, c) =>
+      c.copy(repoName = x) } text("Name of the GitHub repository being ingested (case-sensitive).")
+    opt[String]('u', "url") action { (x, c) =>
+      c.copy(url = x) } text("URL of the git repo; should be of the form `https://github.com/user_name/repo_name`.")
+    opt[String]('h', "commit-hash") action { (x, c) =>
+      c.copy(commitHash = x) } text("SHA-1 hash of the commit being ingested.")
+    opt[Boolean]("package-autodetect") action {(x,c) =>
+      c.copy(packageAutoDetect = x)} text "Automatically extract package filter from apk file."
+    opt[Int]("workers") action {(x,c) =>
+      c.copy(workers = x)} text "Number of threads used to build and write the ACDFGs (1 for a sequential extraction)."
+    opt[Boolean]("incremental") action {(x,c) =>
+      c.copy(incremental = x)} text "Set to true to skip the classes not changed since the last extraction in the output directory."
+    opt[String]("batch") action {(x,c) =>
+      c.copy(batch = x)} text "File with the list of extraction jobs to run in this JVM (one line of command line options per job)."
+    opt[String]("batch-report") action {(x,c) =>
+      c.copy(batchReport = x)} text "File where the batch mode writes the status of each job."
+    opt[Int]("server") action {(x,c) =>
+      c.copy(server = x)} text "Serve the extraction jobs received on this local port (0 for any free port)."
+    opt[Int]("processes") action {(x,c) =>
+      c.copy(processes = x)} text "Number of JVMs used to extract the classes in the process directories (1 to extract them in this JVM)."
+    opt[String]("output-format") action {(x,c) =>
+      c.copy(outputFormat = x)} text "Layout of the ACDFGs in the output directory: files (one file per graph) or segments (few large files with an index)."
+    opt[Boolean]("segment-dictionary") action {(x,c) =>
+      c.copy(segmentDictionary = x)} text "Set to true to store the method names and types of the segments in a dictionary."
+    opt[Boolean]("compact-ids") action {(x,c) =>
+      c.copy(compactIds = x)} text "Set to true to number the nodes of each ACDFG from 0, followed by its edges."
+    opt[Boolean]("dedup") action {(x,c) =>
+      c.copy(dedup = x)} text "Set to true to skip the ACDFGs structurally identical to an ACDFG already written."
+    opt[String]("fingerprint-index") action {(x,c) =>
+      c.copy(fingerprintIndex = x)} text "File with the fingerprints of the ACDFGs already written, used by dedup (default: graphs.fingerprints in the output directory)."
+    opt[Boolean]("method-index") action {(x,c) =>
+      c.copy(methodIndex = x)} text "Set to true to index the methods called by the ACDFGs in the output directory after the extraction."
+    opt[String]("metrics") action {(x,c) =>
+      c.copy(metricsReport = x)} text "CSV file where the time and the memory used by each stage of the extraction of each method are appended."
+    opt[String]("shard-classes") action {(x,c) =>
+      c.copy(shardClasses = x)} text "File with the list of classes to extract from the process directories (one per line)."
+
+  }
 
   /**
     * Now the program takes as input the classpath, the class name and the method name for which we have to build the graph
@@ -62,76 +180,6 @@ object Main {
     * @param args classpath, class name (e.g. package.ClassName), method name
     */
   def main(args: Array[String]) {
-    val parser = new scopt.OptionParser[MainOptions]("scopt") {
-      head("GraphExtractor", "0.1")
-      //
-      opt[Boolean]('v', "visualize-iso") action { (x, c) =>
-        c.copy(visualize = x) } text("Set to true to visualize an embedding/isomorphism")
-
-      opt[String]('1', "graph1") action { (x, c) =>
-        c.copy(graph1 = x) } text("Path to first ACDFG protobuf")
-
-      opt[String]('2', "graph2") action { (x, c) =>
-        c.copy(graph2 = x) } text("Path to second ACDFG protobuf")
-
-      opt[String]('i', "graph2") action { (x, c) =>
-        c.copy(iso = x) } text("Path to embedding/isomorphism protobuf")
-
-      opt[String]('l', "cp") action { (x, c) =>
-      c.copy(sootClassPath = x) } text("cp is the soot classpath")
-      //
-      opt[Boolean]('s', "read-from-sources") action { (x, c) =>
-        c.copy(readFromSources = x) } text("Set to true to use Jimple as input")
-      //
-      opt[Boolean]('a', "read-from-apk") action { (x, c) =>
-        c.copy(readFromApk = x) } text("Set to true to use read APKs as input")
-      //
-      opt[String]('w', "android-jars") action { (x, c) =>
-        c.copy(androidJars = x) } text("Path to Android platform in the android-sdk")
-      //
-      opt[Boolean]('j', "jphanthom") action { (x, c) =>
-        c.copy(useJPhantom = x) } text("Set to true to use JPhantom")
-      opt[String]('z', "jphantom-folder") action { (x, c) =>
-        c.copy(outPhantomJar = x) } text("Path to the generated JPhantom classes")
-      //
-      opt[String]('f', "slice-filter").action { (x, c) =>
-      c.copy(sliceFilter = x) } text("Package prefixes to use as seed for slicing (: separated list)")
-      //
-      opt[String]('k', "extract-from-packages").action { (x, c) =>
-      c.copy(extractFromPackages = x) } text("Extract graphs only from this packages (: separated list)")
-      opt[String]('q', "java-file-filter").action { (x,c) =>
-        c.copy(extractFromPackages = AppCodeDetector.packageListFromFileList(x)) }
-      //
-      opt[String]('p', "process-dir") action { (x, c) =>
-      c.copy(processDir = x) } text("Comma (:) separated list of input directories to process")
-      //
-      opt[String]('c', "class-name") action { (x, c) =>
-      c.copy(className = x) } text("Name of the class to be processed.")
-      //
-      opt[String]('m', "method-name") action { (x, c) =>
-      c.copy(methodName = x) } text("Name of the method to be processed.")
-      //
-      opt[String]('o', "output-dir").required().action { (x, c) =>
-      c.copy(outputDir = x) } text("Path of the output directory for the ACDFG.")
-      //
-      opt[String]('d', "provenance-dir").action { (x, c) =>
-      c.copy(provenanceDir = x) } text("Path of the directory used to store the provenance information.")
-      //
-      opt[Long]('t', "time-out") action { (x, c) =>
-        c.copy(to= x) } text("Set the time out (0 for no time out)")
-      // Manually added for GitHub provenance --Rhys
-      opt[String]('n', "user-name") action { (x, c) =>
-        c.copy(userName = x) } text("GitHub username of the user who owns the repository being ingested (case-sensitive).")
-      opt[String]('r', "repo-name") action { (x, c) =>
-        c.copy(repoName = x) } text("Name of the GitHub repository being ingested (case-sensitive).")
-      opt[String]('u', "url") action { (x, c) =>
-        c.copy(url = x) } text("URL of the git repo; should be of the form `https://github.com/user_name/repo_name`.")
-      opt[String]('h', "commit-hash") action { (x, c) =>
-        c.copy(commitHash = x) } text("SHA-1 hash of the commit being ingested.")
-      opt[Boolean]("package-autodetect") action {(x,c) =>
-        c.copy(packageAutoDetect = x)} text "Automatically extract package filter from apk file."
-
-    }
     parser.parse(args, MainOptions()) match {
       case Some(mainopt) if mainopt.visualize => {
         if (null == mainopt.graph1) {
@@ -167,11 +215,12 @@ object Main {
           System.exit(1)
         }
 
-        val graph1FileSt = new FileInputStream(new File(mainopt.graph1))
-        val graph2FileSt = new FileInputStream(new File(mainopt.graph2))
-        val isoFileSt    = new FileInputStream(new File(mainopt.iso))
+        val graph1 = SegmentAcdfgReader.loadGraph(mainopt.graph1)
+        val graph2 = SegmentAcdfgReader.loadGraph(mainopt.graph2)
+        val isoFileSt = new FileInputStream(new File(mainopt.iso))
+        val iso = try Iso.parseFrom(isoFileSt) finally isoFileSt.close()
 
-        val visualizer = new Visualizer(graph1FileSt, graph2FileSt, isoFileSt)
+        val visualizer = new Visualizer(graph1, graph2, iso)
 
         val graph1Id = visualizer.protoIso.getGraph1Id
         val graph2Id = visualizer.protoIso.getGraph2Id
@@ -179,127 +228,214 @@ object Main {
 
         visualizer.draw().plot(Paths.get(mainopt.outputDir, outputName).toString())
       }
-      case Some(mainopt) if ! mainopt.visualize => {
-        logger.debug("cp: {}", mainopt.sootClassPath)
-        logger.debug("read-from-sources: {}", mainopt.readFromSources)
-        logger.debug("read-from-apk: {}", mainopt.readFromApk)
-        logger.debug("extract-from-packages: {}", mainopt.extractFromPackages)
-        logger.debug("jphantom: {}\n", mainopt.useJPhantom)
-        logger.debug("jphantom-folder: {}\n", mainopt.outPhantomJar)
-        logger.debug("slice-filter: {}", mainopt.sliceFilter)
-        logger.debug("process-dir: {}", mainopt.processDir)
-        logger.debug("class-name: {}", mainopt.className)
-        logger.debug("method-name: {}", mainopt.methodName)
-        logger.debug("output-dir: {}", mainopt.outputDir)
-        logger.debug("provenance-dir: {}\n", mainopt.provenanceDir)
-        logger.debug("time-out: {}\n", mainopt.to)
-
-        if ( null != mainopt.url &&
-          null != mainopt.userName &&
-          null != mainopt.repoName &&
-          mainopt.url != "https://github.com/" +
-            mainopt.userName +
-            "/" +
-            mainopt.repoName
-        ) {
-          logger.warn("URL " + mainopt.url + "is not of the expected form " +
-            "https://github.com/" +
-            mainopt.userName +
-            "/" +
-            mainopt.repoName +
-            ". Proceeding anyways..."
-          )
-        }
-        if (null == mainopt.url &&
-          null != mainopt.userName &&
-          null != mainopt.repoName) {
-          logger.info("No GitHub repo URL supplied. " +
-            "Generating from username and repo name and proceeding..."
-          )
-          mainopt.url = "https://github.com/" + mainopt.userName + "/" + mainopt.repoName
-        }
-        if (null == mainopt.userName) {
-          logger.info("GitHub user name not supplied. Proceeding with empty string...")
-          mainopt.userName = ""
+      case Some(mainopt) if null != mainopt.batch => {
+        val driver = new BatchDriver(mainopt.batch, mainopt.batchReport)
+        val allSucceeded = driver.run()
+        if (! allSucceeded) {
+          logger.error("Some jobs failed, see the report {}", mainopt.batchReport)
+          System.exit(1)
         }
-        if (null == mainopt.repoName) {
-          logger.info("GitHub repository name not supplied. Proceeding with empty string...")
-          mainopt.repoName = ""
+      }
+      case Some(mainopt) if mainopt.server >= 0 => {
+        val server = new ExtractionServer(mainopt.server)
+        logger.info("Extraction server listening on port {}", server.getPort.toString)
+        server.serve()
+      }
+      case Some(mainopt) if mainopt.processes > 1 => {
+        if (null == mainopt.processDir || null == mainopt.outputDir) {
+          logger.error("The processes option requires the process and output directories")
+          System.exit(1)
         }
-        if (null == mainopt.url) {
-          logger.info("GitHub repo URL not supplied. Proceeding with empty string...")
-          mainopt.url = ""
+        if (mainopt.incremental) {
+          logger.warn("Incremental extraction is not supported with more than one process")
         }
-        if (null == mainopt.commitHash) {
-          logger.info("Commit hash not supplied. Proceeding with empty string...")
-          mainopt.commitHash = ""
+        val coordinator = new ShardCoordinator(args,
+          mainopt.processDir.split(":").toList, mainopt.outputDir, mainopt.processes)
+        if (! coordinator.run()) System.exit(1)
+        if (mainopt.methodIndex) MethodBagIndex.build(mainopt.outputDir)
+      }
+      case Some(mainopt) if ! mainopt.visualize => {
+        getExtractorOptions(mainopt) match {
+          case Some(options) => extract(options)
+          case None => System.exit(1)
         }
+      }
+      case None => System.exit(1)
+    }
 
-        if (null == mainopt.processDir &&
-            (null == mainopt.className || null == mainopt.methodName)) {
-           logger.error("You must set one between process dir and class name and method")
-           System.exit(1)
-        }
-        if (null != mainopt.processDir &&
-            (null != mainopt.className || null != mainopt.methodName)) {
-           logger.error("The process-dir option is mutually exclusive " +
-               "with the class-name and method-name options")
-           System.exit(1)
-        }
-        if ( (null != mainopt.className && null == mainopt.methodName) ||
-          (null == mainopt.className && null != mainopt.methodName)) {
-          logger.error("The options class-name and method-name " +
-              "must be specified together")
-           System.exit(1)
-        }
+    logger.info("Terminated extraction...")
+    System.exit(0)
+  }
+
+  /**
+    * Checks the options of an extraction and creates the ExtractorOptions.
+    *
+    * Returns None (after logging the error) if the options are not valid.
+    */
+  def getExtractorOptions(mainopt : MainOptions) : Option[ExtractorOptions] = {
+    if (null == mainopt.outputDir) {
+      logger.error("Output directory not provided!")
+      return None
+    }
 
-        val configCode = if (mainopt.readFromSources) SootHelper.READ_FROM_SOURCES
-            else if (mainopt.readFromApk) SootHelper.READ_FROM_APK
-            else SootHelper.READ_FROM_BYTECODE
+    logger.debug("cp: {}", mainopt.sootClassPath)
+    logger.debug("read-from-sources: {}", mainopt.readFromSources)
+    logger.debug("read-from-apk: {}", mainopt.readFromApk)
+    logger.debug("extract-from-packages: {}", mainopt.extractFromPackages)
+    logger.debug("jphantom: {}\n", mainopt.useJPhantom)
+    logger.debug("jphantom-folder: {}\n", mainopt.outPhantomJar)
+    logger.debug("slice-filter: {}", mainopt.sliceFilter)
+    logger.debug("process-dir: {}", mainopt.processDir)
+    logger.debug("class-name: {}", mainopt.className)
+    logger.debug("method-name: {}", mainopt.methodName)
+    logger.debug("output-dir: {}", mainopt.outputDir)
+    logger.debug("provenance-dir: {}\n", mainopt.provenanceDir)
+    logger.debug("time-out: {}\n", mainopt.to)
+    logger.debug("workers: {}\n", mainopt.workers)
+    logger.debug("incremental: {}\n", mainopt.incremental)
+    logger.debug("shard-classes: {}\n", mainopt.shardClasses)
+    logger.debug("output-format: {}\n", mainopt.outputFormat)
+    logger.debug("segment-dictionary: {}\n", mainopt.segmentDictionary)
+    logger.debug("compact-ids: {}\n", mainopt.compactIds)
+    logger.debug("dedup: {}\n", mainopt.dedup)
+    logger.debug("fingerprint-index: {}\n", mainopt.fingerprintIndex)
+    logger.debug("method-index: {}\n", mainopt.methodIndex)
+    logger.debug("metrics: {}\n", mainopt.metricsReport)
 
-        val options : ExtractorOptions = new ExtractorOptions()
-        options.className = mainopt.className
-        options.methodName = mainopt.methodName
-        options.useJPhantom = mainopt.useJPhantom
-        options.outPhantomJar = mainopt.outPhantomJar
-        options.configCode = configCode
-        options.androidJars = mainopt.androidJars
-        options.sootClassPath = mainopt.sootClassPath
-        options.outputDir = mainopt.outputDir
-        options.provenanceDir = mainopt.provenanceDir
-        options.to = mainopt.to
-        options.repoName = mainopt.repoName
-        options.userName = mainopt.userName
-        options.url = mainopt.url
-        options.commitHash = mainopt.commitHash
+    if ( null != mainopt.url &&
+      null != mainopt.userName &&
+      null != mainopt.repoName &&
+      mainopt.url != "https://github.com/" +
+        mainopt.userName +
+        "/" +
+        mainopt.repoName
+    ) {
+      logger.warn("URL " + mainopt.url + "is not of the expected form " +
+        "https://github.com/" +
+        mainopt.userName +
+        "/" +
+        mainopt.repoName +
+        ". Proceeding anyways..."
+      )
+    }
+    if (null == mainopt.url &&
+      null != mainopt.userName &&
+      null != mainopt.repoName) {
+      logger.info("No GitHub repo URL supplied. " +
+        "Generating from username and repo name and proceeding..."
+      )
+      mainopt.url = "https://github.com/" + mainopt.userName + "/" + mainopt.repoName
+    }
+    if (null == mainopt.userName) {
+      logger.info("GitHub user name not supplied. Proceeding with empty string...")
+      mainopt.userName = ""
+    }
+    if (null == mainopt.repoName) {
+      logger.info("GitHub repository name not supplied. Proceeding with empty string...")
+      mainopt.repoName = ""
+    }
+    if (null == mainopt.url) {
+      logger.info("GitHub repo URL not supplied. Proceeding with empty string...")
+      mainopt.url = ""
+    }
+    if (null == mainopt.commitHash) {
+      logger.info("Commit hash not supplied. Proceeding with empty string...")
+      mainopt.commitHash = ""
+    }
 
-        if (null != mainopt.extractFromPackages) {
-          options.extractFromPackages = mainopt.extractFromPackages.split(":").toList
-        }
+    if (null == mainopt.processDir &&
+        (null == mainopt.className || null == mainopt.methodName)) {
+       logger.error("You must set one between process dir and class name and method")
+       return None
+    }
+    if (null != mainopt.processDir &&
+        (null != mainopt.className || null != mainopt.methodName)) {
+       logger.error("The process-dir option is mutually exclusive " +
+           "with the class-name and method-name options")
+       return None
+    }
+    if ( (null != mainopt.className && null == mainopt.methodName) ||
+      (null == mainopt.className && null != mainopt.methodName)) {
+      logger.error("The options class-name and method-name " +
+          "must be specified together")
+       return None
+    }
 
-        if (null != mainopt.sliceFilter) {
-          options.sliceFilter = mainopt.sliceFilter.split(":").toList
-        }
+    if (! AcdfgSink.FORMATS.contains(mainopt.outputFormat)) {
+      logger.error("Unknown output format {}", mainopt.outputFormat)
+      return None
+    }
 
-        if (null != mainopt.processDir) {
-          val myArray : Array[String] = mainopt.processDir.split(":")
-          options.processDir = myArray.toList
-        }
-        if (mainopt.packageAutoDetect){
-          val packageFromApk = AppCodeDetector.mainPackageFromApk(mainopt.processDir)
-          options.extractFromPackages = List(packageFromApk) //options.extractFromPackages
-        }
+    val configCode = if (mainopt.readFromSources) SootHelper.READ_FROM_SOURCES
+        else if (mainopt.readFromApk) SootHelper.READ_FROM_APK
+        else SootHelper.READ_FROM_BYTECODE
 
-        val extractor : Extractor =
-          if (options.processDir == null) new MethodExtractor(options)
-          else new MultipleExtractor(options)
-        logger.info("Starting the extractor...")
-        extractor.extract()
-      }
-      case None => System.exit(1)
+    val options : ExtractorOptions = new ExtractorOptions()
+    options.className = mainopt.className
+    options.methodName = mainopt.methodName
+    options.useJPhantom = mainopt.useJPhantom
+    options.outPhantomJar = mainopt.outPhantomJar
+    options.configCode = configCode
+    options.androidJars = mainopt.androidJars
+    options.sootClassPath = mainopt.sootClassPath
+    options.outputDir = mainopt.outputDir
+    options.provenanceDir = mainopt.provenanceDir
+    options.outputFormat = mainopt.outputFormat
+    options.segmentDictionary = mainopt.segmentDictionary
+    options.compactIds = mainopt.compactIds
+    options.dedup = mainopt.dedup
+    options.fingerprintIndex = mainopt.fingerprintIndex
+    options.methodIndex = mainopt.methodIndex
+    options.metricsReport = mainopt.metricsReport
+    options.to = mainopt.to
+    options.workers = mainopt.workers
+    options.incremental = mainopt.incremental
+    if (null != mainopt.shardClasses) {
+      options.shardClasses = ShardCoordinator.readClassList(mainopt.shardClasses)
     }
+    options.repoName = mainopt.repoName
+    options.userName = mainopt.userName
+    options.url = mainopt.url
+    options.commitHash = mainopt.commitHash
 
-    logger.info("Terminated extraction...")
-    System.exit(0)
+    if (null != mainopt.extractFromPackages) {
+      options.extractFromPackages = mainopt.extractFromPackages.split(":").toList
+    }
+
+    if (null != mainopt.sliceFilter) {
+      options.sliceFilter = mainopt.sliceFilter.split(":").toList
+    }
+
+    if (null != mainopt.processDir) {
+      val myArray : Array[String] = mainopt.processDir.split(":")
+      options.processDir = myArray.toList
+    }
+    if (mainopt.packageAutoDetect){
+      val packageFromApk = AppCodeDetector.mainPackageFromApk(mainopt.processDir)
+      options.extractFromPackages = List(packageFromApk) //options.extractFromPackages
+    }
+
+    Some(options)
+  }
+
+  /**
+    * Runs the extraction (in the current Soot instance)
+    *
+    * @return the names of the graphs of the extracted methods (see
+    *  MethodsTransformer.graphs)
+    */
+  def extract(options : ExtractorOptions) : List[String] = {
+    val extractor : Extractor =
+      if (options.processDir == null) new MethodExtractor(options)
+      else new MultipleExtractor(options)
+    logger.info("Starting the extractor...")
+    extractor.extract()
+
+    /* the shards are indexed by the coordinator */
+    if (options.methodIndex && null == options.shardClasses) {
+      MethodBagIndex.build(options.outputDir)
+    }
+
+    extractor.getTransformer.graphs
   }
 }
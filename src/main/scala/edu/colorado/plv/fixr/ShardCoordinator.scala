@@ -0,0 +1,281 @@
+package edu.colorado.plv.fixr
+
+import java.io.BufferedReader
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.io.PrintWriter
+import java.lang.management.ManagementFactory
+import java.nio.file.Files
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+import java.util.jar.JarFile
+
+import scala.collection.JavaConversions._
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import edu.colorado.plv.fixr.extractors.ExtractionManifest
+
+/**
+  * Runs the extraction of the classes in processDir in several JVMs.
+  *
+  * Soot keeps its state in global singletons, so a JVM can only extract
+  * one program at a time. The coordinator splits the classes in shards
+  * (keeping the packages together when possible) and runs each shard in
+  * a child JVM with the same command line options, at most processes
+  * children at a time.
+  *
+  * There are more shards than processes, the largest first, so that the
+  * processes that terminate early take the remaining shards. A shard
+  * whose process fails is split in two and its halves are extracted
+  * again (once).
+  *
+  * The children write the graphs in the same output directory (the
+  * graph names are unique per method). Their logs are merged in the
+  * output directory at the end of the extraction.
+  */
+class ShardCoordinator(args : Array[String], processDir : List[String],
+  outputDir : String, processes : Int) {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  private case class Shard(id : Int, classes : List[String], retry : Boolean)
+  private case class ShardResult(shard : Shard, exitCode : Int, logFile : File)
+
+  /**
+    * Runs the extraction of all the shards.
+    *
+    * @return true if all the classes were extracted without errors
+    */
+  def run() : Boolean = {
+    ExtractionManifest.listClasses(processDir) match {
+      case None =>
+        logger.error("Sharded extraction is only supported for directories " +
+          "and jar files as input")
+        false
+      case Some(classes) => runShards(classes)
+    }
+  }
+
+  private def runShards(classes : List[String]) : Boolean = {
+    val shardsDir = new File(outputDir, ShardCoordinator.SHARDS_DIR)
+    if (! shardsDir.exists() && ! shardsDir.mkdirs()) {
+      throw new Exception("Error creating " + shardsDir)
+    }
+
+    val pool = Executors.newFixedThreadPool(processes)
+    val completion = new ExecutorCompletionService[ShardResult](pool)
+    val results = scala.collection.mutable.ListBuffer[ShardResult]()
+    var nextId = 0
+    var pending = 0
+
+    def submit(classes : List[String], retry : Boolean) : Unit = {
+      val shard = Shard(nextId, classes, retry)
+      nextId = nextId + 1
+      pending = pending + 1
+      completion.submit(new Callable[ShardResult]() {
+        override def call() : ShardResult = runShard(shard, shardsDir)
+      })
+    }
+
+    val shards = ShardCoordinator.makeShards(classes,
+      processes * ShardCoordinator.SHARDS_PER_PROCESS)
+    logger.info("Extracting {} classes in {} shards with {} processes",
+      classes.size.toString, shards.size.toString, processes.toString)
+
+    try {
+      shards.foreach(submit(_, true))
+      while (pending > 0) {
+        val result = completion.take().get()
+        pending = pending - 1
+        results += result
+
+        if (0 != result.exitCode) {
+          logger.warn("Shard {} failed with exit code {}{}",
+            result.shard.id.toString, result.exitCode.toString, "")
+          if (isSplit(result)) {
+            /* split the shard, isolating the classes that made it fail */
+            ShardCoordinator.makeShards(result.shard.classes, 2).foreach(submit(_, false))
+          }
+        }
+      }
+    }
+    finally {
+      pool.shutdownNow()
+    }
+
+    val merged = results.toList.sortBy(_.shard.id)
+    mergeLogs(merged, shardsDir)
+
+    val failed = merged.filter(r => 0 != r.exitCode && ! isSplit(r))
+    if (failed.isEmpty) {
+      logger.info("All the {} shards terminated", merged.size.toString)
+      true
+    }
+    else {
+      val failedClasses = failed.map(_.shard.classes.size).sum
+      logger.error("{} shards ({} classes) failed, see {}",
+        failed.size.toString, failedClasses.toString,
+        new File(outputDir, ShardCoordinator.LOG_NAME).getPath())
+      false
+    }
+  }
+
+  private def runShard(shard : Shard, shardsDir : File) : ShardResult = {
+    val classFile = new File(shardsDir, "shard_" + shard.id + ".classes")
+    val logFile = new File(shardsDir, "shard_" + shard.id + ".log")
+    ShardCoordinator.writeClassList(classFile, shard.classes)
+
+    val command = ShardCoordinator.childCommand(args ++ Array(
+      "--processes", "1",
+      "--incremental", "false",
+      "--shard-classes", classFile.getPath()))
+    logger.info("Starting shard {} ({} classes)", shard.id.toString,
+      shard.classes.size.toString)
+
+    val builder = new ProcessBuilder(command : _*)
+    builder.redirectErrorStream(true)
+    builder.redirectOutput(logFile)
+    val exitCode = builder.start().waitFor()
+
+    logger.info("Shard {} terminated with exit code {}{}", shard.id.toString,
+      exitCode.toString, "")
+    ShardResult(shard, exitCode, logFile)
+  }
+
+  /* Appends the logs of the shards to a single file, removing the files
+   * of the shards that succeeded */
+  private def mergeLogs(results : List[ShardResult], shardsDir : File) : Unit = {
+    val log = new FileOutputStream(new File(outputDir, ShardCoordinator.LOG_NAME))
+    try {
+      for (result <- results) {
+        val header = "=== shard %d: %d classes, exit code %d ===\n".format(
+          result.shard.id, result.shard.classes.size, result.exitCode)
+        log.write(header.getBytes("utf-8"))
+        if (result.logFile.exists()) Files.copy(result.logFile.toPath(), log)
+
+        if (0 == result.exitCode) {
+          result.logFile.delete()
+          new File(shardsDir, "shard_" + result.shard.id + ".classes").delete()
+        }
+      }
+    }
+    finally {
+      log.close()
+    }
+    /* keep the files of the failed shards */
+    shardsDir.delete()
+  }
+
+  /* true if the shard failed and its classes were extracted again */
+  private def isSplit(result : ShardResult) : Boolean =
+    0 != result.exitCode && result.shard.retry && result.shard.classes.size > 1
+}
+
+object ShardCoordinator {
+  val SHARDS_DIR = "shards"
+  val LOG_NAME = "extraction_shards.log"
+
+  /* shards created for each process to balance the load */
+  val SHARDS_PER_PROCESS = 4
+
+  /**
+    * Splits the classes in at most numShards shards of similar size.
+    *
+    * The inner classes are in the same shard of their outer class, and
+    * the classes of a package are in the same shard unless the package
+    * is larger than a shard. The shards are sorted by decreasing size.
+    */
+  def makeShards(classes : Iterable[String], numShards : Int) : List[List[String]] = {
+    val byOuter = classes.toList.distinct.groupBy(c => c.takeWhile(_ != '$'))
+    val byPackage = byOuter.keys.toList.sorted.groupBy(packageOf)
+    val target = math.max(1, (classes.size + numShards - 1) / math.max(1, numShards))
+
+    /* units of classes that go in the same shard */
+    val units = scala.collection.mutable.ListBuffer[List[String]]()
+    for (pkg <- byPackage.keys.toList.sorted) {
+      var current = scala.collection.mutable.ListBuffer[String]()
+      for (outer <- byPackage(pkg)) {
+        val group = byOuter(outer).sorted
+        if (! current.isEmpty && current.size + group.size > target) {
+          units += current.toList
+          current = scala.collection.mutable.ListBuffer[String]()
+        }
+        current ++= group
+      }
+      if (! current.isEmpty) units += current.toList
+    }
+
+    /* largest unit first, in the least loaded shard */
+    val shards = Array.fill(math.max(1, numShards))(scala.collection.mutable.ListBuffer[String]())
+    for (unit <- units.toList.sortBy(u => (- u.size, u.head))) {
+      shards.minBy(_.size) ++= unit
+    }
+
+    shards.toList.filter(! _.isEmpty).map(_.toList).sortBy(s => (- s.size, s.head))
+  }
+
+  /** Writes the list of classes of a shard */
+  def writeClassList(file : File, classes : List[String]) : Unit = {
+    val writer = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(file), "utf-8"))
+    try classes.foreach(writer.println(_))
+    finally writer.close()
+  }
+
+  /** Reads the list of classes of a shard */
+  def readClassList(fileName : String) : Set[String] = {
+    val reader = new BufferedReader(new InputStreamReader(
+      new FileInputStream(fileName), "utf-8"))
+    try {
+      val classes = scala.collection.mutable.HashSet[String]()
+      var line = reader.readLine()
+      while (null != line) {
+        if (! line.trim.isEmpty) classes += line.trim
+        line = reader.readLine()
+      }
+      classes.toSet
+    }
+    finally {
+      reader.close()
+    }
+  }
+
+  private def packageOf(className : String) : String = {
+    val index = className.lastIndexOf('.')
+    if (index < 0) "" else className.substring(0, index)
+  }
+
+  /* Command that runs the extractor with args in a new JVM, with the
+   * same class path and JVM options of this one */
+  private def childCommand(args : Array[String]) : List[String] = {
+    val java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath()
+    val jvmOptions = ManagementFactory.getRuntimeMXBean().getInputArguments().toList.filter {
+      opt => opt.startsWith("-X") || opt.startsWith("-D")
+    }
+    val classPath = System.getProperty("java.class.path")
+
+    /* the packaged extractor (one jar) has its own launcher */
+    val isExecutableJar = classPath.endsWith(".jar") &&
+      ! classPath.contains(File.pathSeparator) && {
+        val jar = new JarFile(classPath)
+        try {
+          null != jar.getManifest() &&
+            null != jar.getManifest().getMainAttributes().getValue("Main-Class")
+        }
+        finally {
+          jar.close()
+        }
+      }
+
+    val launch =
+      if (isExecutableJar) List("-jar", classPath)
+      else List("-cp", classPath, Main.getClass.getName.stripSuffix("$"))
+
+    (java :: jvmOptions) ++ launch ++ args.toList
+  }
+}
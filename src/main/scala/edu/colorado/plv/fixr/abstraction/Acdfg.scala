@@ -6,6 +6,7 @@ import scala.collection.mutable.ArrayBuffer
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+import com.google.protobuf.CodedOutputStream
 
 import scala.collection.mutable.{Set, HashSet}
 import scala.collection.JavaConversions.collectionAsScalaIterable
@@ -188,6 +189,20 @@ object EdgeLabel extends Enumeration {
   val SRC_DOMINATE_DST, DST_POSDOMINATE_SRC = Value
 }
 
+/** Kinds of edges, used to index the edges of each node */
+object EdgeKind extends Enumeration {
+  type EdgeKind = Value
+  val CONTROL, DEF, USE, TRANS, EXCEPTIONAL = Value
+
+  def of(edge : Edge) : EdgeKind = edge match {
+    case e : ControlEdge => CONTROL
+    case e : DefEdge => DEF
+    case e : UseEdge => USE
+    case e : TransControlEdge => TRANS
+    case e : ExceptionalControlEdge => EXCEPTIONAL
+  }
+}
+
 
 /** Defines the name of the artificial methods introduced
   * when building the ACDFG
@@ -239,8 +254,18 @@ class Acdfg(adjacencyList: AdjacencyList,
     */
   var edgesLabel = scala.collection.mutable.HashMap[Long, Acdfg.LabelsSet]()
 
+  /*
+   * Ids of the edges leaving (outIndex) and entering (inIndex) each
+   * node, by kind of edge.
+   * The edges must be added and removed with addEdge and removeEdge*
+   * to keep the index consistent.
+   */
+  private val outIndex = scala.collection.mutable.HashMap[Long, Acdfg.EdgeIndex]()
+  private val inIndex = scala.collection.mutable.HashMap[Long, Acdfg.EdgeIndex]()
+
   var methodBag = new scala.collection.mutable.ArrayBuffer[String]()
-  var freshIds = new scala.collection.mutable.PriorityQueue[Long]().+=(0)
+  /* ids of the nodes and edges (they share the same ids) */
+  private val ids = new IdAllocator()
 
 
   private def prepareMethodBag() = {
@@ -251,122 +276,186 @@ class Acdfg(adjacencyList: AdjacencyList,
     methodBag = methodBag.sorted
   }
 
-  /* Internal Protobuf value generated as needed
+  /*
+   * The protobuf representation is cached and rebuilt when the graph
+   * changes: the methods that change the graph increment version.
+   */
+  private var version : Long = 0
+  private var pbCache : ProtoAcdfg.Acdfg = null
+  private var pbVersion : Long = -1
+  private var fingerprintCache : Long = 0
+  private var fingerprintVersion : Long = -1
 
-   [SM] What does it happen if someone access the protobuffer field,
-   then changes the ACDFG, and re-access the pb field?
-   I think the pb field will not be updated.
-   This is a bug.
-  */
-  private lazy val pb : ProtoAcdfg.Acdfg = {
-    var builder : ProtoAcdfg.Acdfg.Builder = ProtoAcdfg.Acdfg.newBuilder()
-
-    /* add the edges */
-    edges.foreach {
-      case (id : Long, edge : ControlEdge) =>
-        val protoControlEdge: ProtoAcdfg.Acdfg.ControlEdge.Builder =
-          ProtoAcdfg.Acdfg.ControlEdge.newBuilder()
-        protoControlEdge.setId(id)
-        protoControlEdge.setFrom(edge.from)
-        protoControlEdge.setTo(edge.to)
-        builder.addControlEdge(protoControlEdge)
-      case (id : Long, edge : DefEdge) =>
-        val protoDefEdge: ProtoAcdfg.Acdfg.DefEdge.Builder =
-          ProtoAcdfg.Acdfg.DefEdge.newBuilder()
-        protoDefEdge.setId(id)
-        protoDefEdge.setFrom(edge.from)
-        protoDefEdge.setTo(edge.to)
-        builder.addDefEdge(protoDefEdge)
-      case (id : Long, edge : UseEdge) =>
-        val protoUseEdge: ProtoAcdfg.Acdfg.UseEdge.Builder =
-          ProtoAcdfg.Acdfg.UseEdge.newBuilder()
-        protoUseEdge.setId(id)
-        protoUseEdge.setFrom(edge.from)
-        protoUseEdge.setTo(edge.to)
-        builder.addUseEdge(protoUseEdge)
-      case (id : Long, edge : TransControlEdge) =>
-        val protoTransEdge: ProtoAcdfg.Acdfg.TransEdge.Builder =
-          ProtoAcdfg.Acdfg.TransEdge.newBuilder()
-        protoTransEdge.setId(id)
-        protoTransEdge.setFrom(edge.from)
-        protoTransEdge.setTo(edge.to)
-        builder.addTransEdge(protoTransEdge)
-      case (id : Long, edge : ExceptionalControlEdge) =>
-        val protoEdge = ProtoAcdfg.Acdfg.ExceptionalControlEdge.newBuilder()
-        protoEdge.setId(id)
-        protoEdge.setFrom(edge.from)
-        protoEdge.setTo(edge.to)
-        edge.exceptions.foreach { x => protoEdge.addExceptions(x) }
-        builder.addExceptionalEdge(protoEdge)
-    }
-
-    /* Add the node labels */
-    edgesLabel.foreach {
-      case (id : Long, label : Acdfg.LabelsSet) => {
-        val edgeBuilder = ProtoAcdfg.Acdfg.LabelMap.newBuilder()
-        edgeBuilder.setEdgeId(id)
-        label.foreach { x => x match {
-          case x if x == EdgeLabel.SRC_DOMINATE_DST => edgeBuilder.addLabels(ProtoAcdfg.Acdfg.EdgeLabel.DOMINATE)
-          case x if x == EdgeLabel.DST_POSDOMINATE_SRC => edgeBuilder.addLabels(ProtoAcdfg.Acdfg.EdgeLabel.POSTDOMINATED)
-          case _ => ???
-          }
-        }
-        builder.addEdgeLabels(edgeBuilder)
+  /**
+    * Marks the graph as changed.
+    *
+    * Must be called after changing the nodes, edges, labels or lines
+    * directly (and not with the methods of the class).
+    */
+  def invalidate() : Unit = version = version + 1
+
+  private def buildProtobuf() : ProtoAcdfg.Acdfg = {
+    val builder : ProtoAcdfg.Acdfg.Builder = ProtoAcdfg.Acdfg.newBuilder()
+
+    protoDataNodes.foreach(builder.addDataNode)
+    protoMiscNodes.foreach(builder.addMiscNode)
+    protoMethodNodes.foreach(builder.addMethodNode)
+    protoControlEdges.foreach(builder.addControlEdge)
+    protoDefEdges.foreach(builder.addDefEdge)
+    protoUseEdges.foreach(builder.addUseEdge)
+    protoTransEdges.foreach(builder.addTransEdge)
+    protoRepoTag.foreach(builder.setRepoTag)
+    builder.setMethodBag(protoMethodBag)
+    protoSourceInfo.foreach(builder.setSourceInfo)
+    protoEdgeLabels.foreach(builder.addEdgeLabels)
+    protoExceptionalEdges.foreach(builder.addExceptionalEdge)
+    builder.setProvenancePath(provenancePath)
+    protoNodeLines.foreach(builder.addNodeLines)
+    builder.setFingerprint(fingerprint)
+
+    builder.build()
+  }
+
+  /**
+    * Writes the protobuf representation of the graph in out.
+    *
+    * The fields are written one at a time (in the order used by the
+    * protobuf library), so the protobuf message of the whole graph is
+    * never built. The output is the same of toProtobuf.writeTo.
+    */
+  def writeTo(out : CodedOutputStream) : Unit = {
+    val cached = synchronized { if (pbVersion == version) pbCache else null }
+    if (null != cached) {
+      cached.writeTo(out)
+    }
+    else {
+      protoDataNodes.foreach(out.writeMessage(ProtoAcdfg.Acdfg.DATA_NODE_FIELD_NUMBER, _))
+      protoMiscNodes.foreach(out.writeMessage(ProtoAcdfg.Acdfg.MISC_NODE_FIELD_NUMBER, _))
+      protoMethodNodes.foreach(out.writeMessage(ProtoAcdfg.Acdfg.METHOD_NODE_FIELD_NUMBER, _))
+      protoControlEdges.foreach(out.writeMessage(ProtoAcdfg.Acdfg.CONTROL_EDGE_FIELD_NUMBER, _))
+      protoDefEdges.foreach(out.writeMessage(ProtoAcdfg.Acdfg.DEF_EDGE_FIELD_NUMBER, _))
+      protoUseEdges.foreach(out.writeMessage(ProtoAcdfg.Acdfg.USE_EDGE_FIELD_NUMBER, _))
+      protoTransEdges.foreach(out.writeMessage(ProtoAcdfg.Acdfg.TRANS_EDGE_FIELD_NUMBER, _))
+      protoRepoTag.foreach(out.writeMessage(ProtoAcdfg.Acdfg.REPO_TAG_FIELD_NUMBER, _))
+      out.writeMessage(ProtoAcdfg.Acdfg.METHOD_BAG_FIELD_NUMBER, protoMethodBag)
+      protoSourceInfo.foreach(out.writeMessage(ProtoAcdfg.Acdfg.SOURCE_INFO_FIELD_NUMBER, _))
+      protoEdgeLabels.foreach(out.writeMessage(ProtoAcdfg.Acdfg.EDGE_LABELS_FIELD_NUMBER, _))
+      protoExceptionalEdges.foreach(out.writeMessage(ProtoAcdfg.Acdfg.EXCEPTIONAL_EDGE_FIELD_NUMBER, _))
+      out.writeString(ProtoAcdfg.Acdfg.PROVENANCE_PATH_FIELD_NUMBER, provenancePath)
+      protoNodeLines.foreach(out.writeMessage(ProtoAcdfg.Acdfg.NODE_LINES_FIELD_NUMBER, _))
+      out.writeUInt64(ProtoAcdfg.Acdfg.FINGERPRINT_FIELD_NUMBER, fingerprint)
+    }
+  }
+
+  /** Serializes the graph (see writeTo) */
+  def toByteArray : Array[Byte] = {
+    val bytes = new java.io.ByteArrayOutputStream()
+    val out = CodedOutputStream.newInstance(bytes)
+    writeTo(out)
+    out.flush()
+    bytes.toByteArray()
+  }
+
+  /* Protobuf messages of the fields of the graph */
+
+  private def protoDataNodes : Iterator[ProtoAcdfg.Acdfg.DataNode] =
+    nodes.iterator.collect { case (id : Long, node : DataNode) =>
+      val protoDataNode : ProtoAcdfg.Acdfg.DataNode.Builder =
+        ProtoAcdfg.Acdfg.DataNode.newBuilder()
+      protoDataNode.setId(id)
+      protoDataNode.setName(node.name)
+      protoDataNode.setType(node.datatype)
+
+      node match {
+        case x : VarDataNode => protoDataNode.setDataType(ProtoAcdfg.Acdfg.DataNode.DataType.DATA_VAR)
+        case x : ConstDataNode => protoDataNode.setDataType(ProtoAcdfg.Acdfg.DataNode.DataType.DATA_CONST)
       }
+      protoDataNode.build()
     }
 
-    var methodBag : scala.collection.mutable.ArrayBuffer[String] =
-      new scala.collection.mutable.ArrayBuffer[String]()
+  private def protoMiscNodes : Iterator[ProtoAcdfg.Acdfg.MiscNode] =
+    nodes.iterator.collect { case (id : Long, node : MiscNode) =>
+      ProtoAcdfg.Acdfg.MiscNode.newBuilder().setId(id).build()
+    }
 
-    /* Add the nodes */
-    nodes.foreach {
-      case (id : Long, node : DataNode) =>
-        val protoDataNode : ProtoAcdfg.Acdfg.DataNode.Builder =
-          ProtoAcdfg.Acdfg.DataNode.newBuilder()
-        protoDataNode.setId(id)
-        protoDataNode.setName(node.name)
-        protoDataNode.setType(node.datatype)
+  private def protoMethodNodes : Iterator[ProtoAcdfg.Acdfg.MethodNode] =
+    nodes.iterator.collect { case (id : Long, node : MethodNode) =>
+      val protoMethodNode : ProtoAcdfg.Acdfg.MethodNode.Builder =
+        ProtoAcdfg.Acdfg.MethodNode.newBuilder()
+      protoMethodNode.setId(id)
+      if (node.assignee.isDefined) {
+        protoMethodNode.setAssignee(node.assignee.get)
+      }
+      if (node.invokee.isDefined) {
+        protoMethodNode.setInvokee(node.invokee.get)
+      }
+      node.argumentIds.foreach(protoMethodNode.addArgument)
+      protoMethodNode.setName(node.name)
+      protoMethodNode.build()
+    }
 
-        node match {
-          case x : VarDataNode => protoDataNode.setDataType(ProtoAcdfg.Acdfg.DataNode.DataType.DATA_VAR)
-          case x : ConstDataNode => protoDataNode.setDataType(ProtoAcdfg.Acdfg.DataNode.DataType.DATA_CONST)
-        }
+  private def protoControlEdges : Iterator[ProtoAcdfg.Acdfg.ControlEdge] =
+    edges.iterator.collect { case (id : Long, edge : ControlEdge) =>
+      ProtoAcdfg.Acdfg.ControlEdge.newBuilder().
+        setId(id).setFrom(edge.from).setTo(edge.to).build()
+    }
 
-        builder.addDataNode(protoDataNode)
-      case (id : Long, node : MiscNode) =>
-        val protoMiscNode : ProtoAcdfg.Acdfg.MiscNode.Builder =
-          ProtoAcdfg.Acdfg.MiscNode.newBuilder()
-        protoMiscNode.setId(id)
-        builder.addMiscNode(protoMiscNode)
-      case (id : Long, node : MethodNode) =>
-        val protoMethodNode : ProtoAcdfg.Acdfg.MethodNode.Builder =
-          ProtoAcdfg.Acdfg.MethodNode.newBuilder()
-        protoMethodNode.setId(id)
-        if (node.assignee.isDefined) {
-          protoMethodNode.setAssignee(node.assignee.get)
-        }
-        if (node.invokee.isDefined) {
-          protoMethodNode.setInvokee(node.invokee.get)
-        }
-        node.argumentIds.foreach(protoMethodNode.addArgument)
-        protoMethodNode.setName(node.name)
-        builder.addMethodNode(protoMethodNode)
+  private def protoDefEdges : Iterator[ProtoAcdfg.Acdfg.DefEdge] =
+    edges.iterator.collect { case (id : Long, edge : DefEdge) =>
+      ProtoAcdfg.Acdfg.DefEdge.newBuilder().
+        setId(id).setFrom(edge.from).setTo(edge.to).build()
+    }
 
-        // add method to bag of methods representation
-        methodBag.append(node.name)
+  private def protoUseEdges : Iterator[ProtoAcdfg.Acdfg.UseEdge] =
+    edges.iterator.collect { case (id : Long, edge : UseEdge) =>
+      ProtoAcdfg.Acdfg.UseEdge.newBuilder().
+        setId(id).setFrom(edge.from).setTo(edge.to).build()
     }
 
-    /* copy the repotag informations */
-    if (null != this.gitHubRecord) {
+  private def protoTransEdges : Iterator[ProtoAcdfg.Acdfg.TransEdge] =
+    edges.iterator.collect { case (id : Long, edge : TransControlEdge) =>
+      ProtoAcdfg.Acdfg.TransEdge.newBuilder().
+        setId(id).setFrom(edge.from).setTo(edge.to).build()
+    }
+
+  private def protoExceptionalEdges : Iterator[ProtoAcdfg.Acdfg.ExceptionalControlEdge] =
+    edges.iterator.collect { case (id : Long, edge : ExceptionalControlEdge) =>
+      val protoEdge = ProtoAcdfg.Acdfg.ExceptionalControlEdge.newBuilder()
+      protoEdge.setId(id)
+      protoEdge.setFrom(edge.from)
+      protoEdge.setTo(edge.to)
+      edge.exceptions.foreach { x => protoEdge.addExceptions(x) }
+      protoEdge.build()
+    }
+
+  private def protoEdgeLabels : Iterator[ProtoAcdfg.Acdfg.LabelMap] =
+    edgesLabel.iterator.map { case (id : Long, label : Acdfg.LabelsSet) =>
+      val edgeBuilder = ProtoAcdfg.Acdfg.LabelMap.newBuilder()
+      edgeBuilder.setEdgeId(id)
+      label.foreach { x => x match {
+        case x if x == EdgeLabel.SRC_DOMINATE_DST => edgeBuilder.addLabels(ProtoAcdfg.Acdfg.EdgeLabel.DOMINATE)
+        case x if x == EdgeLabel.DST_POSDOMINATE_SRC => edgeBuilder.addLabels(ProtoAcdfg.Acdfg.EdgeLabel.POSTDOMINATED)
+        case _ => ???
+        }
+      }
+      edgeBuilder.build()
+    }
+
+  /* copy the repotag informations */
+  private def protoRepoTag : Option[ProtoAcdfg.Acdfg.RepoTag] =
+    if (null == this.gitHubRecord) None
+    else {
       val protoRepoTag = ProtoAcdfg.Acdfg.RepoTag.newBuilder()
       protoRepoTag.setUserName(this.gitHubRecord.userName)
       protoRepoTag.setRepoName(this.gitHubRecord.repoName)
       protoRepoTag.setUrl(this.gitHubRecord.url)
       protoRepoTag.setCommitHash(this.gitHubRecord.commitHash)
-      builder.setRepoTag(protoRepoTag)
+      Some(protoRepoTag.build())
     }
 
-    if (null != this.sourceInfo) {
+  private def protoSourceInfo : Option[ProtoAcdfg.Acdfg.SourceInfo] =
+    if (null == this.sourceInfo) None
+    else {
       val protoSrcTag = ProtoAcdfg.Acdfg.SourceInfo.newBuilder()
       protoSrcTag.setPackageName(sourceInfo.packageName)
       protoSrcTag.setClassName(sourceInfo.className)
@@ -375,60 +464,88 @@ class Acdfg(adjacencyList: AdjacencyList,
       protoSrcTag.setMethodLineNumber(sourceInfo.methodLineNumber)
       protoSrcTag.setSourceClassName(sourceInfo.sourceClassName)
       protoSrcTag.setAbsSourceClassName(sourceInfo.absSourceClassName)
-      builder.setSourceInfo(protoSrcTag)
+      Some(protoSrcTag.build())
     }
 
-    // Add nodes to lines mapping
-    for ((nodeId, nodeLine) <- nodesToLineNumber) {
-      val protoLine : ProtoAcdfg.Acdfg.LineNum.Builder =
-        ProtoAcdfg.Acdfg.LineNum.newBuilder()
-      protoLine.setId(nodeId)
-      protoLine.setLine(nodeLine)
-
-      builder.addNodeLines(protoLine);
+  // Nodes to lines mapping
+  private def protoNodeLines : Iterator[ProtoAcdfg.Acdfg.LineNum] =
+    nodesToLineNumber.iterator.map { case (nodeId, nodeLine) =>
+      ProtoAcdfg.Acdfg.LineNum.newBuilder().setId(nodeId).setLine(nodeLine).build()
     }
 
-    // add bag of methods
+  // bag of methods, sorted
+  private def protoMethodBag : ProtoAcdfg.Acdfg.MethodBag = {
     val protoMethodBag = ProtoAcdfg.Acdfg.MethodBag.newBuilder()
-    methodBag.sorted.foreach(protoMethodBag.addMethod)
-    builder.setMethodBag(protoMethodBag)
-
-    builder.setProvenancePath(provenancePath)
-    
-    builder.build()
-  } /* creation of pb */
+    nodes.values.collect { case node : MethodNode => node.name }.toArray.sorted.
+      foreach(protoMethodBag.addMethod)
+    protoMethodBag.build()
+  }
 
-  // TODO: fix
+  /** Returns an id not used by any node or edge */
   def getNewId : Long = {
-    val newId = freshIds.dequeue()
-    if (freshIds.isEmpty) {
-      // Must maintain invariant: freshIds always has at least one fresh id
-      freshIds.enqueue(newId + 1)
-    }
+    var newId = ids.fresh()
+    /* a released id may have been used again by addNode/addEdge */
+    while (nodes.contains(newId) || edges.contains(newId)) newId = ids.fresh()
     newId
   }
 
-  private def removeId(id : Long) = freshIds.enqueue(id)
-
   def addEdge(edge : Edge) : Unit = {
     addEdge(edge, scala.collection.immutable.HashSet[EdgeLabel.Value]())
   }
 
   def addEdge(edge : Edge, labels : Acdfg.LabelsSet) : Unit = {
+    if (edges.contains(edge.id)) removeEdgeById(edge.id)
+    ids.reserve(edge.id)
     edges += ((edge.id, edge))
     edgesLabel += ((edge.id, labels))
+    Acdfg.indexOf(outIndex, edge.from, EdgeKind.of(edge)) += edge.id
+    Acdfg.indexOf(inIndex, edge.to, EdgeKind.of(edge)) += edge.id
+    invalidate()
   }
 
+  /** Edges of the given kind leaving the node id */
+  def outEdges(id : Long, kind : EdgeKind.Value) : Seq[Edge] =
+    Acdfg.edgeIds(outIndex, id, kind).map(edges(_))
+
+  /** Edges leaving the node id */
+  def outEdges(id : Long) : Seq[Edge] =
+    EdgeKind.values.toSeq.flatMap(outEdges(id, _))
+
+  /** Edges of the given kind entering the node id */
+  def inEdges(id : Long, kind : EdgeKind.Value) : Seq[Edge] =
+    Acdfg.edgeIds(inIndex, id, kind).map(edges(_))
+
+  /** Edges entering the node id */
+  def inEdges(id : Long) : Seq[Edge] =
+    EdgeKind.values.toSeq.flatMap(inEdges(id, _))
+
+  /** Successors of the node id following the edges of the given kind */
+  def succs(id : Long, kind : EdgeKind.Value) : Seq[Long] =
+    outEdges(id, kind).map(_.to)
+
+  /** Successors of the node id */
+  def succs(id : Long) : Seq[Long] = outEdges(id).map(_.to)
+
+  /** Predecessors of the node id following the edges of the given kind */
+  def preds(id : Long, kind : EdgeKind.Value) : Seq[Long] =
+    inEdges(id, kind).map(_.from)
+
+  /** Predecessors of the node id */
+  def preds(id : Long) : Seq[Long] = inEdges(id).map(_.from)
+
   def addNode(node : Node) : (Long, Node) = {
     val oldCount = nodes.size
+    ids.reserve(node.id)
     nodes.+=((node.id, node))
     val newCount = nodes.size
     assert(oldCount + 1 == newCount)
+    invalidate()
     (node.id, node)
   }
 
   def addLine(id : Long, lineNumber : Int) = {
     nodesToLineNumber.+=((id,lineNumber))
+    invalidate()
   }
 
   def getLine(id : Long) : Option[Int] = {
@@ -437,18 +554,23 @@ class Acdfg(adjacencyList: AdjacencyList,
 
 
   def removeEdge(to : Long, from : Long) = {
-    val id = edges.find {pair => (pair._2.from == from) && (pair._2.to == to) }.get._1
-    edges.remove(id)
+    val id = outEdges(from).find(_.to == to).get.id
+    removeEdgeById(id)
   }
 
   def removeEdgesOf(id : Long) = {
-    val edgesOfId = edges.find({
-      pair => (pair._2.from == id) || pair._2.to == id
-    })
-    edgesOfId.foreach(pair => {
-      edges.remove(pair._1)
-      edgesLabel.remove(pair._1)
-    })
+    (outEdges(id) ++ inEdges(id)).map(_.id).distinct.foreach(removeEdgeById)
+  }
+
+  private def removeEdgeById(id : Long) = {
+    edges.remove(id) match {
+      case Some(edge) =>
+        Acdfg.indexOf(outIndex, edge.from, EdgeKind.of(edge)) -= id
+        Acdfg.indexOf(inIndex, edge.to, EdgeKind.of(edge)) -= id
+      case None => ()
+    }
+    edgesLabel.remove(id)
+    invalidate()
   }
 
   def removeDataNode(name : String) = {
@@ -456,14 +578,69 @@ class Acdfg(adjacencyList: AdjacencyList,
       pair => {
         if (pair._2.asInstanceOf[DataNode].name == name) {
           nodes.remove(pair._1)
+          invalidate()
         }
       }
     )
   }
 
   def removeNode(id : Long) = {
-    nodes.remove(id)
-    removeId(id)
+    if (nodes.remove(id).isDefined) {
+      ids.release(id)
+      invalidate()
+    }
+  }
+
+  /**
+    * Renumbers the nodes from 0 and then the edges, keeping their order,
+    * so that the ids are contiguous and can be used to index arrays.
+    */
+  def compactIds() : Unit = {
+    val nodeIds = new scala.collection.mutable.HashMap[Long, Long]()
+    nodes.keys.toArray.sorted.foreach(id => nodeIds += ((id, nodeIds.size.toLong)))
+    val edgeIds = new scala.collection.mutable.HashMap[Long, Long]()
+    edges.keys.toArray.sorted.foreach(id =>
+      edgeIds += ((id, (nodeIds.size + edgeIds.size).toLong)))
+
+    val oldNodes = nodes.values.toList
+    val oldEdges = edges.values.toList.sortBy(_.id)
+    val oldLabels = edgesLabel.clone()
+    val oldLines = nodesToLineNumber.clone()
+
+    nodes.clear()
+    edges.clear()
+    edgesLabel.clear()
+    outIndex.clear()
+    inIndex.clear()
+    nodesToLineNumber.clear()
+    ids.reset(0)
+
+    oldNodes.foreach {
+      case n : VarDataNode => addNode(n.copy(id = nodeIds(n.id)))
+      case n : ConstDataNode => addNode(n.copy(id = nodeIds(n.id)))
+      case n : MethodNode => addNode(n.copy(id = nodeIds(n.id),
+        assignee = n.assignee.map(nodeIds), invokee = n.invokee.map(nodeIds),
+        argumentIds = n.argumentIds.map(nodeIds)))
+      case n : MiscNode => addNode(MiscNode(nodeIds(n.id)))
+    }
+
+    oldEdges.foreach { edge =>
+      val (id, from, to) = (edgeIds(edge.id), nodeIds(edge.from), nodeIds(edge.to))
+      val newEdge = edge match {
+        case e : ControlEdge => ControlEdge(id, from, to)
+        case e : DefEdge => DefEdge(id, from, to)
+        case e : UseEdge => UseEdge(id, from, to)
+        case e : TransControlEdge => TransControlEdge(id, from, to)
+        case e : ExceptionalControlEdge =>
+          ExceptionalControlEdge(id, from, to, e.exceptions)
+      }
+      addEdge(newEdge, oldLabels.getOrElse(edge.id,
+        scala.collection.immutable.HashSet[EdgeLabel.Value]()))
+    }
+
+    for ((nodeId, line) <- oldLines if nodeIds.contains(nodeId)) {
+      addLine(nodeIds(nodeId), line)
+    }
   }
 
   /**
@@ -486,27 +663,8 @@ class Acdfg(adjacencyList: AdjacencyList,
     *  Creates the ACDFG structure from the protobuf representation
     */
   def this(protobuf : ProtoAcdfg.Acdfg) = {
-    this(null, null, protobuf,
-      GitHubRecord(
-        if (protobuf.getRepoTag.hasUserName)
-          protobuf.getRepoTag.getUserName else "",
-        if (protobuf.getRepoTag.hasRepoName)
-          protobuf.getRepoTag.getRepoName else "",
-        if (protobuf.getRepoTag.hasUrl)
-          protobuf.getRepoTag.getUrl else "",
-        if (protobuf.getRepoTag.hasCommitHash)
-          protobuf.getRepoTag.getCommitHash else ""
-      ),
-      SourceInfo(protobuf.getSourceInfo.getPackageName,
-        protobuf.getSourceInfo.getClassName,
-        protobuf.getSourceInfo.getMethodName,
-        protobuf.getSourceInfo.getClassLineNumber,
-        protobuf.getSourceInfo.getMethodLineNumber,
-        protobuf.getSourceInfo.getSourceClassName,
-        protobuf.getSourceInfo.getAbsSourceClassName
-      ),
-      protobuf.getProvenancePath
-    )
+    this(null, null, protobuf, Acdfg.gitHubRecordOf(protobuf),
+      Acdfg.sourceInfoOf(protobuf), protobuf.getProvenancePath)
 
     /* add data nodes */
     protobuf.getDataNodeList.foreach { dataNode =>
@@ -591,56 +749,95 @@ class Acdfg(adjacencyList: AdjacencyList,
     } else {
       protobuf.getMethodBag.getMethodList.foreach { method => methodBag.append(method) }
     }
+
+    if (protobuf.hasFingerprint) {
+      fingerprintCache = protobuf.getFingerprint
+      fingerprintVersion = version
+    }
   } /* end of constructor from protobuf */
 
 
+  /*
+   * Set operations on the nodes and edges of two graphs.
+   *
+   * Two nodes (edges) are the same if they are equal, so they also
+   * have the same id: the operations look up the nodes (edges) of a
+   * graph in the map of the other graph by id, instead of building the
+   * sets of nodes and edges of both graphs.
+   */
+
+  /** Nodes and edges of this or that */
   def union(that : Acdfg) : AdjacencyList =
     AdjacencyList(
-      (this.nodes.values.toSet | this.nodes.values.toSet).toVector,
-      (this.edges.values.toSet | this.edges.values.toSet).toVector
+      this.nodes.values.toVector ++ Acdfg.select(that.nodes, this.nodes, false),
+      this.edges.values.toVector ++ Acdfg.select(that.edges, this.edges, false)
     )
   def |(that : Acdfg) = union(that)
 
+  /** Nodes and edges of only one of this and that */
   def disjointUnion(that : Acdfg) : AdjacencyList =
     AdjacencyList(
-      ((this.nodes.values.toSet &~ that.nodes.values.toSet) ++
-      (that.nodes.values.toSet -- this.nodes.values.toSet)).toVector,
-     ((this.edges.values.toSet -- that.edges.values.toSet) ++
-      (that.edges.values.toSet -- this.edges.values.toSet)).toVector
+      Acdfg.select(this.nodes, that.nodes, false) ++
+        Acdfg.select(that.nodes, this.nodes, false),
+      Acdfg.select(this.edges, that.edges, false) ++
+        Acdfg.select(that.edges, this.edges, false)
     )
   def +|(that : Acdfg) = disjointUnion(that)
 
+  /** Nodes and edges of both this and that */
   def intersection(that : Acdfg) : AdjacencyList =
     AdjacencyList(
-      (this.nodes.values.toSet | this.nodes.values.toSet).toVector,
-      (this.edges.values.toSet | this.edges.values.toSet).toVector
+      Acdfg.select(this.nodes, that.nodes, true),
+      Acdfg.select(this.edges, that.edges, true)
     )
   def &(that : Acdfg) = intersection(that)
 
+  /** Nodes and edges of this that are not in that */
   def diff(that : Acdfg) : AdjacencyList =
     AdjacencyList(
-      (this.nodes.values.toSet -- this.nodes.values.toSet).toVector,
-      (this.edges.values.toSet -- this.edges.values.toSet).toVector
+      Acdfg.select(this.nodes, that.nodes, false),
+      Acdfg.select(this.edges, that.edges, false)
     )
   def --(that : Acdfg) = diff(that)
 
+  /**
+    * true if the graphs have the same nodes, edges, GitHub record and
+    * source information (the edge labels are not compared)
+    */
   def equals(that : Acdfg) : Boolean = {
-    val du = this +| that
-    val eqnodes = du.nodes.isEmpty
-    val eqedges = du.edges.isEmpty
-    val eqgh = this.gitHubRecord.equals(that.getGitHubRecord)
-    val eqsource = this.sourceInfo.equals(that.getSourceInfo)
-
-    eqnodes && eqedges && eqgh && eqsource
+    this.gitHubRecord == that.getGitHubRecord &&
+    this.sourceInfo == that.getSourceInfo &&
+    Acdfg.sameElements(this.nodes, that.nodes) &&
+    Acdfg.sameElements(this.edges, that.edges)
   }
 
   def == (that : Acdfg) : Boolean =
     if (that != null) this.equals(that) else false
 
 
-  def toProtobuf = pb
+  /**
+    * Structural fingerprint of the graph (see AcdfgFingerprint),
+    * recomputed if the graph changed
+    */
+  def fingerprint : Long = synchronized {
+    if (fingerprintVersion != version) {
+      fingerprintCache = AcdfgFingerprint(this)
+      fingerprintVersion = version
+    }
+    fingerprintCache
+  }
+
+  /** Protobuf representation of the graph, rebuilt if the graph changed */
+  def toProtobuf : ProtoAcdfg.Acdfg = synchronized {
+    if (pbVersion != version) {
+      pbCache = buildProtobuf()
+      pbVersion = version
+    }
+    pbCache
+  }
   def getGitHubRecord = gitHubRecord
   def getSourceInfo = sourceInfo
+  def getProvenancePath = provenancePath
 
   override def toString = {
     // Inefficient - TODO: use buffer instead of string concat
@@ -671,6 +868,100 @@ class Acdfg(adjacencyList: AdjacencyList,
 object Acdfg {
   type LabelsSet = scala.collection.immutable.Set[EdgeLabel.Value]
 
+  /* Ids of the edges of a node, by edge kind (null if there are none) */
+  private[abstraction] type EdgeIndex = Array[ArrayBuffer[Long]]
+
+  private def indexOf(index : scala.collection.mutable.HashMap[Long, EdgeIndex],
+    nodeId : Long, kind : EdgeKind.Value) : ArrayBuffer[Long] = {
+    val byKind = index.getOrElseUpdate(nodeId,
+      new Array[ArrayBuffer[Long]](EdgeKind.maxId))
+    if (null == byKind(kind.id)) byKind(kind.id) = new ArrayBuffer[Long]()
+    byKind(kind.id)
+  }
+
+  private def edgeIds(index : scala.collection.mutable.HashMap[Long, EdgeIndex],
+    nodeId : Long, kind : EdgeKind.Value) : Seq[Long] = {
+    index.get(nodeId) match {
+      case Some(byKind) if null != byKind(kind.id) => byKind(kind.id)
+      case _ => Nil
+    }
+  }
+
+  /* Elements of these that are (present = true) or are not in those */
+  private def select[T](these : scala.collection.Map[Long, T],
+    those : scala.collection.Map[Long, T], present : Boolean) : Vector[T] = {
+    val selected = Vector.newBuilder[T]
+    these.foreach { case (id, x) =>
+      if (those.get(id).contains(x) == present) selected += x
+    }
+    selected.result()
+  }
+
+  /* true if these and those contain the same elements, stopping at the
+   * first difference */
+  private def sameElements[T](these : scala.collection.Map[Long, T],
+    those : scala.collection.Map[Long, T]) : Boolean =
+    these.size == those.size && these.forall { case (id, x) => those.get(id).contains(x) }
+
+  /** GitHub record stored in the protobuf representation of an ACDFG */
+  def gitHubRecordOf(protobuf : ProtoAcdfg.Acdfg) : GitHubRecord =
+    GitHubRecord(
+      if (protobuf.getRepoTag.hasUserName)
+        protobuf.getRepoTag.getUserName else "",
+      if (protobuf.getRepoTag.hasRepoName)
+        protobuf.getRepoTag.getRepoName else "",
+      if (protobuf.getRepoTag.hasUrl)
+        protobuf.getRepoTag.getUrl else "",
+      if (protobuf.getRepoTag.hasCommitHash)
+        protobuf.getRepoTag.getCommitHash else ""
+    )
+
+  /** Source information stored in the protobuf representation of an ACDFG */
+  def sourceInfoOf(protobuf : ProtoAcdfg.Acdfg) : SourceInfo =
+    SourceInfo(protobuf.getSourceInfo.getPackageName,
+      protobuf.getSourceInfo.getClassName,
+      protobuf.getSourceInfo.getMethodName,
+      protobuf.getSourceInfo.getClassLineNumber,
+      protobuf.getSourceInfo.getMethodLineNumber,
+      protobuf.getSourceInfo.getSourceClassName,
+      protobuf.getSourceInfo.getAbsSourceClassName
+    )
+
+  /**
+    * ACDFG whose construction from a CDFG has been split in two phases.
+    *
+    * The nodes and the control/data edges are already in acdfg, while
+    * the transitive control edges and the bag of methods are added by
+    * complete.
+    */
+  class PendingAcdfg(val acdfg : Acdfg, converter : CdfgToAcdfg) {
+    private var completed = false
+
+    def complete() : Acdfg = {
+      if (! completed) {
+        converter.computeTransClosure()
+        acdfg.prepareMethodBag()
+        completed = true
+      }
+      acdfg
+    }
+  }
+
+  /**
+    * Starts the construction of the ACDFG from a CDFG.
+    *
+    * The method reads the Soot data structures and must be called from
+    * the thread that runs Soot, while PendingAcdfg.complete only accesses
+    * data local to the method and can be called from any thread.
+    */
+  def prepare(cdfg : UnitCdfgGraph, gitHubRecord: GitHubRecord,
+    sourceInfo : SourceInfo, provPath : String) : PendingAcdfg = {
+    val acdfg = new Acdfg(null, cdfg, null, gitHubRecord, sourceInfo, provPath)
+    val converter = new CdfgToAcdfg(cdfg, acdfg)
+    converter.fillNodesAndEdges()
+    new PendingAcdfg(acdfg, converter)
+  }
+
   def isFakeMethod(methodName : String) : Boolean = {
     return methodName.startsWith(FakeMethods.RETURN_METHOD) ||
       methodName.startsWith(FakeMethods.GET_METHOD) ||
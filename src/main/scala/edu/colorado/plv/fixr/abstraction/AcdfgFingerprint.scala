@@ -0,0 +1,86 @@
+package edu.colorado.plv.fixr.abstraction
+
+/**
+  * Structural fingerprint of an ACDFG, used to find the duplicate graphs.
+  *
+  * The fingerprint is computed with ROUNDS rounds of Weisfeiler-Lehman
+  * label refinement. The initial label of a node is its kind and its
+  * method name (for method nodes) or type (for data nodes); at each
+  * round the label of a node is combined with the multisets of the
+  * labels of its successors and predecessors, tagged with the kind of
+  * the edges. The fingerprint combines the multiset of the final labels
+  * and the number of edges.
+  *
+  * The node and edge ids, the names of the variables, the values of the
+  * constants, the edge labels and the metadata (source and repository)
+  * are not part of the fingerprint, so graphs that differ only in them
+  * (e.g. the copies of the same code) have the same fingerprint. Graphs
+  * with the same fingerprint are very likely, but not certainly,
+  * isomorphic.
+  */
+object AcdfgFingerprint {
+  val ROUNDS = 4
+
+  def apply(acdfg : Acdfg) : Long = {
+    val ids = acdfg.nodes.keys.toArray
+    val index = new scala.collection.mutable.HashMap[Long, Int]()
+    ids.indices.foreach(i => index += ((ids(i), i)))
+
+    /* neighbours of each node, as (edge kind, node index) */
+    def neighbours(i : Int, out : Boolean) : Array[(Int, Int)] = {
+      val edges = if (out) acdfg.outEdges(ids(i)) else acdfg.inEdges(ids(i))
+      edges.flatMap { edge =>
+        index.get(if (out) edge.to else edge.from).map(j => (EdgeKind.of(edge).id, j))
+      }.toArray
+    }
+    val succs = Array.tabulate(ids.length)(neighbours(_, true))
+    val preds = Array.tabulate(ids.length)(neighbours(_, false))
+
+    var labels = ids.map(id => initialLabel(acdfg.nodes(id)))
+    for (round <- 1 to ROUNDS) {
+      val current = labels
+      labels = Array.tabulate(ids.length) { i =>
+        var outLabels = 0L
+        succs(i).foreach { case (kind, j) => outLabels += mix(combine(kind, current(j))) }
+        var inLabels = 0L
+        preds(i).foreach { case (kind, j) => inLabels += mix(combine(kind, current(j))) }
+        combine(combine(current(i), outLabels), inLabels)
+      }
+    }
+
+    var nodeLabels = 0L
+    labels.foreach(label => nodeLabels += mix(label))
+    combine(combine(nodeLabels, ids.length), acdfg.edges.size)
+  }
+
+  private def initialLabel(node : Node) : Long = node match {
+    case n : MethodNode => combine(1, hash(n.name))
+    case n : VarDataNode => combine(2, hash(n.datatype))
+    case n : ConstDataNode => combine(3, hash(n.datatype))
+    case n : MiscNode => 4
+    case _ => 5
+  }
+
+  /* 64 bits FNV-1a hash of the characters of s */
+  private def hash(s : String) : Long = {
+    var h = 0xcbf29ce484222325L
+    var i = 0
+    while (i < s.length) {
+      h = (h ^ s.charAt(i)) * 0x100000001b3L
+      i = i + 1
+    }
+    h
+  }
+
+  /* Combination that depends on the order of a and b */
+  private def combine(a : Long, b : Long) : Long = mix(a * 0x9e3779b97f4a7c15L + b)
+
+  /* Finalizer of MurmurHash3; the multisets are hashed summing the mixed
+   * hashes of their elements */
+  private def mix(value : Long) : Long = {
+    var h = value
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL
+    h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L
+    h ^ (h >>> 33)
+  }
+}
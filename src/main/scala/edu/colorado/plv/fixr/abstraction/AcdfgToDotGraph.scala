@@ -126,19 +126,8 @@ class AcdfgToDotGraph(acdfg : Acdfg) extends CFGToDotGraph {
 
     canvas.setGraphLabel(acdfgLabel)
 
-    /* build a node -> edge map */
-    val roots = scala.collection.mutable.HashSet[Long]()
-    val node2edge = scala.collection.mutable.HashMap[Long, List[Long]]()
-    acdfg.nodes.foreach { x => {
-      node2edge += x._1 -> List[Long]()
-      roots.add(x._1)
-    }}
-    acdfg.edges.foreach { (values : (Long, Edge)) => {
-      val edge : Edge = values._2
-      val edgeId : Long = values._1
-      node2edge(edge.from) = edgeId :: node2edge(edge.from)
-      if (roots.contains(edge.to)) roots.remove(edge.to)
-    }}
+    /* nodes without incoming edges */
+    val roots = acdfg.nodes.keys.filter(acdfg.inEdges(_).isEmpty)
 
     /* visit all the roots in dfs  */
     val visited = scala.collection.mutable.HashSet[Long]()
@@ -150,17 +139,10 @@ class AcdfgToDotGraph(acdfg : Acdfg) extends CFGToDotGraph {
         if (! (node.isInstanceOf[DataNode] && ignoreData)) {
           visited.add(nodeId)
           drawNode(canvas, nodeId)
-          if (node2edge.contains(nodeId)) {
-            val edges : List[Long] = node2edge(nodeId)
-            var newEdgeToDraw : List[Long] = edgeToDraw
-            newEdgeToDraw = edges.foldLeft (newEdgeToDraw) { (edgeToDraw, edgeId) => {
-              val edge = acdfg.edges(edgeId)
-              val newEdge = drawEdge(canvas, edge, edgeId, ignoreData, edgeToDraw)
-              visitNodes(edge.to, ignoreData, newEdge)
-            }}
-            newEdgeToDraw
-          }
-          else edgeToDraw
+          acdfg.outEdges(nodeId).foldLeft (edgeToDraw) { (edgeToDraw, edge) => {
+            val newEdge = drawEdge(canvas, edge, edge.id, ignoreData, edgeToDraw)
+            visitNodes(edge.to, ignoreData, newEdge)
+          }}
         }
         else edgeToDraw
       }
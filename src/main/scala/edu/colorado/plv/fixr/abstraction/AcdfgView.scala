@@ -0,0 +1,106 @@
+package edu.colorado.plv.fixr.abstraction
+
+import java.nio.ByteBuffer
+
+import scala.collection.JavaConversions._
+
+import com.google.protobuf.CodedInputStream
+import com.google.protobuf.WireFormat
+
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+/**
+  * View of an ACDFG that loads the graph only when it is needed.
+  *
+  * The GitHub record, the source information, the provenance path, the
+  * fingerprint and the bag of methods are available immediately. The
+  * protobuf message of the graph is parsed (and the Acdfg built) the
+  * first time that protobuf, acdfg, nodes or edges are accessed.
+  */
+class AcdfgView private (header : ProtoAcdfg.Acdfg,
+  load : () => ProtoAcdfg.Acdfg) {
+
+  val gitHubRecord : GitHubRecord = Acdfg.gitHubRecordOf(header)
+  val sourceInfo : SourceInfo = Acdfg.sourceInfoOf(header)
+  val provenancePath : String = header.getProvenancePath
+  /** Structural fingerprint, if stored with the graph */
+  val fingerprint : Option[Long] =
+    if (header.hasFingerprint) Some(header.getFingerprint) else None
+
+  @volatile private var loaded = false
+
+  /** Protobuf message of the whole graph */
+  lazy val protobuf : ProtoAcdfg.Acdfg = {
+    val graph = load()
+    loaded = true
+    graph
+  }
+
+  lazy val acdfg : Acdfg = new Acdfg(protobuf)
+
+  /**
+    * Sorted names of the methods in the graph.
+    *
+    * The graphs serialized without bag of methods are loaded to compute it.
+    */
+  lazy val methodBag : Seq[String] =
+    if (header.getMethodBag.getMethodCount > 0) header.getMethodBag.getMethodList.toVector
+    else acdfg.methodBag.toVector
+
+  def nodes = acdfg.nodes
+  def edges = acdfg.edges
+
+  /** true if the graph has been parsed */
+  def isLoaded : Boolean = loaded
+}
+
+object AcdfgView {
+  /** View of a graph already parsed */
+  def apply(protobuf : ProtoAcdfg.Acdfg) : AcdfgView =
+    new AcdfgView(protobuf, () => protobuf)
+
+  /**
+    * View of the graph serialized in bytes (from its position to its
+    * limit).
+    *
+    * Only the header fields are read, skipping the nodes and the edges.
+    * decode is applied to the header and to the graph after parsing
+    * them (e.g. to restore the strings of a dictionary).
+    */
+  def apply(bytes : ByteBuffer,
+    decode : ProtoAcdfg.Acdfg => ProtoAcdfg.Acdfg) : AcdfgView = {
+    val header = decode(readHeader(input(bytes)))
+    new AcdfgView(header, () => decode(ProtoAcdfg.Acdfg.parseFrom(input(bytes))))
+  }
+
+  def apply(bytes : ByteBuffer) : AcdfgView = apply(bytes, graph => graph)
+
+  private def input(bytes : ByteBuffer) : CodedInputStream = {
+    val input = CodedInputStream.newInstance(bytes.slice())
+    input.setSizeLimit(Int.MaxValue)
+    input
+  }
+
+  /* Reads the fields of the graph that are not nodes, edges or lines */
+  private def readHeader(input : CodedInputStream) : ProtoAcdfg.Acdfg = {
+    val header = ProtoAcdfg.Acdfg.newBuilder()
+    var tag = input.readTag()
+    while (0 != tag) {
+      WireFormat.getTagFieldNumber(tag) match {
+        case ProtoAcdfg.Acdfg.REPO_TAG_FIELD_NUMBER =>
+          header.getRepoTagBuilder().mergeFrom(input.readBytes())
+        case ProtoAcdfg.Acdfg.SOURCE_INFO_FIELD_NUMBER =>
+          header.getSourceInfoBuilder().mergeFrom(input.readBytes())
+        case ProtoAcdfg.Acdfg.METHOD_BAG_FIELD_NUMBER =>
+          header.getMethodBagBuilder().mergeFrom(input.readBytes())
+        case ProtoAcdfg.Acdfg.PROVENANCE_PATH_FIELD_NUMBER =>
+          header.setProvenancePath(input.readString())
+        case ProtoAcdfg.Acdfg.FINGERPRINT_FIELD_NUMBER =>
+          header.setFingerprint(input.readUInt64())
+        case _ => input.skipField(tag)
+      }
+      tag = input.readTag()
+    }
+    header.buildPartial()
+  }
+}
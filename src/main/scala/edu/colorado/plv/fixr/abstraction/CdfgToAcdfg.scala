@@ -9,6 +9,7 @@ import scala.collection.mutable.ArrayBuffer
 import scala.collection.mutable.HashSet
 import scala.collection.mutable.DoubleLinkedList
 import edu.colorado.plv.fixr.SootHelper
+import edu.colorado.plv.fixr.CancellationToken
 
 import org.slf4j.LoggerFactory
 import org.slf4j.Logger
@@ -112,10 +113,14 @@ class CdfgToAcdfg(val cdfg : UnitCdfgGraph, val acdfg : Acdfg) {
   val logger : Logger = LoggerFactory.getLogger(classOf[CdfgToAcdfg])
 
   val ug = cdfg.asInstanceOf[soot.toolkits.graph.DirectedGraph[soot.Unit]]
+  /* computed on the CFG of the analyses of the body of the cdfg */
   val dominators : MHGDominatorsFinder[soot.Unit] =
-    new MHGDominatorsFinder[soot.Unit](ug)
+    cdfg.getAnalyses().getDominators()
   val postDominators : MHGPostDominatorsFinder[soot.Unit] =
-    new MHGPostDominatorsFinder[soot.Unit](ug)
+    cdfg.getAnalyses().getPostDominators()
+  /* Caches the dominators of the units */
+  private val dominatorLabels = new CdfgToAcdfg.DominatorLabels(dominators,
+    postDominators)
   val exceptionMap = CdfgToAcdfg.getExceptionMap(cdfg)
 
   val defEdges = cdfg.defEdges()
@@ -161,14 +166,16 @@ class CdfgToAcdfg(val cdfg : UnitCdfgGraph, val acdfg : Acdfg) {
         val nodeId = v match {
           case local : Local => {
             val id = acdfg.getNewId
-            val node = new VarDataNode(id, local.getName, local.getType.toString)
+            val node = new VarDataNode(id, local.getName,
+              StringPool.share(local.getType.toString))
             sootObjToId += ((v, id))
             acdfg.addNode(node)
             id
           }
           case constant : Constant => {
             val id = acdfg.getNewId
-            val node = new ConstDataNode(id, constant.toString, constant.getType.toString)
+            val node = new ConstDataNode(id, constant.toString,
+              StringPool.share(constant.getType.toString))
             sootObjToId += ((v, id))
             acdfg.addNode(node)
             id
@@ -210,7 +217,8 @@ class CdfgToAcdfg(val cdfg : UnitCdfgGraph, val acdfg : Acdfg) {
   def addMethodNodeAux(assignee : Option[Long],
       invokee : Option[Long], name : String, arguments : List[Long])  : Node = {
     val id = acdfg.getNewId
-    val node = new MethodNode(id, assignee, invokee, name, arguments.toVector)
+    val node = new MethodNode(id, assignee, invokee, StringPool.share(name),
+      arguments.toVector)
     acdfg.addNode(node)
 
     /* add a use edge for all the method nodes */
@@ -292,8 +300,7 @@ class CdfgToAcdfg(val cdfg : UnitCdfgGraph, val acdfg : Acdfg) {
     def addControEdgeAux(from : soot.Unit, to : soot.Unit,
       fromId : Long, toId : Long) : Unit = {
 
-      val labelSet = CdfgToAcdfg.getLabelSet(from, to,
-        dominators, postDominators)
+      val labelSet = dominatorLabels.getLabelSet(from, to)
 
       exceptionMap.get((from,to)) match {
         case Some(exceptions) =>
@@ -393,81 +400,64 @@ class CdfgToAcdfg(val cdfg : UnitCdfgGraph, val acdfg : Acdfg) {
     edgePairToId += (((fromId, toId), id))
   }
 
-  private def computeTransClosure(): Unit = {
-    val commandNodesMap = acdfg.nodes.filter(_._2.isInstanceOf[CommandNode])
-    val commandNodes = commandNodesMap.values.toVector
-    val commandNodeCount = commandNodes.size
+  /** Adds the transitive control edges among the command nodes.
+    *
+    * There is a transitive edge from n1 to n2 if n2 is reachable from n1
+    * following the edges among the command nodes and there is no
+    * direct edge from n1 to n2.
+    * The edges are added ordered by source and destination id.
+    *
+    * The closure only reads the acdfg and the dominator trees computed
+    * when creating this object, so it can run outside the thread that
+    * runs Soot.
+    */
+  def computeTransClosure(): Unit = {
+    val commandNodes = acdfg.nodes.values.filter(_.isInstanceOf[CommandNode]).
+      map(_.id).toArray
+    java.util.Arrays.sort(commandNodes)
+    val commandNodeCount = commandNodes.length
 
     val idToUnit = sootObjToId map {_.swap}
     for ((k,v) <- unitsForDominator) {
       idToUnit += ((k,v))
     }
 
+    val idToAdjIndex = new scala.collection.mutable.HashMap[Long, Int]
+    commandNodes.zipWithIndex.foreach { case (id, index) =>
+      idToAdjIndex += ((id, index))
+    }
 
-    var idToAdjIndex = new scala.collection.mutable.HashMap[Long, Int]
-    commandNodesMap.zipWithIndex.foreach {
-      case (((id : Long, _),index : Int)) =>
-        idToAdjIndex += ((id, index))
-    }
-    var commandAdjMatrix = Array.ofDim[Boolean](commandNodeCount, commandNodeCount)
-    var transAdjMatrix = Array.ofDim[Boolean](commandNodeCount, commandNodeCount)
-    var stack      = new scala.collection.mutable.Stack[Node]
-    var discovered = new scala.collection.mutable.ArrayBuffer[Node]
-
-    /* initialize the stack */
-    commandNodes.filter {node => true}.foreach{ n => stack.push(n) }
-
-    // assemble adjacency matrix of commands w/out back-edges from DFS
-    while (stack.nonEmpty) {
-      val node = stack.pop()
-      if ((!discovered.contains(node)) && (!stack.contains(node))) {
-        discovered += node
-        acdfg.edges.filter { case ((id, edge)) =>
-          edge.from == node.id && idToAdjIndex.contains(edge.to)
-        }.foreach { case ((id, edge)) =>
-            val fromId = idToAdjIndex.get(edge.from).get
-            val toId   = idToAdjIndex.get(edge.to).get
-            commandAdjMatrix(fromId)(toId) = true
-            val newNode = commandNodes(toId)
-            if (!discovered.contains(newNode)) {
-              stack.push(newNode)
-            }
-        }
+    /* adjacency among the command nodes, as lists and as bit vectors */
+    val words = TransitiveClosure.words(commandNodeCount)
+    val commandAdj = Array.fill(commandNodeCount)(new Array[Long](words))
+    val succs = Array.fill(commandNodeCount)(new ArrayBuffer[Int]())
+    for (from <- 0 until commandNodeCount;
+      succId <- acdfg.succs(commandNodes(from))) {
+      idToAdjIndex.get(succId) match {
+        case Some(to) =>
+          if (! TransitiveClosure.get(commandAdj(from), to)) {
+            TransitiveClosure.set(commandAdj(from), to)
+            succs(from) += to
+          }
+        case None => ()
       }
     }
 
-    // assemble adjacency list of transitive closure w/ Floyd-Warshall
-    // O((Vertices) ^ 3)
-    val indices = 0 until commandNodeCount
+    CancellationToken.check()
+    val closure = new TransitiveClosure(succs.map(_.toArray))
 
-    /*
-     * NOTE: k,i,j major-to-minor order required;
-     * although i,k,j major-to-minor order is best for locality,
-     * a data dependency requires k,i,j order
-     * to maintain the dynamic programming invariant
-     */
+    for (i <- 0 until commandNodeCount) {
+      CancellationToken.check()
+      val fromNode = idToUnit(commandNodes(i))
+      assert(fromNode.isInstanceOf[soot.Unit])
 
-    indices.foreach { k =>
-      indices.foreach { i =>
-        indices.foreach { j =>
-          if (
-            (commandAdjMatrix(i)(k) || transAdjMatrix(i)(k)) &&
-              (commandAdjMatrix(k)(j) || transAdjMatrix(k)(j)) &&
-              (!commandAdjMatrix(i)(j)) && (!transAdjMatrix(i)(j))
-          ) {
-            //changed = true
-            transAdjMatrix(i)(j) = true
-            val fromNode = idToUnit(commandNodes(i).id)
-            val toNode = idToUnit(commandNodes(j).id)
-            assert(fromNode.isInstanceOf[soot.Unit])
-            assert(toNode.isInstanceOf[soot.Unit])
-
-            val labelSet = CdfgToAcdfg.getLabelSet(
-                fromNode.asInstanceOf[soot.Unit],
-                toNode.asInstanceOf[soot.Unit], dominators, postDominators)
-            addTransControlEdge(commandNodes(i).id, commandNodes(j).id, labelSet)
-          }
-        }
+      TransitiveClosure.foreachAndNot(closure.reachable(i), commandAdj(i)) { j =>
+        val toNode = idToUnit(commandNodes(j))
+        assert(toNode.isInstanceOf[soot.Unit])
+
+        val labelSet = dominatorLabels.getLabelSet(
+          fromNode.asInstanceOf[soot.Unit], toNode.asInstanceOf[soot.Unit])
+        addTransControlEdge(commandNodes(i), commandNodes(j), labelSet)
       }
     }
   }
@@ -475,6 +465,19 @@ class CdfgToAcdfg(val cdfg : UnitCdfgGraph, val acdfg : Acdfg) {
   /** Fill the ACDFG visiting the graph
     */
   def fillAcdfg() = {
+    fillNodesAndEdges()
+
+    /* computes transitive clouse */
+    logger.debug("### Computing transitive closure down to DFS of command edges...")
+    computeTransClosure()
+  }
+
+  /** Creates the nodes and the (non transitive) edges of the ACDFG
+    *
+    * This is the part of the construction that accesses the Soot
+    * data structures.
+    */
+  def fillNodesAndEdges() = {
     val visited = HashSet[soot.Unit]()
 
     /* creates all the nodes and some def edges  */
@@ -514,10 +517,6 @@ class CdfgToAcdfg(val cdfg : UnitCdfgGraph, val acdfg : Acdfg) {
         acdfg.addLine(value, SootHelper.getLineNumber(key.asInstanceOf[soot.tagkit.Host]))
       }
     }
-
-    /* computes transitive clouse */
-    logger.debug("### Computing transitive closure down to DFS of command edges...")
-    computeTransClosure()
   }
 
   /** Fill the acdfg with all the nodes reachable from head
@@ -546,6 +545,23 @@ object CdfgToAcdfg {
   type TrapMap = scala.collection.immutable.HashMap[(soot.Unit,soot.Unit),
     List[String]]
 
+  private val NO_LABELS : Acdfg.LabelsSet =
+    scala.collection.immutable.HashSet[EdgeLabel.Value]()
+  private val DOMINATE_LABELS : Acdfg.LabelsSet =
+    NO_LABELS + EdgeLabel.SRC_DOMINATE_DST
+  private val POSTDOMINATE_LABELS : Acdfg.LabelsSet =
+    NO_LABELS + EdgeLabel.DST_POSDOMINATE_SRC
+  private val ALL_LABELS : Acdfg.LabelsSet =
+    DOMINATE_LABELS + EdgeLabel.DST_POSDOMINATE_SRC
+
+  /** Return the (shared) set of labels of an edge */
+  def getLabelSet(dominates : Boolean, postDominated : Boolean) : Acdfg.LabelsSet = {
+    if (dominates && postDominated) ALL_LABELS
+    else if (dominates) DOMINATE_LABELS
+    else if (postDominated) POSTDOMINATE_LABELS
+    else NO_LABELS
+  }
+
   /** Return the set of labels for the edge fromfromUnit to toUnit
     *
     */
@@ -556,11 +572,32 @@ object CdfgToAcdfg {
     val dominates = dominators.isDominatedBy(toUnit, fromUnit)
     val postDominated = postDominators.isDominatedBy(fromUnit, toUnit)
 
-    val l1 = if (dominates) List(EdgeLabel.SRC_DOMINATE_DST) else List[EdgeLabel.Value]()
-    val l2 = if (postDominated) EdgeLabel.DST_POSDOMINATE_SRC::l1 else l1
+    getLabelSet(dominates, postDominated)
+  }
 
-    val labelSet = scala.collection.immutable.HashSet[EdgeLabel.Value]() ++ l2
-    labelSet
+  /** Computes the labels of the edges of a graph.
+    *
+    * The dominators and post-dominators of a unit are copied in a hash
+    * set the first time they are needed, so labelling e edges costs
+    * O(n + e) lookups instead of e scans of the dominator lists.
+    */
+  class DominatorLabels(dominators : MHGDominatorsFinder[soot.Unit],
+    postDominators : MHGPostDominatorsFinder[soot.Unit]) {
+    private val dominatorsOf =
+      scala.collection.mutable.HashMap[soot.Unit, java.util.Set[soot.Unit]]()
+    private val postDominatorsOf =
+      scala.collection.mutable.HashMap[soot.Unit, java.util.Set[soot.Unit]]()
+
+    def getLabelSet(fromUnit : soot.Unit, toUnit : soot.Unit) : Acdfg.LabelsSet = {
+      val dominates = dominatorsOf.getOrElseUpdate(toUnit,
+        new java.util.HashSet[soot.Unit](dominators.getDominators(toUnit))
+      ).contains(fromUnit)
+      val postDominated = postDominatorsOf.getOrElseUpdate(fromUnit,
+        new java.util.HashSet[soot.Unit](postDominators.getDominators(fromUnit))
+      ).contains(toUnit)
+
+      CdfgToAcdfg.getLabelSet(dominates, postDominated)
+    }
   }
 
   /** Return a map from couples of units to a list of exceptions */
@@ -579,7 +616,7 @@ object CdfgToAcdfg {
       (exceptionMap, trap) => {
         val catcher : RefType = trap.getException().getType()
         var handler : soot.Unit = trap.getHandlerUnit();
-        val trapException : String = trap.getException().toString
+        val trapException : String = StringPool.share(trap.getException().toString)
         val lastUnitInTrap : soot.Unit = units.getPredOf(trap.getEndUnit())
 
         def processUnits(trapUnitIter : Iterator[soot.Unit],
@@ -0,0 +1,270 @@
+package edu.colorado.plv.fixr.abstraction
+
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+/**
+  * Read-only, compact representation of an ACDFG.
+  *
+  * The graph is stored in arrays of primitive values, to keep many graphs
+  * in memory (e.g. when mining):
+  * - the nodes are sorted by id and identified by their position in the
+  *   node arrays;
+  * - the edges are in compressed sparse row form: the edges leaving the
+  *   node i are the positions from outStart(i) to outStart(i + 1) - 1 of
+  *   the edge arrays (sorted by edge id), and the positions of the edges
+  *   entering i are inEdges(inStart(i)) ... inEdges(inStart(i + 1) - 1);
+  * - node and edge kinds are bytes, the labels of an edge are a bit mask
+  *   (bit EdgeLabel.id);
+  * - names, types and exceptions are ids in a StringPool that can be
+  *   shared among the graphs.
+  */
+class FrozenAcdfg private (
+  val pool : StringPool,
+  nodeIds : Array[Long],
+  nodeKinds : Array[Byte],
+  nodeNames : Array[Int],
+  nodeTypes : Array[Int],
+  nodeLines : Array[Int],
+  /* assignee and invokee (FrozenAcdfg.NO_ID if missing) and arguments of
+   * the method nodes */
+  assignees : Array[Long],
+  invokees : Array[Long],
+  argStart : Array[Int],
+  args : Array[Long],
+  outStart : Array[Int],
+  edgeIds : Array[Long],
+  edgeSources : Array[Int],
+  edgeTargets : Array[Int],
+  edgeKinds : Array[Byte],
+  edgeLabels : Array[Byte],
+  exceptionStart : Array[Int],
+  exceptions : Array[Int],
+  inStart : Array[Int],
+  inEdges : Array[Int],
+  methodBag : Array[Int],
+  val gitHubRecord : GitHubRecord,
+  val sourceInfo : SourceInfo,
+  val provenancePath : String) {
+
+  def nodeCount : Int = nodeIds.length
+
+  def edgeCount : Int = edgeIds.length
+
+  /** Position of the node id, -1 if the node is not in the graph */
+  def indexOf(id : Long) : Int = {
+    val index = java.util.Arrays.binarySearch(nodeIds, id)
+    if (index < 0) -1 else index
+  }
+
+  def nodeId(node : Int) : Long = nodeIds(node)
+
+  /** Kind of the node (FrozenAcdfg.VAR_DATA, CONST_DATA, METHOD or MISC) */
+  def nodeKind(node : Int) : Byte = nodeKinds(node)
+
+  /** Name of a data or method node (null for the other nodes) */
+  def nodeName(node : Int) : String = getString(nodeNames(node))
+
+  /** Type of a data node (null for the other nodes) */
+  def nodeType(node : Int) : String = getString(nodeTypes(node))
+
+  def getLine(node : Int) : Option[Int] =
+    if (nodeLines(node) < 0) None else Some(nodeLines(node))
+
+  /** Creates the Node object of the node in the given position */
+  def node(node : Int) : Node = {
+    val id = nodeIds(node)
+    nodeKinds(node) match {
+      case FrozenAcdfg.VAR_DATA => VarDataNode(id, nodeName(node), nodeType(node))
+      case FrozenAcdfg.CONST_DATA => ConstDataNode(id, nodeName(node), nodeType(node))
+      case FrozenAcdfg.METHOD =>
+        MethodNode(id,
+          if (FrozenAcdfg.NO_ID == assignees(node)) None else Some(assignees(node)),
+          if (FrozenAcdfg.NO_ID == invokees(node)) None else Some(invokees(node)),
+          nodeName(node),
+          (argStart(node) until argStart(node + 1)).map(args(_)).toVector)
+      case _ => MiscNode(id)
+    }
+  }
+
+  /** Positions of the edges leaving the node */
+  def outEdgePositions(node : Int) : Range = outStart(node) until outStart(node + 1)
+
+  /** Positions of the edges entering the node */
+  def inEdgePositions(node : Int) : IndexedSeq[Int] =
+    (inStart(node) until inStart(node + 1)).map(inEdges(_))
+
+  def edgeId(edge : Int) : Long = edgeIds(edge)
+
+  /** Position of the source node of the edge */
+  def edgeSource(edge : Int) : Int = edgeSources(edge)
+
+  /** Position of the destination node of the edge */
+  def edgeTarget(edge : Int) : Int = edgeTargets(edge)
+
+  def edgeKind(edge : Int) : EdgeKind.Value = EdgeKind(edgeKinds(edge))
+
+  /** Labels of the edge as a bit mask */
+  def labelMask(edge : Int) : Byte = edgeLabels(edge)
+
+  def labels(edge : Int) : Acdfg.LabelsSet =
+    EdgeLabel.values.filter(l => 0 != (edgeLabels(edge) & (1 << l.id))).toSet
+
+  /** Creates the Edge object of the edge in the given position */
+  def edge(edge : Int) : Edge = {
+    val id = edgeIds(edge)
+    val from = nodeIds(edgeSources(edge))
+    val to = nodeIds(edgeTargets(edge))
+    edgeKind(edge) match {
+      case EdgeKind.CONTROL => ControlEdge(id, from, to)
+      case EdgeKind.DEF => DefEdge(id, from, to)
+      case EdgeKind.USE => UseEdge(id, from, to)
+      case EdgeKind.TRANS => TransControlEdge(id, from, to)
+      case EdgeKind.EXCEPTIONAL => ExceptionalControlEdge(id, from, to,
+        (exceptionStart(edge) until exceptionStart(edge + 1)).map(
+          i => pool.get(exceptions(i))).toList)
+    }
+  }
+
+  /** Successors of the node id following the edges of the given kind */
+  def succs(id : Long, kind : EdgeKind.Value) : Seq[Long] = {
+    val node = indexOf(id)
+    if (node < 0) Nil
+    else outEdgePositions(node).filter(edgeKinds(_) == kind.id).map(
+      e => nodeIds(edgeTargets(e)))
+  }
+
+  /** Predecessors of the node id following the edges of the given kind */
+  def preds(id : Long, kind : EdgeKind.Value) : Seq[Long] = {
+    val node = indexOf(id)
+    if (node < 0) Nil
+    else inEdgePositions(node).filter(edgeKinds(_) == kind.id).map(
+      e => nodeIds(edgeSources(e)))
+  }
+
+  def getMethodBag : Seq[String] = methodBag.map(pool.get(_))
+
+  /** Creates a (mutable) Acdfg with the same content */
+  def toAcdfg : Acdfg = {
+    val acdfg = new Acdfg(null, null, null, gitHubRecord, sourceInfo, provenancePath)
+    for (i <- 0 until nodeCount) {
+      acdfg.addNode(node(i))
+      getLine(i).foreach(acdfg.addLine(nodeIds(i), _))
+    }
+    for (e <- 0 until edgeCount) acdfg.addEdge(edge(e), labels(e))
+    methodBag.foreach(m => acdfg.methodBag.append(pool.get(m)))
+    acdfg
+  }
+
+  def toProtobuf : ProtoAcdfg.Acdfg = toAcdfg.toProtobuf
+
+  private def getString(id : Int) : String = if (id < 0) null else pool.get(id)
+}
+
+object FrozenAcdfg {
+  /* kinds of nodes */
+  val VAR_DATA : Byte = 0
+  val CONST_DATA : Byte = 1
+  val METHOD : Byte = 2
+  val MISC : Byte = 3
+
+  /* missing assignee or invokee */
+  val NO_ID : Long = -1
+
+  /** Creates the compact representation of the protobuf */
+  def apply(protobuf : ProtoAcdfg.Acdfg, pool : StringPool) : FrozenAcdfg =
+    apply(new Acdfg(protobuf), pool)
+
+  /** Creates the compact representation of the acdfg */
+  def apply(acdfg : Acdfg, pool : StringPool) : FrozenAcdfg = {
+    val nodeIds = acdfg.nodes.keys.toArray
+    java.util.Arrays.sort(nodeIds)
+    val n = nodeIds.length
+
+    def position(id : Long) : Int = {
+      val index = java.util.Arrays.binarySearch(nodeIds, id)
+      if (index < 0) {
+        throw new IllegalArgumentException("The edge node " + id + " is not in the graph")
+      }
+      index
+    }
+
+    /* nodes */
+    val nodeKinds = new Array[Byte](n)
+    val nodeNames = Array.fill(n)(-1)
+    val nodeTypes = Array.fill(n)(-1)
+    val nodeLines = Array.fill(n)(-1)
+    val assignees = Array.fill(n)(NO_ID)
+    val invokees = Array.fill(n)(NO_ID)
+    val argStart = new Array[Int](n + 1)
+    val args = new scala.collection.mutable.ArrayBuffer[Long]()
+
+    for (i <- 0 until n) {
+      acdfg.nodes(nodeIds(i)) match {
+        case node : DataNode =>
+          nodeKinds(i) = if (node.isInstanceOf[ConstDataNode]) CONST_DATA else VAR_DATA
+          nodeNames(i) = pool.intern(node.name)
+          nodeTypes(i) = pool.intern(node.datatype)
+        case node : MethodNode =>
+          nodeKinds(i) = METHOD
+          nodeNames(i) = pool.intern(node.name)
+          node.assignee.foreach(assignees(i) = _)
+          node.invokee.foreach(invokees(i) = _)
+          args ++= node.argumentIds
+        case _ =>
+          nodeKinds(i) = MISC
+      }
+      acdfg.getLine(nodeIds(i)).foreach(nodeLines(i) = _)
+      argStart(i + 1) = args.size
+    }
+
+    /* edges, sorted by source and id */
+    val edges = acdfg.edges.values.toArray.sortBy(e => (position(e.from), e.id))
+    val m = edges.length
+    val outStart = new Array[Int](n + 1)
+    val edgeIds = new Array[Long](m)
+    val edgeSources = new Array[Int](m)
+    val edgeTargets = new Array[Int](m)
+    val edgeKinds = new Array[Byte](m)
+    val edgeLabels = new Array[Byte](m)
+    val exceptionStart = new Array[Int](m + 1)
+    val exceptions = new scala.collection.mutable.ArrayBuffer[Int]()
+    val inStart = new Array[Int](n + 1)
+
+    for (e <- 0 until m) {
+      val edge = edges(e)
+      edgeIds(e) = edge.id
+      edgeSources(e) = position(edge.from)
+      edgeTargets(e) = position(edge.to)
+      edgeKinds(e) = EdgeKind.of(edge).id.toByte
+      edgeLabels(e) = acdfg.edgesLabel.getOrElse(edge.id, Set[EdgeLabel.Value]()).
+        foldLeft(0)((mask, l) => mask | (1 << l.id)).toByte
+      edge match {
+        case exEdge : ExceptionalControlEdge => exceptions ++= exEdge.exceptions.map(pool.intern)
+        case _ => ()
+      }
+      exceptionStart(e + 1) = exceptions.size
+
+      outStart(edgeSources(e) + 1) += 1
+      inStart(edgeTargets(e) + 1) += 1
+    }
+    for (i <- 0 until n) {
+      outStart(i + 1) += outStart(i)
+      inStart(i + 1) += inStart(i)
+    }
+
+    /* positions of the incoming edges (by source, since the edges are
+     * sorted by source) */
+    val inEdges = new Array[Int](m)
+    val inNext = inStart.clone()
+    for (e <- 0 until m) {
+      inEdges(inNext(edgeTargets(e))) = e
+      inNext(edgeTargets(e)) += 1
+    }
+
+    new FrozenAcdfg(pool, nodeIds, nodeKinds, nodeNames, nodeTypes, nodeLines,
+      assignees, invokees, argStart, args.toArray, outStart, edgeIds,
+      edgeSources, edgeTargets, edgeKinds, edgeLabels, exceptionStart,
+      exceptions.toArray, inStart, inEdges, acdfg.methodBag.map(pool.intern).toArray,
+      acdfg.getGitHubRecord, acdfg.getSourceInfo, acdfg.getProvenancePath)
+  }
+}
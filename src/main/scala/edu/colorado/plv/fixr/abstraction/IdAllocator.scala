@@ -0,0 +1,56 @@
+package edu.colorado.plv.fixr.abstraction
+
+/**
+  * Allocates the ids of the nodes and edges of an ACDFG.
+  *
+  * The ids are taken from a counter, so they are dense and assigned in
+  * increasing order. If reuseIds is true the released ids are kept in a
+  * free list and handed out again, the most recently released first,
+  * before taking a new id from the counter.
+  */
+class IdAllocator(reuseIds : Boolean) {
+  /* first id never allocated */
+  private var next : Long = 0
+  /* stack of the released ids */
+  private var free = new Array[Long](0)
+  private var freeCount = 0
+
+  def this() = this(true)
+
+  /** Returns an id that is not used */
+  def fresh() : Long = {
+    if (freeCount > 0) {
+      freeCount = freeCount - 1
+      free(freeCount)
+    }
+    else {
+      next = next + 1
+      next - 1
+    }
+  }
+
+  /** Marks id as used, when the id is not allocated by fresh */
+  def reserve(id : Long) : Unit = {
+    if (id >= next) next = id + 1
+  }
+
+  /** Releases id, that will be reused if reuseIds is true */
+  def release(id : Long) : Unit = {
+    if (reuseIds && id < next) {
+      if (freeCount == free.length) {
+        free = java.util.Arrays.copyOf(free, Math.max(8, free.length * 2))
+      }
+      free(freeCount) = id
+      freeCount = freeCount + 1
+    }
+  }
+
+  /** Upper bound (exclusive) of the allocated ids */
+  def bound : Long = next
+
+  /** Forgets all the ids, restarting from from */
+  def reset(from : Long) : Unit = {
+    next = from
+    freeCount = 0
+  }
+}
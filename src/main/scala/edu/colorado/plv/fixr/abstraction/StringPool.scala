@@ -0,0 +1,76 @@
+package edu.colorado.plv.fixr.abstraction
+
+import com.google.common.collect.Interner
+import com.google.common.collect.Interners
+
+/**
+  * Table of strings shared by several graphs.
+  *
+  * Each distinct string is stored once and identified by a dense integer
+  * id (the ids start from 0 and are never reused). The pool only grows.
+  *
+  * intern is synchronized, while get can be called concurrently without
+  * locking.
+  */
+class StringPool {
+  private val ids = new java.util.HashMap[String, Integer]()
+  @volatile private var strings = new Array[String](StringPool.INITIAL_SIZE)
+  @volatile private var count = 0
+
+  /** Returns the id of s, adding s to the pool if needed */
+  def intern(s : String) : Int = synchronized {
+    val id = ids.get(s)
+    if (null != id) id.intValue()
+    else {
+      if (count == strings.length) {
+        val larger = new Array[String](strings.length * 2)
+        System.arraycopy(strings, 0, larger, 0, count)
+        strings = larger
+      }
+      strings(count) = s
+      ids.put(s, count)
+      /* publish the string (count is read before strings in get) */
+      count = count + 1
+      count - 1
+    }
+  }
+
+  /** Returns the instance of s stored in the pool */
+  def canonical(s : String) : String = get(intern(s))
+
+  /** Returns the id of s, if s is in the pool */
+  def getId(s : String) : Option[Int] = synchronized {
+    val id = ids.get(s)
+    if (null == id) None else Some(id.intValue())
+  }
+
+  /** Returns the string with the given id */
+  def get(id : Int) : String = {
+    if (id < 0 || id >= count) {
+      throw new IndexOutOfBoundsException("Unknown string id " + id)
+    }
+    strings(id)
+  }
+
+  /** Number of strings in the pool */
+  def size : Int = count
+
+  /** Strings in the pool, ordered by id */
+  def toArray : Array[String] = {
+    val size = count
+    java.util.Arrays.copyOf(strings, size)
+  }
+}
+
+object StringPool {
+  private val INITIAL_SIZE = 1024
+
+  /* Strings (method names and types) shared by the graphs extracted in
+   * this JVM. The interner keeps weak references, so a string is
+   * released when no graph uses it anymore. */
+  private val shared : Interner[String] = Interners.newWeakInterner[String]()
+
+  /** Returns the instance of s shared among the graphs */
+  def share(s : String) : String =
+    if (null == s) s else shared.intern(s)
+}
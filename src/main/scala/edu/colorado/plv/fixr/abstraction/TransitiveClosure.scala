@@ -0,0 +1,155 @@
+package edu.colorado.plv.fixr.abstraction
+
+import edu.colorado.plv.fixr.CancellationToken
+
+/**
+  * Transitive closure of a directed graph whose nodes are 0 ... n-1.
+  *
+  * succs(i) contains the successors of the node i.
+  *
+  * The closure is computed on the condensation of the graph: the
+  * strongly connected components are found with (an iterative version
+  * of) Tarjan's algorithm, which completes the components in reverse
+  * topological order. The set of nodes reachable from a component is
+  * then the union of its successors and of the sets reachable from the
+  * successor components, which are already known.
+  *
+  * The sets are bit vectors stored in long[] and shared by all the nodes
+  * of a component, so the closure costs O(n * e / 64) instead of the
+  * O(n^3) of Floyd-Warshall.
+  *
+  * A node reaches itself only if it is on a cycle.
+  */
+class TransitiveClosure(succs : Array[Array[Int]]) {
+  val size : Int = succs.length
+  private val words : Int = TransitiveClosure.words(size)
+
+  /* component of each node */
+  private val component : Array[Int] = new Array[Int](size)
+  /* nodes reachable from each component */
+  private var rows : Array[Array[Long]] = new Array[Array[Long]](size)
+
+  computeClosure()
+
+  /** True if there is a non-empty path from i to j */
+  def reaches(i : Int, j : Int) : Boolean = TransitiveClosure.get(reachable(i), j)
+
+  /** Bit vector of the nodes reachable from i (must not be modified) */
+  def reachable(i : Int) : Array[Long] = rows(component(i))
+
+  private def computeClosure() : Unit = {
+    val index = Array.fill[Int](size)(-1)
+    val low = new Array[Int](size)
+    val onStack = new Array[Boolean](size)
+    val sccStack = new Array[Int](size)
+    var sccTop = 0
+    val callNode = new Array[Int](size)
+    val callEdge = new Array[Int](size)
+    var callTop = 0
+    var nextIndex = 0
+    var components = 0
+
+    def visit(v : Int) : Unit = {
+      index(v) = nextIndex
+      low(v) = nextIndex
+      nextIndex += 1
+      sccStack(sccTop) = v
+      sccTop += 1
+      onStack(v) = true
+      callNode(callTop) = v
+      callEdge(callTop) = 0
+      callTop += 1
+    }
+
+    for (root <- 0 until size if index(root) < 0) {
+      CancellationToken.check()
+      visit(root)
+
+      while (callTop > 0) {
+        val v = callNode(callTop - 1)
+        val e = callEdge(callTop - 1)
+        if (e < succs(v).length) {
+          callEdge(callTop - 1) = e + 1
+          val w = succs(v)(e)
+          if (index(w) < 0) visit(w)
+          else if (onStack(w)) low(v) = math.min(low(v), index(w))
+        }
+        else {
+          callTop -= 1
+          if (callTop > 0) {
+            val parent = callNode(callTop - 1)
+            low(parent) = math.min(low(parent), low(v))
+          }
+
+          if (low(v) == index(v)) {
+            /* v is the root of a component */
+            var start = sccTop
+            var w = -1
+            do {
+              start -= 1
+              w = sccStack(start)
+              onStack(w) = false
+              component(w) = components
+            } while (w != v)
+
+            rows(components) = componentRow(sccStack, start, sccTop, components)
+            components += 1
+            sccTop = start
+          }
+        }
+      }
+    }
+
+    rows = java.util.Arrays.copyOf(rows, components)
+  }
+
+  /* Nodes reachable from the component c, made of the nodes
+   * members[from ... to - 1].
+   * The successor components are already completed. */
+  private def componentRow(members : Array[Int], from : Int, to : Int,
+    c : Int) : Array[Long] = {
+    val row = new Array[Long](words)
+    var m = from
+    while (m < to) {
+      for (w <- succs(members(m))) {
+        TransitiveClosure.set(row, w)
+        if (component(w) != c) TransitiveClosure.or(row, rows(component(w)))
+      }
+      m += 1
+    }
+    row
+  }
+}
+
+object TransitiveClosure {
+  /** Number of longs needed to store n bits */
+  def words(n : Int) : Int = (n + 63) >>> 6
+
+  def get(bits : Array[Long], i : Int) : Boolean =
+    (bits(i >>> 6) & (1L << i)) != 0
+
+  def set(bits : Array[Long], i : Int) : Unit =
+    bits(i >>> 6) |= (1L << i)
+
+  /** dst = dst | src */
+  def or(dst : Array[Long], src : Array[Long]) : Unit = {
+    var i = 0
+    while (i < dst.length) {
+      dst(i) |= src(i)
+      i += 1
+    }
+  }
+
+  /** Calls f on each bit set in bits and not set in mask, in order */
+  def foreachAndNot(bits : Array[Long], mask : Array[Long])(f : Int => Unit) : Unit = {
+    var i = 0
+    while (i < bits.length) {
+      var word = bits(i) & ~mask(i)
+      while (word != 0) {
+        f((i << 6) + java.lang.Long.numberOfTrailingZeros(word))
+        word &= word - 1
+      }
+      i += 1
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+import scala.collection.JavaConversions._
+
+import edu.colorado.plv.fixr.abstraction.StringPool
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+/**
+  * Replaces the method names and the types of the graphs with the ids of
+  * a dictionary (and back).
+  *
+  * An encoded graph has empty method names and types and the ids of the
+  * strings in the name_id, type_id and method_id fields. The dictionary
+  * is stored next to the segment that contains the graphs.
+  */
+object AcdfgDictionary {
+  val EXT = ".acdfg.dict"
+
+  /** Encodes the strings of acdfg with the ids in dictionary */
+  def encode(acdfg : ProtoAcdfg.Acdfg, dictionary : StringPool) : ProtoAcdfg.Acdfg = {
+    val builder = acdfg.toBuilder()
+
+    for (node <- builder.getDataNodeBuilderList()) {
+      node.setTypeId(dictionary.intern(node.getType())).setType("")
+    }
+    for (node <- builder.getMethodNodeBuilderList()) {
+      node.setNameId(dictionary.intern(node.getName())).setName("")
+    }
+    if (builder.hasMethodBag()) {
+      val bag = builder.getMethodBagBuilder()
+      val methods = bag.getMethodList().toList
+      bag.clearMethod()
+      methods.foreach(m => bag.addMethodId(dictionary.intern(m)))
+    }
+
+    builder.build()
+  }
+
+  /** Restores the strings of an encoded acdfg */
+  def decode(acdfg : ProtoAcdfg.Acdfg, strings : Array[String]) : ProtoAcdfg.Acdfg = {
+    val builder = acdfg.toBuilder()
+
+    for (node <- builder.getDataNodeBuilderList() if node.hasTypeId()) {
+      node.setType(strings(node.getTypeId())).clearTypeId()
+    }
+    for (node <- builder.getMethodNodeBuilderList() if node.hasNameId()) {
+      node.setName(strings(node.getNameId())).clearNameId()
+    }
+    if (builder.hasMethodBag() && builder.getMethodBag().getMethodIdCount() > 0) {
+      val bag = builder.getMethodBagBuilder()
+      val ids = bag.getMethodIdList().toList
+      bag.clearMethodId()
+      ids.foreach(id => bag.addMethod(strings(id.intValue())))
+    }
+
+    builder.build()
+  }
+
+  /** Writes the strings of the dictionary in file */
+  def write(file : File, strings : Array[String]) : Unit = {
+    val tmpFile = new File(file.getPath() + ".tmp")
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))
+    try {
+      out.writeInt(strings.length)
+      for (s <- strings) {
+        val bytes = s.getBytes("utf-8")
+        out.writeInt(bytes.length)
+        out.write(bytes)
+      }
+    }
+    finally {
+      out.close()
+    }
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+  }
+
+  /** Reads the strings of a dictionary, ordered by id */
+  def read(file : File) : Array[String] = {
+    val in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+    try {
+      Array.fill(in.readInt()) {
+        val bytes = new Array[Byte](in.readInt())
+        in.readFully(bytes)
+        new String(bytes, "utf-8")
+      }
+    }
+    finally {
+      in.close()
+    }
+  }
+}
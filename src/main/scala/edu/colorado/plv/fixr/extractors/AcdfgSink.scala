@@ -0,0 +1,57 @@
+package edu.colorado.plv.fixr.extractors
+
+import edu.colorado.plv.fixr.abstraction.Acdfg
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+/**
+  * Destination of the ACDFGs extracted from the methods.
+  *
+  * The graphs are identified by their name (class name and method name,
+  * see MethodsTransformer). The implementations are thread safe, since
+  * the extraction workers write the graphs concurrently.
+  */
+trait AcdfgSink {
+  /** true if a graph with this name is already in the output */
+  def contains(name : String) : Boolean
+
+  /**
+    * Writes the graph of methodName in className.
+    *
+    * @return the name of the file (in the output directory) that
+    *  contains the graph
+    */
+  def write(className : String, methodName : String, name : String,
+    acdfg : ProtoAcdfg.Acdfg) : String
+
+  /**
+    * Writes the graph of methodName in className.
+    *
+    * The sinks that can serialize the graph directly in their output
+    * (see Acdfg.writeTo) override this method, avoiding to build the
+    * protobuf message of the graph.
+    */
+  def write(className : String, methodName : String, name : String,
+    acdfg : Acdfg) : String =
+    write(className, methodName, name, acdfg.toProtobuf)
+
+  /** Flushes and closes the output */
+  def close() : Unit
+}
+
+object AcdfgSink {
+  /* one file for each graph */
+  val FILES = "files"
+  /* graphs appended to few segment files */
+  val SEGMENTS = "segments"
+
+  val FORMATS = List(FILES, SEGMENTS)
+
+  /** Creates the sink for the output format and directory of the options */
+  def apply(options : ExtractorOptions) : AcdfgSink = {
+    options.outputFormat match {
+      case SEGMENTS => new SegmentAcdfgSink(options.outputDir,
+        SegmentAcdfgSink.MAX_SEGMENT_SIZE, options.segmentDictionary)
+      case _ => new FileAcdfgSink(options.outputDir)
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.io.BufferedReader
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileInputStream
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.io.FileOutputStream
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.jar.JarFile
+
+import scala.collection.JavaConversions._
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+  * Records, for each class of a previous extraction, the hash of its
+  * bytecode and the graphs extracted from it.
+  *
+  * The manifest is stored in the output directory and is valid only for
+  * the options it was created with (see ExtractionManifest.optionsKey).
+  * The classes whose hash did not change and whose extraction completed
+  * without errors can be skipped; the graphs of the classes that changed
+  * or disappeared are deleted before the new extraction.
+  *
+  * The graphs of a class that were not written because they duplicate
+  * a graph of another class (see FingerprintIndex) are recorded too: if
+  * that graph is deleted, the class is extracted again.
+  *
+  * The methods that record the extracted graphs are thread safe.
+  */
+class ExtractionManifest(val outputDir : String, val optionsKey : String) {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  /* Manifest of a class */
+  private class Entry(val hash : String, var complete : Boolean) {
+    val graphs = scala.collection.mutable.LinkedHashSet[String]()
+    /* graphs duplicated by the methods of the class */
+    val duplicates = scala.collection.mutable.LinkedHashSet[String]()
+  }
+
+  private val entries = scala.collection.mutable.HashMap[String, Entry]()
+  /* graphs deleted from the output directory */
+  private val deleted = scala.collection.mutable.LinkedHashSet[String]()
+
+  /**
+    * Update the manifest with the classes found in the input and returns
+    * the set of classes that do not need to be extracted again.
+    *
+    * The graphs of the classes that changed or do not exist anymore are
+    * deleted from the output directory.
+    */
+  def update(classHashes : Map[String, String]) : Set[String] = synchronized {
+    val unchanged = scala.collection.mutable.HashSet[String]()
+
+    for ((className, entry) <- entries.toList) {
+      classHashes.get(className) match {
+        case Some(hash) if hash == entry.hash =>
+          /* extract again the classes with errors, the methods already
+           * extracted are skipped since their graphs exist */
+          if (entry.complete) unchanged += className
+          else entry.complete = true
+        case _ =>
+          logger.info("Class {} changed, removing its graphs", className)
+          entry.graphs.foreach { graph =>
+            val graphFile = new File(outputDir, graph)
+            if (graphFile.exists() && ! graphFile.delete()) {
+              logger.warn("Cannot delete the stale graph {}", graphFile)
+            }
+            deleted += graph
+          }
+          entries -= className
+      }
+    }
+
+    /* extract again the duplicates of the deleted graphs */
+    for (className <- unchanged.toList) {
+      val entry = entries(className)
+      if (entry.duplicates.exists(deleted.contains)) {
+        logger.info("Class {} duplicates deleted graphs, extracting it again", className)
+        entry.duplicates.clear()
+        unchanged -= className
+      }
+    }
+
+    for ((className, hash) <- classHashes if ! entries.contains(className)) {
+      entries += ((className, new Entry(hash, true)))
+    }
+
+    unchanged.toSet
+  }
+
+  /** Files (in the output directory) of the graphs deleted by update */
+  def deletedGraphs : Set[String] = synchronized { deleted.toSet }
+
+  /** Record that graphFileName (in the output directory) was extracted from className */
+  def addGraph(className : String, graphFileName : String) : Unit = synchronized {
+    entries.get(className) match {
+      case Some(entry) => entry.graphs += graphFileName
+      case None => ()
+    }
+  }
+
+  /**
+    * Record that a graph of className was not written since it
+    * duplicates graphFileName (in the output directory)
+    */
+  def addDuplicate(className : String, graphFileName : String) : Unit = synchronized {
+    entries.get(className) match {
+      case Some(entry) => entry.duplicates += graphFileName
+      case None => ()
+    }
+  }
+
+  /** Record that the extraction of a method of className failed */
+  def setFailed(className : String) : Unit = synchronized {
+    entries.get(className) match {
+      case Some(entry) => entry.complete = false
+      case None => ()
+    }
+  }
+
+  /** Write the manifest in the output directory */
+  def save() : Unit = synchronized {
+    val dir = new File(outputDir)
+    if (! dir.exists()) dir.mkdirs()
+
+    val manifestFile = new File(dir, ExtractionManifest.MANIFEST_NAME)
+    val tmpFile = new File(dir, ExtractionManifest.MANIFEST_NAME + ".tmp")
+    val writer = new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(tmpFile), "utf-8"))
+    try {
+      writer.write(ExtractionManifest.HEADER + "\n")
+      writer.write("options\t" + optionsKey + "\n")
+      for ((className, entry) <- entries.toList.sortBy(_._1)) {
+        val fields = List("class", className, entry.hash,
+          if (entry.complete) "1" else "0") ++ entry.graphs ++
+          entry.duplicates.map(ExtractionManifest.DUPLICATE_PREFIX + _)
+        writer.write(fields.mkString("\t") + "\n")
+      }
+    }
+    finally {
+      writer.close()
+    }
+    Files.move(tmpFile.toPath(), manifestFile.toPath(),
+      StandardCopyOption.REPLACE_EXISTING)
+  }
+
+  private def addEntry(className : String, hash : String,
+    complete : Boolean, graphs : Seq[String]) : Unit = {
+    val entry = new Entry(hash, complete)
+    for (graph <- graphs) {
+      if (graph.startsWith(ExtractionManifest.DUPLICATE_PREFIX)) {
+        entry.duplicates += graph.substring(ExtractionManifest.DUPLICATE_PREFIX.length)
+      }
+      else entry.graphs += graph
+    }
+    entries += ((className, entry))
+  }
+}
+
+object ExtractionManifest {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  val MANIFEST_NAME = "extraction.manifest"
+  val HEADER = "# fixr extraction manifest v1"
+  private val CLASS_EXT = ".class"
+  /* prefix of the duplicated graphs in the list of the graphs of a class */
+  private val DUPLICATE_PREFIX = "="
+
+  /**
+    * Load the manifest from outputDir.
+    *
+    * If the manifest was created with different options, all the graphs
+    * it records are deleted and the returned manifest is empty.
+    */
+  def load(outputDir : String, optionsKey : String) : ExtractionManifest = {
+    val manifestFile = new File(outputDir, MANIFEST_NAME)
+
+    if (! manifestFile.exists()) {
+      new ExtractionManifest(outputDir, optionsKey)
+    }
+    else {
+      val stored = read(outputDir, manifestFile)
+      if (stored.optionsKey == optionsKey) stored
+      else {
+        logger.info("The extraction options changed, removing the previous graphs")
+        stored.update(Map[String, String]())
+        val manifest = new ExtractionManifest(outputDir, optionsKey)
+        manifest.deleted ++= stored.deletedGraphs
+        manifest
+      }
+    }
+  }
+
+  private def read(outputDir : String, manifestFile : File) : ExtractionManifest = {
+    val reader = new BufferedReader(new InputStreamReader(
+      new FileInputStream(manifestFile), "utf-8"))
+    try {
+      val header = reader.readLine()
+      val options = reader.readLine()
+
+      if (HEADER != header || null == options || ! options.startsWith("options\t")) {
+        logger.warn("Ignoring the malformed manifest {}", manifestFile)
+        new ExtractionManifest(outputDir, "")
+      }
+      else {
+        val manifest = new ExtractionManifest(outputDir,
+          options.substring("options\t".length))
+        var line = reader.readLine()
+        while (null != line) {
+          val fields = line.split("\t")
+          if (fields.length >= 4 && fields(0) == "class") {
+            manifest.addEntry(fields(1), fields(2), fields(3) == "1", fields.drop(4))
+          }
+          line = reader.readLine()
+        }
+        manifest
+      }
+    }
+    finally {
+      reader.close()
+    }
+  }
+
+  /**
+    * Key of the options that change the extracted graphs.
+    *
+    * The GitHub information is not part of the key, so the graphs of the
+    * unchanged classes are kept across different commits of a repository
+    * (and keep the GitHub record of the commit they were extracted from).
+    */
+  def optionsKey(options : ExtractorOptions) : String = {
+    def listToString(l : List[String]) : String =
+      if (null == l) "null" else l.mkString(":")
+
+    val key = List(
+      options.configCode.toString,
+      String.valueOf(options.sootClassPath),
+      String.valueOf(options.androidJars),
+      options.useJPhantom.toString,
+      listToString(options.sliceFilter),
+      listToString(options.extractFromPackages)).mkString("\n")
+
+    toHex(MessageDigest.getInstance("SHA-1").digest(key.getBytes("utf-8")))
+  }
+
+  /**
+    * Computes the hash of all the classes found in the process directories.
+    *
+    * Returns None if an element of processDir is not a directory or a jar
+    * file (e.g. an apk), since its classes cannot be hashed separately.
+    */
+  def hashClasses(processDir : List[String]) : Option[Map[String, String]] = {
+    val hashes = scala.collection.mutable.HashMap[String, String]()
+
+    val supported = visitClasses(processDir) { (className, open) =>
+      val input = open()
+      try { hashes += ((className, hash(input))) } finally { input.close() }
+    }
+
+    if (supported) Some(hashes.toMap) else None
+  }
+
+  /**
+    * Lists the classes found in the process directories.
+    *
+    * Returns None if an element of processDir is not a directory or a jar
+    * file.
+    */
+  def listClasses(processDir : List[String]) : Option[List[String]] = {
+    val classes = scala.collection.mutable.ListBuffer[String]()
+    val supported = visitClasses(processDir) { (className, open) =>
+      classes += className
+    }
+    if (supported) Some(classes.toList) else None
+  }
+
+  /* Calls visitor with the name of each class and a function that opens
+   * its bytecode (the visitor closes the stream) */
+  private def visitClasses(processDir : List[String])
+    (visitor : (String, () => InputStream) => Unit) : Boolean = {
+    processDir.forall { path =>
+      val file = new File(path)
+      if (file.isDirectory()) {
+        visitDirectory(file, "", visitor)
+        true
+      }
+      else if (file.isFile() && path.endsWith(".jar")) {
+        visitJar(file, visitor)
+        true
+      }
+      else false
+    }
+  }
+
+  private def visitDirectory(dir : File, packagePrefix : String,
+    visitor : (String, () => InputStream) => Unit) : Unit = {
+    val children = dir.listFiles()
+    if (null != children) {
+      for (child <- children.sortBy(_.getName())) {
+        if (child.isDirectory()) {
+          visitDirectory(child, packagePrefix + child.getName() + ".", visitor)
+        }
+        else if (child.getName().endsWith(CLASS_EXT)) {
+          val className = packagePrefix +
+            child.getName().substring(0, child.getName().length - CLASS_EXT.length)
+          visitor(className, () => new FileInputStream(child))
+        }
+      }
+    }
+  }
+
+  private def visitJar(jar : File,
+    visitor : (String, () => InputStream) => Unit) : Unit = {
+    val jarFile = new JarFile(jar)
+    try {
+      for (entry <- jarFile.entries()) {
+        if (! entry.isDirectory() && entry.getName().endsWith(CLASS_EXT)) {
+          val className = entry.getName().substring(0,
+            entry.getName().length - CLASS_EXT.length).replace('/', '.')
+          visitor(className, () => jarFile.getInputStream(entry))
+        }
+      }
+    }
+    finally {
+      jarFile.close()
+    }
+  }
+
+  private def hash(input : InputStream) : String = {
+    val digest = MessageDigest.getInstance("SHA-1")
+    val buffer = new Array[Byte](8192)
+    var read = input.read(buffer)
+    while (read >= 0) {
+      digest.update(buffer, 0, read)
+      read = input.read(buffer)
+    }
+    toHex(digest.digest())
+  }
+
+  private def toHex(bytes : Array[Byte]) : String = {
+    val builder = new StringBuilder()
+    bytes.foreach { b => builder.append("%02x".format(b & 0xff)) }
+    builder.toString
+  }
+}
@@ -0,0 +1,198 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.io.File
+import java.io.FileOutputStream
+import java.lang.management.ManagementFactory
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+  * Stages of the extraction of a method, in the order they are executed
+  */
+object ExtractionStage extends Enumeration {
+  type ExtractionStage = Value
+  /* JimpleSlicer */
+  val JIMPLE_SLICE = Value("jimple_slice")
+  /* EnhancedUnitGraph */
+  val UNIT_GRAPH = Value("unit_graph")
+  /* APISlicer */
+  val API_SLICE = Value("api_slice")
+  /* BodySimplifier */
+  val SIMPLIFY = Value("simplify")
+  /* UnitCdfgGraph */
+  val CDFG = Value("cdfg")
+  /* nodes and edges of the ACDFG (CdfgToAcdfg) */
+  val ACDFG = Value("acdfg")
+  /* transitive closure and bag of methods */
+  val CLOSURE = Value("closure")
+  /* output of the graph and of the provenance information */
+  val WRITE = Value("write")
+}
+
+/**
+  * Wall time, CPU time and allocated bytes of each stage of the
+  * extraction of the methods, with the size of their bodies and graphs.
+  *
+  * The CPU time and the allocated bytes are measured on the thread that
+  * runs the stage (with the ThreadMXBean of the JVM), and are -1 if the
+  * JVM does not support them.
+  *
+  * The metrics of a method are registered when its extraction starts
+  * and are updated by the threads that run its stages, so they must be
+  * read (writeReport and logSummary) after all the extractions
+  * completed. writeReport appends a CSV line for each method to the
+  * report file, and logSummary logs the percentiles of the time of each
+  * stage.
+  */
+class ExtractionMetrics {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  private val methods = scala.collection.mutable.ArrayBuffer[MethodMetrics]()
+
+  /** Metrics of the extraction of a method */
+  class MethodMetrics(val className : String, val methodName : String) {
+    private val stages = ExtractionStage.maxId
+    val wallTime = Array.fill[Long](stages)(-1)
+    val cpuTime = Array.fill[Long](stages)(-1)
+    val allocatedBytes = Array.fill[Long](stages)(-1)
+
+    /* outcome of the extraction (ok, empty, duplicate or failed) */
+    @volatile var status : String = ExtractionMetrics.FAILED
+    @volatile var units : Int = -1
+    @volatile var slicedUnits : Int = -1
+    @volatile var nodes : Int = -1
+    @volatile var edges : Int = -1
+
+    /** Runs op, measuring it as the stage */
+    def time[T](stage : ExtractionStage.Value)(op : => T) : T = {
+      val wallStart = System.nanoTime()
+      val cpuStart = ExtractionMetrics.threadCpuTime()
+      val allocatedStart = ExtractionMetrics.threadAllocatedBytes()
+      try {
+        op
+      }
+      finally {
+        wallTime(stage.id) = System.nanoTime() - wallStart
+        if (cpuStart >= 0) cpuTime(stage.id) = ExtractionMetrics.threadCpuTime() - cpuStart
+        if (allocatedStart >= 0) {
+          allocatedBytes(stage.id) = ExtractionMetrics.threadAllocatedBytes() - allocatedStart
+        }
+      }
+    }
+  }
+
+  /** Registers the metrics of the extraction of a method */
+  def start(className : String, methodName : String) : MethodMetrics = {
+    val metrics = new MethodMetrics(className, methodName)
+    synchronized { methods += metrics }
+    metrics
+  }
+
+  /** Number of methods recorded */
+  def size : Int = synchronized { methods.size }
+
+  /**
+    * Appends the metrics of the methods to the CSV file report.
+    *
+    * The header is written if the file is empty. The file is locked
+    * while writing, so several processes can share the same report.
+    */
+  def writeReport(report : File) : Unit = {
+    val lines = synchronized { methods.toList }.map(ExtractionMetrics.csvLine)
+    val parent = report.getAbsoluteFile().getParentFile()
+    if (null != parent) parent.mkdirs()
+
+    val out = new FileOutputStream(report, true)
+    try {
+      val lock = out.getChannel().lock()
+      try {
+        val text = new StringBuilder()
+        if (out.getChannel().size() == 0) text.append(ExtractionMetrics.CSV_HEADER).append("\n")
+        lines.foreach(text.append(_).append("\n"))
+        out.write(text.toString().getBytes("utf-8"))
+      }
+      finally {
+        lock.release()
+      }
+    }
+    finally {
+      out.close()
+    }
+  }
+
+  /** Logs the total and the percentiles of the wall time of each stage */
+  def logSummary() : Unit = {
+    val recorded = synchronized { methods.toList }
+    val statuses = recorded.groupBy(_.status).map { case (s, l) => s + ": " + l.size }
+    logger.info("Extraction metrics of {} methods ({})", recorded.size.toString,
+      statuses.toList.sorted.mkString(", "))
+
+    for (stage <- ExtractionStage.values) {
+      val times = recorded.map(_.wallTime(stage.id)).filter(_ >= 0).sorted.toArray
+      if (times.nonEmpty) {
+        def ms(nanos : Long) : String = "%.1f".format(nanos / 1000000.0)
+        logger.info("{}", "%-12s total %s ms, p50 %s ms, p90 %s ms, p99 %s ms, max %s ms".format(
+          stage.toString, ms(times.sum),
+          ms(ExtractionMetrics.percentile(times, 50)),
+          ms(ExtractionMetrics.percentile(times, 90)),
+          ms(ExtractionMetrics.percentile(times, 99)),
+          ms(times.last)))
+      }
+    }
+  }
+}
+
+object ExtractionMetrics {
+  val OK = "ok"
+  val EMPTY = "empty"
+  val DUPLICATE = "duplicate"
+  val FAILED = "failed"
+
+  val CSV_HEADER : String =
+    (List("class", "method", "status", "units", "sliced_units", "nodes", "edges") ++
+      ExtractionStage.values.toList.flatMap { stage =>
+        List(stage.toString + "_wall_ns", stage.toString + "_cpu_ns",
+          stage.toString + "_alloc_bytes")
+      }).mkString(",")
+
+  private val threadBean = ManagementFactory.getThreadMXBean()
+
+  private val cpuTimeSupported =
+    threadBean.isThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled()
+
+  /* the allocated bytes are an extension of the HotSpot JVMs */
+  private val allocationBean : com.sun.management.ThreadMXBean = threadBean match {
+    case bean : com.sun.management.ThreadMXBean
+        if bean.isThreadAllocatedMemorySupported() => {
+      if (! bean.isThreadAllocatedMemoryEnabled()) bean.setThreadAllocatedMemoryEnabled(true)
+      bean
+    }
+    case _ => null
+  }
+
+  private def threadCpuTime() : Long =
+    if (cpuTimeSupported) threadBean.getCurrentThreadCpuTime() else -1
+
+  private def threadAllocatedBytes() : Long =
+    if (null != allocationBean) allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId())
+    else -1
+
+  /* Nearest rank percentile of the sorted values */
+  def percentile(sorted : Array[Long], p : Int) : Long = {
+    val rank = Math.ceil(p / 100.0 * sorted.length).toInt
+    sorted(Math.max(0, Math.min(sorted.length - 1, rank - 1)))
+  }
+
+  private def csvLine(m : ExtractionMetrics#MethodMetrics) : String = {
+    def quote(s : String) : String =
+      if (s.exists(c => c == ',' || c == '"' || c == '\n')) "\"" + s.replace("\"", "\"\"") + "\""
+      else s
+
+    (List(quote(m.className), quote(m.methodName), m.status, m.units.toString,
+      m.slicedUnits.toString, m.nodes.toString, m.edges.toString) ++
+      ExtractionStage.values.toList.flatMap { stage =>
+        List(m.wallTime(stage.id), m.cpuTime(stage.id), m.allocatedBytes(stage.id)).map(_.toString)
+      }).mkString(",")
+  }
+}
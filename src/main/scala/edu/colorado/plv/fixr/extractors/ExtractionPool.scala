@@ -0,0 +1,59 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+  * Pool of workers that completes the extraction of the methods (ACDFG
+  * transitive closure, serialization and output) while Soot keeps
+  * processing the next bodies.
+  *
+  * Soot is not thread safe: everything that accesses a Soot data
+  * structure must stay on the thread that runs the Soot packs, and the
+  * tasks submitted to the pool must only access data local to a method.
+  *
+  * When the queue is full the task is executed by the submitting thread,
+  * which bounds the number of graphs waiting in memory.
+  */
+class ExtractionPool(workers : Int) {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  private val executor : ThreadPoolExecutor = new ThreadPoolExecutor(
+    workers, workers, 0L, TimeUnit.MILLISECONDS,
+    new ArrayBlockingQueue[Runnable](workers * ExtractionPool.QUEUE_PER_WORKER),
+    new ExtractionPool.WorkerFactory(),
+    new ThreadPoolExecutor.CallerRunsPolicy())
+
+  def submit(task : Runnable) : Unit = executor.execute(task)
+
+  /**
+    * Wait for all the submitted tasks to terminate and stops the workers.
+    */
+  def shutdown() : Unit = {
+    executor.shutdown()
+    while (! executor.awaitTermination(1, TimeUnit.MINUTES)) {
+      logger.info("Waiting for {} extraction tasks to terminate...",
+        executor.getQueue().size() + executor.getActiveCount())
+    }
+  }
+}
+
+object ExtractionPool {
+  val QUEUE_PER_WORKER = 4
+
+  private class WorkerFactory extends ThreadFactory {
+    private val count = new AtomicInteger(0)
+
+    override def newThread(r : Runnable) : Thread = {
+      val t = new Thread(r, "acdfg-worker-" + count.incrementAndGet())
+      t.setDaemon(true)
+      t
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import edu.colorado.plv.fixr.CancellationToken
+
+/**
+  * Enforces the time budget of the extraction of a method.
+  *
+  * A single thread cancels the token of a method when its budget
+  * expires. The extraction notices the cancellation the next time it
+  * calls CancellationToken.check() and stops.
+  *
+  * The budget can be paused (e.g. while the completion of the method
+  * waits in the queue of the ExtractionPool) and resumed.
+  *
+  * @param scheduler runs the timers of the tokens
+  * @param clock current time, as System.nanoTime()
+  */
+class ExtractionWatchdog(scheduler : ScheduledThreadPoolExecutor,
+  clock : () => Long) {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  scheduler.setRemoveOnCancelPolicy(true)
+
+  def this() = this(ExtractionWatchdog.newScheduler(), () => System.nanoTime())
+
+  /**
+    * Creates a token that is cancelled after budget seconds.
+    *
+    * The token must be released when the extraction terminates.
+    */
+  def start(description : String, budget : Long) : CancellationToken = {
+    val token = new CancellationToken(description)
+    schedule(token, TimeUnit.SECONDS.toNanos(budget))
+    token
+  }
+
+  /** Stops the timer of token, until resume is called */
+  def pause(token : CancellationToken) : Unit = token.pause(clock())
+
+  /** Restarts the timer of token with the budget left when it was paused */
+  def resume(token : CancellationToken) : Unit = {
+    val remaining = token.takeRemaining()
+    if (remaining >= 0) schedule(token, remaining)
+  }
+
+  private def schedule(token : CancellationToken, budget : Long) : Unit = {
+    val timer = scheduler.schedule(new Runnable() {
+      override def run() : Unit = {
+        logger.info("Time out for {}", token.getDescription())
+        token.cancel()
+      }
+    }, budget, TimeUnit.NANOSECONDS)
+    token.setTimer(timer, clock() + budget)
+  }
+}
+
+object ExtractionWatchdog {
+  private lazy val watchdog : ExtractionWatchdog = new ExtractionWatchdog()
+
+  /** Watchdog shared by all the extractions in the JVM */
+  def v() : ExtractionWatchdog = watchdog
+
+  private def newScheduler() : ScheduledThreadPoolExecutor =
+    new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      override def newThread(r : Runnable) : Thread = {
+        val t = new Thread(r, "extraction-watchdog")
+        t.setDaemon(true)
+        t
+      }
+    })
+}
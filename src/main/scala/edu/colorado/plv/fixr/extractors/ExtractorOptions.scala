@@ -29,11 +29,38 @@ class ExtractorOptions {
   var androidJars : String = null
   var url : String = null
   var commitHash : String = null
+  /* classes of the shard extracted by this process (null for all the
+   * classes in processDir) */
+  var shardClasses : Set[String] = null
 
   // Output options
   var outputDir : String = null
   var provenanceDir : String = null
+  /* layout of the graphs in outputDir (see AcdfgSink) */
+  var outputFormat : String = AcdfgSink.FILES
+  /* replace method names and types with the ids of a dictionary in the
+   * segments */
+  var segmentDictionary : Boolean = false
+  /* renumber the nodes and edges of the graphs with contiguous ids */
+  var compactIds : Boolean = false
+  /* skip the graphs with the same fingerprint of a graph already written */
+  var dedup : Boolean = false
+  /* file of the fingerprints used by dedup (null for the default file in
+   * outputDir) */
+  var fingerprintIndex : String = null
+  /* index the bags of methods of the graphs in outputDir after the
+   * extraction (see MethodBagIndex) */
+  var methodIndex : Boolean = false
+  /* CSV file where the time and the memory of each stage of the
+   * extraction are appended (null to disable, see ExtractionMetrics) */
+  var metricsReport : String = null
 
   var storeAcdfg : Boolean = false
   var to : Long = 0
+  /* skip the classes not changed since the last extraction in outputDir */
+  var incremental : Boolean = false
+
+  // Parallel options
+  /* number of threads used to complete the extraction of the methods */
+  var workers : Int = 1
 }
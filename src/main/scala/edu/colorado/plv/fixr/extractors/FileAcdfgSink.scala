@@ -0,0 +1,62 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStream
+
+import com.google.protobuf.CodedOutputStream
+
+import edu.colorado.plv.fixr.abstraction.Acdfg
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+/**
+  * Writes each graph in the file name.acdfg.bin of the output directory.
+  */
+class FileAcdfgSink(outputDir : String) extends AcdfgSink {
+
+  override def contains(name : String) : Boolean =
+    FileAcdfgSink.getFile(outputDir, name).exists()
+
+  override def write(className : String, methodName : String, name : String,
+    acdfg : ProtoAcdfg.Acdfg) : String =
+    writeFile(name, output => acdfg.writeTo(output))
+
+  override def write(className : String, methodName : String, name : String,
+    acdfg : Acdfg) : String =
+    writeFile(name, output => {
+      val codedOutput = CodedOutputStream.newInstance(output)
+      acdfg.writeTo(codedOutput)
+      codedOutput.flush()
+    })
+
+  private def writeFile(name : String, writeGraph : OutputStream => Unit) : String = {
+    val outputDirPath = new File(outputDir)
+    if (! outputDirPath.exists()) {
+      /* another worker may create the directory concurrently */
+      val created = outputDirPath.mkdirs() || outputDirPath.isDirectory()
+      if (! created) {
+        throw new Exception("Error creating " + outputDir)
+      }
+    }
+
+    val outputFile = FileAcdfgSink.getFile(outputDir, name)
+    val output = new FileOutputStream(outputFile)
+    try {
+      writeGraph(output)
+    }
+    finally {
+      output.close()
+    }
+    outputFile.getName()
+  }
+
+  override def close() : Unit = ()
+}
+
+object FileAcdfgSink {
+  val EXT = ".acdfg.bin"
+
+  /** File of the graph name in outputDir */
+  def getFile(outputDir : String, name : String) : File =
+    new File(outputDir, name + EXT)
+}
@@ -0,0 +1,189 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+  * Fingerprints of the graphs already extracted (see AcdfgFingerprint),
+  * used to skip the duplicate graphs.
+  *
+  * The index is loaded from indexFile, if it exists, and the new
+  * fingerprints are appended to it, so the graphs are deduplicated
+  * across the extractions that share the file. Each line of the file
+  * contains the fingerprint (in hexadecimal) and the name of the first
+  * graph with that fingerprint.
+  *
+  * A fingerprint is reserved while its graph is written, and it is
+  * committed to the index only after the graph has been written (or
+  * released if the write fails). The file is locked while it is read
+  * or updated, so the processes that share it (e.g. the shards of an
+  * extraction) do not corrupt it. A fingerprint that is not in memory
+  * is looked up in the lines appended to the file by the other
+  * processes, so a graph committed by a shard is a duplicate for the
+  * others. (Two processes can still write the same graph if they
+  * extract it at the same time.)
+  *
+  * The index is thread safe.
+  */
+class FingerprintIndex(indexFile : File) {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  private val fingerprints = new scala.collection.mutable.HashMap[Long, String]()
+  /* fingerprints of the graphs being written */
+  private val reserved = new scala.collection.mutable.HashMap[Long, String]()
+  /* size of the index file already read */
+  private var readOffset = 0L
+
+  if (indexFile.exists()) {
+    withLockedFile(channel => readAppended(channel))
+    logger.info("Loaded {} fingerprints from {}", fingerprints.size.toString, indexFile)
+  }
+
+  /**
+    * Reserves the fingerprint for the graph name, before writing it.
+    *
+    * If a graph with the same fingerprint is being written, waits until
+    * it is committed or released.
+    *
+    * @return the name of the graph with the same fingerprint, if the
+    *  fingerprint was already in the index (in that case nothing is
+    *  reserved)
+    */
+  def reserve(fingerprint : Long, name : String) : Option[String] = synchronized {
+    while (reserved.get(fingerprint).exists(_ != name)) wait()
+
+    /* the fingerprint may have been committed by another process */
+    if (! fingerprints.contains(fingerprint) && indexFile.length() != readOffset) {
+      withLockedFile(channel => readAppended(channel))
+    }
+
+    fingerprints.get(fingerprint) match {
+      case Some(first) => Some(first)
+      case None => {
+        reserved += ((fingerprint, name))
+        None
+      }
+    }
+  }
+
+  /** Adds the fingerprint reserved by name, after its graph was written */
+  def commit(fingerprint : Long, name : String) : Unit = synchronized {
+    if (reserved.get(fingerprint) == Some(name)) reserved -= fingerprint
+    if (! fingerprints.contains(fingerprint)) {
+      withLockedFile { channel =>
+        readAppended(channel)
+        if (! fingerprints.contains(fingerprint)) {
+          fingerprints += ((fingerprint, name))
+          channel.position(channel.size())
+          channel.write(ByteBuffer.wrap(FingerprintIndex.entryLine(fingerprint, name).getBytes("utf-8")))
+          readOffset = channel.size()
+        }
+      }
+    }
+    notifyAll()
+  }
+
+  /** Releases the fingerprint reserved by name, when its graph was not written */
+  def release(fingerprint : Long, name : String) : Unit = synchronized {
+    if (reserved.get(fingerprint) == Some(name)) {
+      reserved -= fingerprint
+      notifyAll()
+    }
+  }
+
+  /**
+    * Removes the fingerprints of the graphs names (e.g. after deleting
+    * them), so that their duplicates are written again.
+    */
+  def remove(names : Set[String]) : Unit = synchronized {
+    val removed = fingerprints.filter { case (fp, name) => names.contains(name) }.keys.toList
+    if (removed.nonEmpty) {
+      fingerprints --= removed
+      withLockedFile { channel =>
+        val (entries, end) = readEntries(channel, 0)
+        val kept = entries.filter { case (fp, name) => ! names.contains(name) }
+        val text = kept.map { case (fp, name) => FingerprintIndex.entryLine(fp, name) }.mkString
+        channel.truncate(0)
+        channel.write(ByteBuffer.wrap(text.getBytes("utf-8")), 0)
+        readOffset = channel.size()
+      }
+      logger.info("Removed {} fingerprints of deleted graphs", removed.size.toString)
+    }
+  }
+
+  def size : Int = synchronized { fingerprints.size }
+
+  /* Runs op with the index file locked */
+  private def withLockedFile[T](op : FileChannel => T) : T = {
+    val parent = indexFile.getAbsoluteFile().getParentFile()
+    if (null != parent) parent.mkdirs()
+    val file = new RandomAccessFile(indexFile, "rw")
+    try {
+      val lock = file.getChannel().lock()
+      try {
+        op(file.getChannel())
+      }
+      finally {
+        lock.release()
+      }
+    }
+    finally {
+      file.close()
+    }
+  }
+
+  /* Adds the entries appended to the index file since the last read */
+  private def readAppended(channel : FileChannel) : Unit = {
+    /* the file was rewritten by remove */
+    if (channel.size() < readOffset) readOffset = 0
+    val (entries, end) = readEntries(channel, readOffset)
+    for ((fingerprint, name) <- entries) {
+      fingerprints.getOrElseUpdate(fingerprint, name)
+    }
+    readOffset = end
+  }
+
+  /**
+    * Entries of the index file from the offset from, in order.
+    *
+    * @return the entries and the offset after the last complete line
+    */
+  private def readEntries(channel : FileChannel, from : Long) : (List[(Long, String)], Long) = {
+    val bytes = ByteBuffer.allocate((channel.size() - from).toInt)
+    while (bytes.hasRemaining() && channel.read(bytes, from + bytes.position()) >= 0) {}
+    /* the lines are appended under the lock, so only a crash leaves a
+     * partial line */
+    val complete = bytes.array().lastIndexOf('\n'.toByte, bytes.position() - 1) + 1
+    val text = new String(bytes.array(), 0, complete, "utf-8")
+
+    val entries = text.split("\n").toList.filter(_.nonEmpty).flatMap { line =>
+      val fields = line.split("\t")
+      if (fields.length != 2) None
+      else {
+        try {
+          Some((java.lang.Long.parseUnsignedLong(fields(0), 16), fields(1)))
+        }
+        catch {
+          case e : NumberFormatException => {
+            logger.warn("Skipping the malformed fingerprint {}", fields(0))
+            None
+          }
+        }
+      }
+    }
+    (entries, from + complete)
+  }
+}
+
+object FingerprintIndex {
+  /* default index, in the output directory */
+  val INDEX_FILE = "graphs.fingerprints"
+
+  private def entryLine(fingerprint : Long, name : String) : String =
+    java.lang.Long.toHexString(fingerprint) + "\t" + name + "\n"
+}
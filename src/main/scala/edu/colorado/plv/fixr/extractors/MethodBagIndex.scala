@@ -0,0 +1,306 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.io.BufferedOutputStream
+import java.io.BufferedReader
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.InputStreamReader
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.PrintWriter
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import edu.colorado.plv.fixr.abstraction.AcdfgView
+
+/**
+  * Inverted index from the method names to the graphs that call them,
+  * built from the bags of methods of the graphs in an output directory.
+  *
+  * The graphs are numbered from 0 in the order they are indexed. The
+  * index is made of three files in the output directory:
+  *  - method_bag.graphs: the reference of each graph (one per line, in
+  *    the order of the ids), i.e. the name of its .acdfg.bin file or
+  *    segment_file#graph_name (see SegmentAcdfgReader.loadGraph)
+  *  - method_bag.postings: the posting lists, each one a sequence of
+  *    increasing graph ids encoded as the varints of their differences
+  *  - method_bag.methods: the number of graphs and, for each method, its
+  *    name, the number of graphs that call it and the position and size
+  *    of its posting list (written with java.io.DataOutputStream)
+  *
+  * The methods file is removed before the other files are replaced and
+  * it is written last, so an index without it is incomplete. Loading the
+  * index checks that its number of graphs matches the graphs file.
+  *
+  * The queries read only the posting lists of the methods in the query,
+  * so their cost does not depend on the number of graphs in the index.
+  * The index can be queried by several threads.
+  */
+class MethodBagIndex(indexDir : String) extends Closeable {
+  private val graphs : Array[String] = {
+    val reader = new BufferedReader(new InputStreamReader(
+      new FileInputStream(new File(indexDir, MethodBagIndex.GRAPHS_FILE)), "utf-8"))
+    try {
+      Iterator.continually(reader.readLine()).takeWhile(null != _).toArray
+    }
+    finally {
+      reader.close()
+    }
+  }
+
+  /* method name -> (number of graphs, offset, size) of its posting list */
+  private val methods : scala.collection.mutable.HashMap[String, (Int, Long, Int)] = {
+    val in = new DataInputStream(new java.io.BufferedInputStream(
+      new FileInputStream(new File(indexDir, MethodBagIndex.METHODS_FILE))))
+    try {
+      val graphCount = in.readInt()
+      if (graphCount != graphs.length) {
+        throw new Exception("The method index in " + indexDir + " is incomplete: " +
+          graphs.length + " graphs instead of " + graphCount)
+      }
+      val methods = new scala.collection.mutable.HashMap[String, (Int, Long, Int)]()
+      val count = in.readInt()
+      for (i <- 0 until count) {
+        val name = in.readUTF()
+        methods += ((name, (in.readInt(), in.readLong(), in.readInt())))
+      }
+      methods
+    }
+    finally {
+      in.close()
+    }
+  }
+
+  private val channel = new RandomAccessFile(new File(indexDir,
+    MethodBagIndex.POSTINGS_FILE), "r").getChannel()
+  private val postingsBuffer : ByteBuffer =
+    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+
+  /** Number of graphs in the index */
+  def graphCount : Int = graphs.length
+
+  /** Reference of the graph id (relative to the index directory) */
+  def graph(id : Int) : String = graphs(id)
+
+  /** Path of the graph id, that can be loaded with SegmentAcdfgReader.loadGraph */
+  def graphPath(id : Int) : String = new File(indexDir, graphs(id)).getPath()
+
+  /** Number of graphs that call method */
+  def frequency(method : String) : Int =
+    methods.get(method).map(_._1).getOrElse(0)
+
+  /** Ids of the graphs that call method, in increasing order */
+  def postings(method : String) : Array[Int] = methods.get(method) match {
+    case Some((count, offset, size)) => {
+      val view = postingsBuffer.duplicate()
+      view.position(offset.toInt)
+      val ids = new Array[Int](count)
+      var last = 0
+      for (i <- 0 until count) {
+        last = last + MethodBagIndex.readVarint(view)
+        ids(i) = last
+      }
+      ids
+    }
+    case None => new Array[Int](0)
+  }
+
+  /** Ids of the graphs that call all the methods, in increasing order */
+  def withAll(query : Iterable[String]) : Array[Int] = {
+    val sorted = query.toList.distinct.sortBy(frequency)
+    if (sorted.isEmpty) new Array[Int](0)
+    else {
+      /* start from the shortest posting list */
+      sorted.tail.foldLeft(postings(sorted.head)) { (result, method) =>
+        if (result.isEmpty) result
+        else MethodBagIndex.intersect(result, postings(method))
+      }
+    }
+  }
+
+  /**
+    * Graphs that call at least minMatches of the methods.
+    *
+    * @return the ids of the graphs and the number of methods they call,
+    *  by decreasing number of methods and increasing id
+    */
+  def withSome(query : Iterable[String], minMatches : Int) : Seq[(Int, Int)] = {
+    val matches = new scala.collection.mutable.HashMap[Int, Int]()
+    for (method <- query.toList.distinct; id <- postings(method)) {
+      matches.update(id, matches.getOrElse(id, 0) + 1)
+    }
+    matches.toSeq.filter(_._2 >= minMatches).sortBy { case (id, count) => (- count, id) }
+  }
+
+  def withSome(query : Iterable[String]) : Seq[(Int, Int)] = withSome(query, 1)
+
+  override def close() : Unit = channel.close()
+}
+
+object MethodBagIndex {
+  val GRAPHS_FILE = "method_bag.graphs"
+  val METHODS_FILE = "method_bag.methods"
+  val POSTINGS_FILE = "method_bag.postings"
+
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  /**
+    * Builds the index of the graphs in outputDir (the .acdfg.bin files
+    * and the complete segments), replacing the previous one.
+    *
+    * Only the bag of methods of the graphs is read (see AcdfgView).
+    *
+    * @return the number of indexed graphs
+    */
+  def build(outputDir : String) : Int = {
+    val start = System.currentTimeMillis()
+    val graphs = scala.collection.mutable.ArrayBuffer[String]()
+    /* posting lists, as the varints of the differences of the ids */
+    val postings = new java.util.TreeMap[String, Posting]()
+
+    def addGraph(reference : String, view : AcdfgView) : Unit = {
+      val id = graphs.size
+      graphs += reference
+      for (method <- view.methodBag.distinct) {
+        var posting = postings.get(method)
+        if (null == posting) {
+          posting = new Posting()
+          postings.put(method, posting)
+        }
+        posting.add(id)
+      }
+    }
+
+    val files = new File(outputDir).listFiles()
+    if (null != files) {
+      for (file <- files.filter(_.getName().endsWith(FileAcdfgSink.EXT)).sortBy(_.getName())) {
+        val bytes = Files.readAllBytes(file.toPath())
+        addGraph(file.getName(), AcdfgView(ByteBuffer.wrap(bytes)))
+      }
+    }
+    for (reader <- SegmentAcdfgReader.openAll(outputDir)) {
+      try {
+        for ((name, view) <- reader.views) {
+          addGraph(reader.segmentName + SegmentAcdfgReader.SEPARATOR + name, view)
+        }
+      }
+      finally {
+        reader.close()
+      }
+    }
+
+    /* the old index is incomplete until the new methods file is written */
+    val methodsFile = new File(outputDir, METHODS_FILE)
+    Files.deleteIfExists(methodsFile.toPath())
+    writeAtomically(new File(outputDir, GRAPHS_FILE)) { out =>
+      val writer = new PrintWriter(new OutputStreamWriter(out, "utf-8"))
+      graphs.foreach(writer.println)
+      writer.flush()
+    }
+    val positions = scala.collection.mutable.ArrayBuffer[(String, Posting, Long)]()
+    writeAtomically(new File(outputDir, POSTINGS_FILE)) { out =>
+      var offset = 0L
+      val it = postings.entrySet().iterator()
+      while (it.hasNext()) {
+        val entry = it.next()
+        positions += ((entry.getKey(), entry.getValue(), offset))
+        entry.getValue().writeTo(out)
+        offset = offset + entry.getValue().size
+      }
+    }
+    writeAtomically(methodsFile) { out =>
+      val data = new DataOutputStream(out)
+      data.writeInt(graphs.size)
+      data.writeInt(positions.size)
+      for ((method, posting, offset) <- positions) {
+        data.writeUTF(method)
+        data.writeInt(posting.count)
+        data.writeLong(offset)
+        data.writeInt(posting.size)
+      }
+      data.flush()
+    }
+
+    logger.info("Indexed the methods of {} graphs in {} ms", graphs.size.toString,
+      (System.currentTimeMillis() - start).toString)
+    graphs.size
+  }
+
+  /* Ids of the graphs in both the sorted arrays a and b */
+  private def intersect(a : Array[Int], b : Array[Int]) : Array[Int] = {
+    val result = new scala.collection.mutable.ArrayBuilder.ofInt()
+    var i = 0
+    var j = 0
+    while (i < a.length && j < b.length) {
+      if (a(i) < b(j)) i = i + 1
+      else if (a(i) > b(j)) j = j + 1
+      else {
+        result += a(i)
+        i = i + 1
+        j = j + 1
+      }
+    }
+    result.result()
+  }
+
+  /* Posting list being built */
+  private class Posting {
+    private val bytes = new ByteArrayOutputStream()
+    private var last = 0
+    var count = 0
+
+    def add(id : Int) : Unit = {
+      writeVarint(bytes, id - last)
+      last = id
+      count = count + 1
+    }
+
+    def size : Int = bytes.size()
+
+    def writeTo(out : OutputStream) : Unit = bytes.writeTo(out)
+  }
+
+  private def writeVarint(out : OutputStream, value : Int) : Unit = {
+    var v = value
+    while ((v & ~0x7f) != 0) {
+      out.write((v & 0x7f) | 0x80)
+      v = v >>> 7
+    }
+    out.write(v)
+  }
+
+  private def readVarint(in : ByteBuffer) : Int = {
+    var value = 0
+    var shift = 0
+    var b = in.get()
+    while ((b & 0x80) != 0) {
+      value = value | ((b & 0x7f) << shift)
+      shift = shift + 7
+      b = in.get()
+    }
+    value | (b << shift)
+  }
+
+  private def writeAtomically(file : File)(write : OutputStream => Unit) : Unit = {
+    val tmpFile = new File(file.getPath() + ".tmp")
+    val out = new BufferedOutputStream(new FileOutputStream(tmpFile))
+    try {
+      write(out)
+    }
+    finally {
+      out.close()
+    }
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+  }
+}
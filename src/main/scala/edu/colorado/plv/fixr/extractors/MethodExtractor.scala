@@ -24,7 +24,12 @@ class MethodExtractor(options : ExtractorOptions) extends Extractor(options) {
     // Inject the graph extractor into Soot
     PackManager.v().getPack("jtp").add(new Transform("jtp.graphExtractor",
       transformer))
-    SootHelper.run(Array(options.className))
+    try {
+      SootHelper.run(Array(options.className))
+    }
+    finally {
+      transformer.finish()
+    }
   }
 
   def getTransformer : MethodsTransformer = transformer
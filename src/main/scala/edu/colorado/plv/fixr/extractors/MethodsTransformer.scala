@@ -4,7 +4,9 @@ import soot.SootClass
 import soot.SootMethod
 import soot.Body
 import edu.colorado.plv.fixr.SootHelper
-import edu.colorado.plv.fixr.graphs.UnitCdfgGraph
+import edu.colorado.plv.fixr.CancellationToken
+import edu.colorado.plv.fixr.ExtractionCancelledException
+import edu.colorado.plv.fixr.graphs.{BodyAnalysisCache, UnitCdfgGraph}
 import java.io.BufferedWriter
 import java.io.PrintWriter
 import java.io.OutputStreamWriter
@@ -32,22 +34,63 @@ import java.io.File
 import soot.BodyTransformer
 import soot.options.Options
 import soot.PhaseOptions
-import java.util.concurrent.Callable
-import java.util.concurrent.TimeUnit
-import java.util.concurrent.TimeoutException
-import java.util.concurrent.ExecutorService
-import java.util.concurrent.Executors
-import java.util.concurrent.Future
 
 import scala.collection.JavaConversions._
 import scala.collection.mutable.ListBuffer
 import edu.colorado.plv.fixr.simp.BodySimplifier
-import soot.toolkits.graph.ExceptionalUnitGraph
 
 class MethodsTransformer(options : ExtractorOptions) extends BodyTransformer {
   val acdfgListBuffer : ListBuffer[Acdfg] = ListBuffer[Acdfg]()
   val logger : Logger = LoggerFactory.getLogger(this.getClass())
 
+  /* Workers completing the extraction of the methods, null when the
+   * extraction is sequential.
+   *
+   * The provenance output prints the Soot bodies and graphs, so it
+   * forces the sequential extraction. */
+  private val extractionPool : ExtractionPool =
+    if (options.workers > 1 && null == options.provenanceDir) {
+      new ExtractionPool(options.workers)
+    }
+    else {
+      if (options.workers > 1) {
+        logger.warn("Provenance output enabled, ignoring the number of workers")
+      }
+      null
+    }
+
+  /* Manifest of the incremental extraction, null if the extraction is not
+   * incremental */
+  var manifest : ExtractionManifest = null
+
+  /* Output of the graphs, null when the output is disabled */
+  private val sink : AcdfgSink =
+    if (null != options.outputDir) AcdfgSink(options) else null
+
+  /* Fingerprints of the graphs already written, null if the duplicate
+   * graphs are written */
+  private val fingerprints : FingerprintIndex =
+    if (options.dedup && null != options.outputDir) {
+      new FingerprintIndex(
+        if (null != options.fingerprintIndex) new File(options.fingerprintIndex)
+        else new File(options.outputDir, FingerprintIndex.INDEX_FILE))
+    }
+    else null
+
+  /* Names of the graphs sent to the extraction workers. The overloads of a
+   * method share the graph name: the first one reserves the name on the
+   * Soot thread and the others are skipped, as in the sequential
+   * extraction, even if its graph is not written yet */
+  private val reservedNames = scala.collection.mutable.HashSet[String]()
+
+  /* Names of the graphs written by the extraction or already in the
+   * output directory */
+  private val graphNames = scala.collection.mutable.LinkedHashSet[String]()
+
+  /* Metrics of the stages of the extraction, null if disabled */
+  private val metrics : ExtractionMetrics =
+    if (null != options.metricsReport) new ExtractionMetrics() else null
+
   override protected def internalTransform(body : Body,
     phase : String,
     transformOpt : java.util.Map[String,String] ) : Unit = {
@@ -76,48 +119,42 @@ class MethodsTransformer(options : ExtractorOptions) extends BodyTransformer {
         (null == options.methodName && null == options.className && (null != options.processDir))
       )) {
 
-      try {
+      /* The budget is enforced cooperatively: the watchdog cancels the
+       * token and the extraction stops at the next check */
+      val token : CancellationToken =
         if (options.to > 0) {
-          val executor : ExecutorService = Executors.newSingleThreadExecutor()
-          var future : Future[Unit] = null
-
-
-          try {
-            future = executor.submit(new TimeOutExecutor(this, sootClass, method))
-            logger.info("Started thread...")
-            System.out.println(future.get(options.to, TimeUnit.SECONDS))
-            logger.info("Finished thread...")
-          } catch {
-            case e : TimeoutException => {
-              logger.info("Thread timed out.")
-            }
-            case e : Exception => {
-              logger.error("Error processing class {}, method {}{}",
-                sootClass.getName(), method.getName(), "");
-              logger.error("Exception {}:", e)
-            }
-          } finally {
-            future.cancel(true)
-            executor.shutdownNow()
-          }
-        }
-        else {
-          // No timeout
-          extractMethod(sootClass, method)
+          ExtractionWatchdog.v().start(className + "." + method.getName(),
+            options.to)
         }
+        else null
+      val previousToken = CancellationToken.enter(token)
+
+      try {
+        extractMethod(sootClass, method)
       }
       catch {
+        case e : ExtractionCancelledException => {
+          logger.info("Extraction timed out for class {}, method {}{}",
+            sootClass.getName(), method.getName(), "")
+          setFailed(className)
+        }
         case e : Exception => {
           logger.error("Error processing class {}, method {}{}",
             sootClass.getName(), method.getName(), "");
           logger.error("Exception {}:", e)
+          setFailed(className)
         }
         case e : StackOverflowError => {
           logger.error("StackOverflowError processing class {}, method {}{}",
             sootClass.getName(), method.getName(), "");
           logger.error("Exception {}:", e)
+          setFailed(className)
         }
       }
+      finally {
+        CancellationToken.enter(previousToken)
+        if (null != token && ! token.isHandedOff()) token.release()
+      }
     }
     else {
       if (! method.isConcrete()) {
@@ -146,15 +183,41 @@ class MethodsTransformer(options : ExtractorOptions) extends BodyTransformer {
     assert(sootMethod.isConcrete());
 
     val name : String = sootClass.getName() + "_" + sootMethod.getName()
-    val outputFile : File= getAcdfgOutName(options.outputDir, name)
-    if (outputFile.exists()) {
+    if (null != sink && (sink.contains(name) || ! reserveName(name))) {
       // Do not overwrite a graph
-      logger.info("File {} already exists, skipping it...", outputFile)
+      logger.info("Graph {} already exists, skipping it...", name)
+      addGraphName(name)
+      if (null != manifest) {
+        manifest.addGraph(sootClass.getName(),
+          FileAcdfgSink.getFile(options.outputDir, name).getName())
+      }
       return;
     }
 
+    /* the name stays reserved only if the graph is completed by a worker */
+    var submitted = false
+    try {
+      submitted = extractBody(sootClass, sootMethod, name)
+    }
+    finally {
+      if (null != sink && ! submitted) releaseName(name)
+    }
+  }
+
+  /**
+    * Extracts the graph name of sootMethod.
+    *
+    * @return true if the completion of the graph was sent to the workers
+    */
+  private def extractBody(sootClass : SootClass, sootMethod : SootMethod,
+    name : String) : Boolean = {
     val body: Body = sootMethod.retrieveActiveBody()
 
+    val methodMetrics : ExtractionMetrics#MethodMetrics =
+      if (null != metrics) metrics.start(sootClass.getName(), sootMethod.getName())
+      else null
+    if (null != methodMetrics) methodMetrics.units = body.getUnits().size()
+
     var sc: SlicingCriterion = null
     if (null == options.sliceFilter)
       sc = MethodPackageSeed.createAndroidSeed()
@@ -162,9 +225,12 @@ class MethodsTransformer(options : ExtractorOptions) extends BodyTransformer {
       sc = new MethodPackageSeed(options.sliceFilter)
 
     logger.info("Jimple slicing...")
-    val jimpleSlicer = new JimpleSlicer(body, sc)
-    val isEmpty = jimpleSlicer.sliceJimple()
+    val isEmpty = timed(methodMetrics, ExtractionStage.JIMPLE_SLICE) {
+      val jimpleSlicer = new JimpleSlicer(body, sc)
+      jimpleSlicer.sliceJimple()
+    }
     logger.info("Jimple slicing end...")
+    CancellationToken.check()
 
     if (isEmpty) {
       logger.warn("(Jimple) Empty slice for - class {} - method: {}\nFilter: {}\n\n",
@@ -172,10 +238,14 @@ class MethodsTransformer(options : ExtractorOptions) extends BodyTransformer {
     }
 
     logger.info("Creating the enhanced unit graph...")
-    val jimpleUnitGraph: EnhancedUnitGraph = new EnhancedUnitGraph(body)
+    val jimpleUnitGraph: EnhancedUnitGraph =
+      timed(methodMetrics, ExtractionStage.UNIT_GRAPH) { new EnhancedUnitGraph(body) }
     logger.info("Enhanched unit graph created... (size = " + jimpleUnitGraph.size() + ")" );
 
-    val sliceResult : Option[(APISlicer, Body)] = sliceBody(sc, jimpleUnitGraph, body)
+    CancellationToken.check()
+    val sliceResult : Option[(APISlicer, Body)] =
+      timed(methodMetrics, ExtractionStage.API_SLICE) { sliceBody(sc, jimpleUnitGraph, body) }
+    CancellationToken.check()
 
     val bodyToUse =
       sliceResult match {
@@ -186,16 +256,28 @@ class MethodsTransformer(options : ExtractorOptions) extends BodyTransformer {
     if (null == bodyToUse) {
       logger.warn("Empty slice for - class {} - method: {}\nFilter: {}\n\n",
         sootClass.getName(), sootMethod.getName(), sc.getCriterionDescription())
+      if (null != methodMetrics) methodMetrics.status = ExtractionMetrics.EMPTY
+      false
     } else {
+      if (null != methodMetrics) methodMetrics.slicedUnits = bodyToUse.getUnits().size()
       logger.debug("CDFG construction...")
-      val simp : BodySimplifier =
-        if (null != options.sliceFilter) {
-          new BodySimplifier(new ExceptionalUnitGraph(bodyToUse), options.sliceFilter)
-        } else {
-          new BodySimplifier(new ExceptionalUnitGraph(bodyToUse), List("android."))
-        }
-      val cdfg: UnitCdfgGraph = new UnitCdfgGraph(simp.getSimplifiedBody())
+      /* the simplifier and the CDFG share the analyses of the sliced body */
+      val analyses = new BodyAnalysisCache(bodyToUse)
+      val simplifiedBody = timed(methodMetrics, ExtractionStage.SIMPLIFY) {
+        val simp : BodySimplifier =
+          if (null != options.sliceFilter) {
+            new BodySimplifier(analyses, options.sliceFilter)
+          } else {
+            new BodySimplifier(analyses, List("android."))
+          }
+        simp.getSimplifiedBody()
+      }
+      CancellationToken.check()
+      val cdfg: UnitCdfgGraph = timed(methodMetrics, ExtractionStage.CDFG) {
+        new UnitCdfgGraph(simplifiedBody, analyses)
+      }
       logger.debug("CDFG built...")
+      CancellationToken.check()
 
       val sourceInfo : SourceInfo = SourceInfo(sootClass.getPackageName(),
         sootClass.getName(),
@@ -209,44 +291,210 @@ class MethodsTransformer(options : ExtractorOptions) extends BodyTransformer {
         options.repoName, options.url, options.commitHash)
 
       logger.debug("ACDFG construction...")
-      val acdfg : Acdfg =
-        if (options.provenanceDir != null) {
-          val filePrefix : String = name
-          val provFileName : String = filePrefix + ".html"
-          new Acdfg(cdfg, gitHubRecord, sourceInfo, provFileName)
+      val provFileName : String =
+        if (options.provenanceDir != null) name + ".html" else ""
+      val pending : Acdfg.PendingAcdfg = timed(methodMetrics, ExtractionStage.ACDFG) {
+        Acdfg.prepare(cdfg, gitHubRecord, sourceInfo, provFileName)
+      }
+
+      if (options.storeAcdfg) acdfgListBuffer += pending.acdfg;
+
+      val slicedData : (Option[Body], Option[UnitGraph]) = sliceResult match {
+        case None => (None, None)
+        case Some((slicer, slicedJimple)) =>
+          (Some(slicedJimple), Some(slicer.getCfg()))
+      }
+      val token : CancellationToken = CancellationToken.current()
+      val completion = new CompleteExtraction(sootClass.getName(),
+        sootMethod.getName(), name, pending, cdfg, body,
+        slicedData._1, slicedData._2, token, methodMetrics)
+
+      if (null != extractionPool) {
+        /* the worker is now responsible for the time budget, which does
+         * not run while the completion waits for a worker */
+        if (null != token) {
+          token.handOff()
+          ExtractionWatchdog.v().pause(token)
         }
-        else {
-          new Acdfg(cdfg, gitHubRecord, sourceInfo, "")
+        extractionPool.submit(completion)
+        true
+      }
+      else {
+        completion.run()
+        false
+      }
+    }
+  }
+
+  /**
+    * Wait for the completion of all the methods sent to the extraction
+    * workers.
+    *
+    * Must be called after Soot terminates and before accessing the
+    * extracted graphs.
+    */
+  def finish() : Unit = {
+    try {
+      if (null != extractionPool) extractionPool.shutdown()
+    }
+    finally {
+      try {
+        if (null != sink) sink.close()
+      }
+      finally {
+        if (null != metrics) {
+          metrics.writeReport(new File(options.metricsReport))
+          metrics.logSummary()
         }
-      logger.debug("ACDFG built...")
+      }
+    }
+  }
+
+  /**
+    * Names of the graphs of the extracted methods: the graphs written by
+    * the extraction, the graphs that were already in the output directory
+    * and the graphs with the same fingerprint.
+    */
+  def graphs : List[String] = graphNames.synchronized {
+    graphNames.toList
+  }
 
-      if (options.storeAcdfg) acdfgListBuffer += acdfg;
+  /**
+    * Removes the fingerprints of the graphs deleted from the output
+    * directory, given the names of their files.
+    */
+  def removeFingerprints(graphFiles : Set[String]) : Unit =
+    if (null != fingerprints && graphFiles.nonEmpty) {
+      fingerprints.remove(graphFiles.map(_.stripSuffix(FileAcdfgSink.EXT)))
+    }
 
-      if (null != options.outputDir) {
-        logger.info("Writing data for - class {} - method: {}{}",
-          sootClass.getName(), sootMethod.getName(), "")
+  /* Runs op, measuring it as the stage if the metrics are enabled */
+  private def timed[T](methodMetrics : ExtractionMetrics#MethodMetrics,
+    stage : ExtractionStage.Value)(op : => T) : T =
+    if (null == methodMetrics) op else methodMetrics.time(stage)(op)
 
-        sliceResult match {
-          case None => {
-            writeData(name, acdfg, cdfg, body, None, None);
-            logger.info("Created graph for - class {} - method: {}{}",
-              sootClass.getName(), sootMethod.getName(), "")
-          }
-          case Some((slicer, slicedJimple)) => {
-            writeData(name, acdfg, cdfg, body, Some(slicedJimple),
-              Some(slicer.getCfg()));
-            logger.info("Created graph for - class {} - method: {}{}",
-              sootClass.getName(), sootMethod.getName(), "")
+  /**
+    * Completes the construction of the ACDFG of a method and writes it.
+    *
+    * The task does not access Soot data structures when provenance
+    * information is not required.
+    */
+  private class CompleteExtraction(className : String,
+    methodName : String,
+    name : String,
+    pending : Acdfg.PendingAcdfg,
+    cdfg : UnitCdfgGraph,
+    body : Body,
+    slicedBodyOption : Option[Body],
+    slicedCfgOption : Option[UnitGraph],
+    token : CancellationToken,
+    methodMetrics : ExtractionMetrics#MethodMetrics) extends Runnable {
+
+    override def run() : Unit = {
+      if (null != token) ExtractionWatchdog.v().resume(token)
+      val previousToken = CancellationToken.enter(token)
+      try {
+        val acdfg : Acdfg = timed(methodMetrics, ExtractionStage.CLOSURE) {
+          val completed = pending.complete()
+          if (options.compactIds) completed.compactIds()
+          completed
+        }
+        logger.debug("ACDFG built...")
+        if (null != methodMetrics) {
+          methodMetrics.nodes = acdfg.nodes.size
+          methodMetrics.edges = acdfg.edges.size
+        }
+
+        /* the fingerprint is reserved until the graph is written */
+        val duplicateOf : Option[String] =
+          if (null == fingerprints) None
+          else fingerprints.reserve(acdfg.fingerprint, name).filter(_ != name)
+
+        if (duplicateOf.isDefined) {
+          logger.info("Skipping the graph {}, duplicate of {}{}",
+            name, duplicateOf.get, "")
+          if (null != methodMetrics) methodMetrics.status = ExtractionMetrics.DUPLICATE
+          addGraphName(duplicateOf.get)
+          if (null != manifest) {
+            manifest.addDuplicate(className,
+              FileAcdfgSink.getFile(options.outputDir, duplicateOf.get).getName())
           }
         }
+        else if (null != options.outputDir) {
+          logger.info("Writing data for - class {} - method: {}{}",
+            className, methodName, "")
+          var written = false
+          val graphFile =
+            try {
+              val file = timed(methodMetrics, ExtractionStage.WRITE) {
+                writeData(className, methodName, name, acdfg, cdfg,
+                  body, slicedBodyOption, slicedCfgOption)
+              }
+              written = true
+              file
+            }
+            finally {
+              if (null != fingerprints) {
+                if (written) fingerprints.commit(acdfg.fingerprint, name)
+                else fingerprints.release(acdfg.fingerprint, name)
+              }
+            }
+          addGraphName(name)
+          if (null != manifest) manifest.addGraph(className, graphFile)
+          if (null != methodMetrics) methodMetrics.status = ExtractionMetrics.OK
+          logger.info("Created graph for - class {} - method: {}{}",
+            className, methodName, "")
+        }
+        else {
+          logger.warn("Disabled data writing for - class {} - method: {}{}",
+            className, methodName, "")
+          if (null != methodMetrics) methodMetrics.status = ExtractionMetrics.OK
+        }
       }
-      else {
-        logger.warn("Disabled data writing for - class {} - method: {}{}",
-          sootClass.getName(), sootMethod.getName(), "")
+      catch {
+        case e : ExtractionCancelledException => {
+          logger.info("Extraction timed out for class {}, method {}{}",
+            className, methodName, "")
+          setFailed(className)
+        }
+        case e : StackOverflowError => {
+          logger.error("StackOverflowError processing class {}, method {}{}",
+            className, methodName, "")
+          logger.error("Exception {}:", e)
+          setFailed(className)
+        }
+        case e : Exception => {
+          logger.error("Exception thrown while processing class {}, method {}{}",
+            className, methodName, "")
+          logger.error("Exception {}:", e)
+          setFailed(className)
+        }
+      }
+      finally {
+        CancellationToken.enter(previousToken)
+        if (null != token && token.isHandedOff()) token.release()
       }
     }
   }
 
+  /* Reserves the graph name, false if another method reserved it */
+  private def reserveName(name : String) : Boolean = reservedNames.synchronized {
+    reservedNames.add(name)
+  }
+
+  private def releaseName(name : String) : Unit = reservedNames.synchronized {
+    reservedNames.remove(name)
+  }
+
+  private def addGraphName(name : String) : Unit = graphNames.synchronized {
+    graphNames += name
+  }
+
+  /* The class is extracted again in the next incremental extraction */
+  private def setFailed(className : String) : Unit = {
+    if (null != manifest) manifest.setFailed(className)
+  }
+
   protected def writeJimple(body : Body, fileName : String) : Unit = {
     val streamOut : OutputStream = new FileOutputStream(fileName);
     val writerOut : PrintWriter = new PrintWriter(new OutputStreamWriter(streamOut));
@@ -255,48 +503,31 @@ class MethodsTransformer(options : ExtractorOptions) extends BodyTransformer {
     streamOut.close();
   }
 
-  private def getAcdfgOutName(outputDir : String, outFileNamePrefix : String) : File = {
-    val acdfgFileName : String = Paths.get(outputDir,
-      outFileNamePrefix + ".acdfg.bin").toString();
-    val outputFile : File = new File(acdfgFileName)
-    return outputFile
-  }
-
   /**
     * Write the data to the output folder
+    *
+    * @return the name of the file that contains the ACDFG
     */
-  private def writeData(outFileNamePrefix : String,
+  private def writeData(className : String,
+    methodName : String,
+    outFileNamePrefix : String,
     acdfg : Acdfg,
     cdfg : UnitCdfgGraph,
     body : Body,
     slicedBodyOption : Option[Body],
-    slicedCfgOption : Option[UnitGraph]) : Unit = {
-    val currentDir = System.getProperty("user.dir")
-    val outputDir = if (null == options.outputDir) currentDir else options.outputDir
-
-    logger.debug("Writing ACDFG data to: {}", outputDir)
+    slicedCfgOption : Option[UnitGraph]) : String = {
+    logger.debug("Writing ACDFG data to: {}", options.outputDir)
 
     // Write the acdfg
-    val outputFile : File= getAcdfgOutName(outputDir, outFileNamePrefix)
-    val outputDirPath = new File(outputDir)
-    try {
-      if (! outputDirPath.exists()) {
-        val created = outputDirPath.mkdirs()
-        if (! created) {
-          throw new Exception("Error creating " + outputDir)
-        }
+    val graphFile : String =
+      try {
+        sink.write(className, methodName, outFileNamePrefix, acdfg)
+      }
+      catch {
+        case ex: Exception =>
+          logger.error("Unable to write the ACDFG in the output directory")
+          throw ex
       }
-    }
-    catch {
-      case ex: Exception =>
-        logger.error("Unable to create required new output directory")
-        throw ex
-    }
-    val output : FileOutputStream = new FileOutputStream(outputFile)
-    val protobuf = acdfg.toProtobuf
-    protobuf.writeTo(output)
-
-    output.close()
 
     // Write the povenance information
     if (options.provenanceDir != null) {
@@ -360,33 +591,7 @@ class MethodsTransformer(options : ExtractorOptions) extends BodyTransformer {
           logger.error("Unable to write to " + filePrefix + ".html")
       }
     }
-  }
-
-
 
-  private class TimeOutExecutor(transformer : MethodsTransformer,
-    sootClass : SootClass, sootMethod : SootMethod)
-      extends Callable[Unit] {
-
-    @throws(classOf[Exception])
-    override def call() : Unit = {
-      try {
-        transformer.extractMethod(sootClass, sootMethod);
-      }
-      catch {
-        case e : StackOverflowError => {
-          logger.error("StackOverflowError processing class {}, method {}{}",
-            sootClass.getName(), sootMethod.getName(), "")
-          logger.error("Exception {}:", e)
-        }
-        case e : Exception => {
-          logger.error("Exception thrown while processing class {}, method {}{}",
-            sootClass.getName(), sootMethod.getName(), "")
-          logger.error("Exception {}:", e)
-        }
-      }
-
-      return;
-    }
+    graphFile
   }
 }
@@ -35,7 +35,69 @@ class MultipleExtractor(options : ExtractorOptions) extends Extractor(options) {
     }
     val args : Array[String] =
       if (options.className != null) Array(options.className) else Array[String]();
-    SootHelper.run(args)
+
+    val (manifest, skipClasses) = loadManifest()
+    transformer.manifest = manifest
+    /* the duplicates of the deleted graphs must be written again */
+    if (null != manifest) transformer.removeFingerprints(manifest.deletedGraphs)
+
+    try {
+      SootHelper.run(args, skipClasses ++ classesOutsideShard())
+    }
+    finally {
+      transformer.finish()
+    }
+
+    if (null != manifest) manifest.save()
+  }
+
+  /* Returns the manifest of the previous extraction (null if the
+   * extraction is not incremental) and the classes that did not change
+   * since then. */
+  private def loadManifest() : (ExtractionManifest, Set[String]) = {
+    if (! options.incremental) (null, Set[String]())
+    else if (AcdfgSink.FILES != options.outputFormat) {
+      logger.warn("Incremental extraction requires the files output format")
+      (null, Set[String]())
+    }
+    else if (null == options.processDir || null == options.outputDir) {
+      logger.warn("Incremental extraction requires the process and output directories")
+      (null, Set[String]())
+    }
+    else {
+      ExtractionManifest.hashClasses(options.processDir) match {
+        case None =>
+          logger.warn("Incremental extraction only supports directories and " +
+            "jar files as input, extracting all the classes")
+          (null, Set[String]())
+        case Some(classHashes) =>
+          val manifest = ExtractionManifest.load(options.outputDir,
+            ExtractionManifest.optionsKey(options))
+          val unchanged = manifest.update(classHashes)
+          logger.info("Skipping {} unchanged classes out of {}{}",
+            unchanged.size.toString, classHashes.size.toString, "")
+          (manifest, unchanged)
+      }
+    }
+  }
+
+  /* Returns the classes in processDir that are not in the shard of this
+   * process */
+  private def classesOutsideShard() : Set[String] = {
+    if (null == options.shardClasses || null == options.processDir) Set[String]()
+    else {
+      ExtractionManifest.listClasses(options.processDir) match {
+        case None =>
+          logger.warn("Shards are only supported for directories and jar " +
+            "files as input, extracting all the classes")
+          Set[String]()
+        case Some(classes) =>
+          val outside = classes.toSet -- options.shardClasses
+          logger.info("Extracting {} classes of the shard out of {}{}",
+            (classes.size - outside.size).toString, classes.size.toString, "")
+          outside
+      }
+    }
   }
 
   def getTransformer : MethodsTransformer = transformer
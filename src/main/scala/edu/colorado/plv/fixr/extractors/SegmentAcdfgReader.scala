@@ -0,0 +1,151 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.io.Closeable
+import java.io.File
+import java.io.FileInputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+import com.google.protobuf.CodedInputStream
+
+import edu.colorado.plv.fixr.abstraction.AcdfgView
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+/**
+  * Random access to the graphs of a segment written by SegmentAcdfgSink.
+  *
+  * The segment is mapped in memory and its index is loaded when the
+  * reader is created; a graph is parsed only when it is requested, so
+  * loading a graph does not read the rest of the segment.
+  *
+  * The graphs of a segment with a dictionary are decoded when they are
+  * parsed. The views of the graphs read only their metadata and bag of
+  * methods, so scanning a segment does not parse the nodes and edges.
+  *
+  * The reader can be used by several threads.
+  */
+class SegmentAcdfgReader(segmentFile : File) extends Closeable {
+  private val entries = {
+    val map = scala.collection.mutable.LinkedHashMap[String, SegmentAcdfgSink.IndexEntry]()
+    for (entry <- SegmentAcdfgSink.readIndex(SegmentAcdfgSink.indexFile(segmentFile))) {
+      map += ((entry.name, entry))
+    }
+    map
+  }
+
+  /* strings of the dictionary, null if the segment has no dictionary */
+  private val dictionary : Array[String] = {
+    val file = SegmentAcdfgSink.dictionaryFile(segmentFile)
+    if (file.exists()) AcdfgDictionary.read(file) else null
+  }
+
+  private val channel = new RandomAccessFile(segmentFile, "r").getChannel()
+  private val buffer : ByteBuffer = {
+    if (channel.size() > Int.MaxValue) {
+      channel.close()
+      throw new Exception("Segment " + segmentFile + " is too large to be mapped")
+    }
+    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+  }
+
+  /** Name of the segment file */
+  def segmentName : String = segmentFile.getName()
+
+  /** Names of the graphs in the segment, in the order they were written */
+  def names : Iterable[String] = entries.keys
+
+  def contains(name : String) : Boolean = entries.contains(name)
+
+  /** Parses the graph name */
+  def get(name : String) : Option[ProtoAcdfg.Acdfg] =
+    entries.get(name).map(parse)
+
+  /** Lazy iterator over the graphs of the segment */
+  def iterator : Iterator[(String, ProtoAcdfg.Acdfg)] =
+    entries.valuesIterator.map(entry => (entry.name, parse(entry)))
+
+  /** View of the graph name, that reads only its header (see AcdfgView) */
+  def view(name : String) : Option[AcdfgView] =
+    entries.get(name).map(entry => AcdfgView(slice(entry), decode))
+
+  /** Lazy iterator over the views of the graphs of the segment */
+  def views : Iterator[(String, AcdfgView)] =
+    entries.valuesIterator.map(entry => (entry.name, AcdfgView(slice(entry), decode)))
+
+  /**
+    * Closes the segment.
+    *
+    * The memory of the mapping is released when the graphs read from the
+    * segment are garbage collected.
+    */
+  override def close() : Unit = channel.close()
+
+  private def parse(entry : SegmentAcdfgSink.IndexEntry) : ProtoAcdfg.Acdfg = {
+    val input = CodedInputStream.newInstance(slice(entry))
+    input.setSizeLimit(Int.MaxValue)
+    decode(ProtoAcdfg.Acdfg.parseFrom(input))
+  }
+
+  /* bytes of the graph in the mapping */
+  private def slice(entry : SegmentAcdfgSink.IndexEntry) : ByteBuffer = {
+    /* each thread reads from its own view of the mapping */
+    val view = buffer.duplicate()
+    view.position(entry.offset.toInt)
+    view.limit(entry.offset.toInt + entry.size)
+    view.slice()
+  }
+
+  private def decode(acdfg : ProtoAcdfg.Acdfg) : ProtoAcdfg.Acdfg =
+    if (null == dictionary) acdfg else AcdfgDictionary.decode(acdfg, dictionary)
+}
+
+object SegmentAcdfgReader {
+  /* separates the segment and the graph name in a graph reference */
+  val SEPARATOR = "#"
+
+  /**
+    * Loads a graph from a reference to a .acdfg.bin file or to a graph in
+    * a segment (segment_file#graph_name).
+    */
+  def loadGraph(reference : String) : ProtoAcdfg.Acdfg = {
+    splitReference(reference) match {
+      case Some((segment, name)) => {
+        val reader = new SegmentAcdfgReader(new File(segment))
+        try {
+          reader.get(name) match {
+            case Some(graph) => graph
+            case None => throw new Exception("Graph " + name + " not found in the segment")
+          }
+        }
+        finally {
+          reader.close()
+        }
+      }
+      case None => {
+        val input = new FileInputStream(reference)
+        try ProtoAcdfg.Acdfg.parseFrom(input) finally input.close()
+      }
+    }
+  }
+
+  /**
+    * Splits a reference to a graph in a segment in the path of the
+    * segment and the name of the graph.
+    *
+    * @return None if the reference is a .acdfg.bin file
+    */
+  def splitReference(reference : String) : Option[(String, String)] = {
+    val separator = reference.lastIndexOf(SEPARATOR)
+    if (separator > 0 && reference.substring(0, separator).endsWith(SegmentAcdfgSink.SEGMENT_EXT)) {
+      Some((reference.substring(0, separator), reference.substring(separator + 1)))
+    }
+    else None
+  }
+
+  /** Opens all the complete segments in outputDir */
+  def openAll(outputDir : String) : List[SegmentAcdfgReader] =
+    SegmentAcdfgSink.listIndexes(outputDir).map { indexFile =>
+      new SegmentAcdfgReader(SegmentAcdfgSink.segmentOfIndex(indexFile))
+    }
+}
@@ -0,0 +1,241 @@
+package edu.colorado.plv.fixr.extractors
+
+import java.io.BufferedOutputStream
+import java.io.BufferedReader
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.InputStreamReader
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.PrintWriter
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import edu.colorado.plv.fixr.abstraction.Acdfg
+import edu.colorado.plv.fixr.abstraction.StringPool
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+/**
+  * Appends the graphs to few large segment files.
+  *
+  * A segment (graphs_N.acdfg.seg) is a sequence of length delimited
+  * ProtoAcdfg.Acdfg records (as written by writeDelimitedTo). When a
+  * segment reaches maxSegmentSize bytes the sink starts a new one. The
+  * graphs are appended in the order they are written, i.e. the order in
+  * which the extraction workers complete them.
+  *
+  * The index of a segment (graphs_N.acdfg.idx) is written when the
+  * segment is closed, and a segment without index is incomplete. Each
+  * line of the index is a tab separated record with the name, class
+  * and method of the graph, and the offset and the size of its protobuf
+  * message (after the length prefix) in the segment.
+  *
+  * The segment numbers are reserved creating the segment file, so
+  * several sinks (e.g. the processes of a sharded extraction) can
+  * write in the same directory.
+  *
+  * With useDictionary the method names and the types are replaced by
+  * ids (see AcdfgDictionary), and the dictionary of the segment
+  * (graphs_N.acdfg.dict) is written before its index.
+  */
+class SegmentAcdfgSink(outputDir : String, maxSegmentSize : Long,
+  useDictionary : Boolean) extends AcdfgSink {
+  val logger : Logger = LoggerFactory.getLogger(this.getClass())
+
+  /* graphs in the output directory */
+  private val names = scala.collection.mutable.HashSet[String]()
+
+  private var segmentFile : File = null
+  private var segmentOut : OutputStream = null
+  private var segmentSize : Long = 0
+  private var segmentIndex = scala.collection.mutable.ListBuffer[SegmentAcdfgSink.IndexEntry]()
+  private var nextSegment = 0
+
+  /* strings of the graphs written by this sink, shared by its segments */
+  private val dictionary : StringPool = if (useDictionary) new StringPool() else null
+
+  def this(outputDir : String, maxSegmentSize : Long) =
+    this(outputDir, maxSegmentSize, false)
+
+  for (indexFile <- SegmentAcdfgSink.listIndexes(outputDir)) {
+    SegmentAcdfgSink.readIndex(indexFile).foreach(names += _.name)
+  }
+
+  override def contains(name : String) : Boolean = synchronized {
+    names.contains(name)
+  }
+
+  override def write(className : String, methodName : String, name : String,
+    acdfg : ProtoAcdfg.Acdfg) : String = {
+    /* serialize outside the lock */
+    val bytes =
+      if (null == dictionary) acdfg.toByteArray()
+      else AcdfgDictionary.encode(acdfg, dictionary).toByteArray()
+    append(className, methodName, name, bytes)
+  }
+
+  override def write(className : String, methodName : String, name : String,
+    acdfg : Acdfg) : String = {
+    /* the dictionary encodes the protobuf message */
+    if (null != dictionary) write(className, methodName, name, acdfg.toProtobuf)
+    else append(className, methodName, name, acdfg.toByteArray)
+  }
+
+  override def close() : Unit = synchronized {
+    closeSegment()
+  }
+
+  private def append(className : String, methodName : String, name : String,
+    bytes : Array[Byte]) : String = synchronized {
+    if (null == segmentOut || segmentSize >= maxSegmentSize) openSegment()
+
+    val prefixSize = SegmentAcdfgSink.writeVarint(segmentOut, bytes.length)
+    segmentOut.write(bytes)
+
+    val offset = segmentSize + prefixSize
+    segmentSize = offset + bytes.length
+    segmentIndex += SegmentAcdfgSink.IndexEntry(name, className, methodName,
+      segmentFile.getName(), offset, bytes.length)
+    names += name
+
+    segmentFile.getName()
+  }
+
+  private def openSegment() : Unit = {
+    closeSegment()
+
+    val dir = new File(outputDir)
+    if (! dir.exists() && ! dir.mkdirs() && ! dir.isDirectory()) {
+      throw new Exception("Error creating " + outputDir)
+    }
+
+    /* reserve the first free segment number */
+    var file = SegmentAcdfgSink.segmentFile(outputDir, nextSegment)
+    while (! file.createNewFile()) {
+      nextSegment = nextSegment + 1
+      file = SegmentAcdfgSink.segmentFile(outputDir, nextSegment)
+    }
+    nextSegment = nextSegment + 1
+
+    logger.debug("Writing the graphs in the segment {}", file)
+    segmentFile = file
+    segmentOut = new BufferedOutputStream(new FileOutputStream(file),
+      SegmentAcdfgSink.BUFFER_SIZE)
+    segmentSize = 0
+  }
+
+  private def closeSegment() : Unit = {
+    if (null != segmentOut) {
+      segmentOut.close()
+      if (null != dictionary) {
+        AcdfgDictionary.write(SegmentAcdfgSink.dictionaryFile(segmentFile),
+          dictionary.toArray)
+      }
+      SegmentAcdfgSink.writeIndex(SegmentAcdfgSink.indexFile(segmentFile),
+        segmentIndex.toList)
+
+      segmentFile = null
+      segmentOut = null
+      segmentIndex = scala.collection.mutable.ListBuffer[SegmentAcdfgSink.IndexEntry]()
+    }
+  }
+}
+
+object SegmentAcdfgSink {
+  val SEGMENT_EXT = ".acdfg.seg"
+  val INDEX_EXT = ".acdfg.idx"
+  val MAX_SEGMENT_SIZE : Long = 256L * 1024 * 1024
+  private val SEGMENT_PREFIX = "graphs_"
+  private val BUFFER_SIZE = 1 << 16
+
+  /** Position of a graph in a segment */
+  case class IndexEntry(name : String, className : String, methodName : String,
+    segment : String, offset : Long, size : Int)
+
+  def segmentFile(outputDir : String, number : Int) : File =
+    new File(outputDir, SEGMENT_PREFIX + "%05d".format(number) + SEGMENT_EXT)
+
+  /** Index of the segment file */
+  def indexFile(segmentFile : File) : File = {
+    val name = segmentFile.getName()
+    new File(segmentFile.getParentFile(),
+      name.substring(0, name.length - SEGMENT_EXT.length) + INDEX_EXT)
+  }
+
+  /** Dictionary of the segment file */
+  def dictionaryFile(segmentFile : File) : File = {
+    val name = segmentFile.getName()
+    new File(segmentFile.getParentFile(),
+      name.substring(0, name.length - SEGMENT_EXT.length) + AcdfgDictionary.EXT)
+  }
+
+  /** Segment file of the index */
+  def segmentOfIndex(indexFile : File) : File = {
+    val name = indexFile.getName()
+    new File(indexFile.getParentFile(),
+      name.substring(0, name.length - INDEX_EXT.length) + SEGMENT_EXT)
+  }
+
+  /** Index files (i.e. the complete segments) in outputDir */
+  def listIndexes(outputDir : String) : List[File] = {
+    val files = new File(outputDir).listFiles()
+    if (null == files) Nil
+    else files.filter(_.getName().endsWith(INDEX_EXT)).sortBy(_.getName()).toList
+  }
+
+  def readIndex(indexFile : File) : List[IndexEntry] = {
+    val segment = segmentOfIndex(indexFile).getName()
+    val reader = new BufferedReader(new InputStreamReader(
+      new FileInputStream(indexFile), "utf-8"))
+    try {
+      val entries = scala.collection.mutable.ListBuffer[IndexEntry]()
+      var line = reader.readLine()
+      while (null != line) {
+        val fields = line.split("\t")
+        if (fields.length == 5) {
+          entries += IndexEntry(fields(0), fields(1), fields(2), segment,
+            fields(3).toLong, fields(4).toInt)
+        }
+        line = reader.readLine()
+      }
+      entries.toList
+    }
+    finally {
+      reader.close()
+    }
+  }
+
+  private def writeIndex(indexFile : File, entries : List[IndexEntry]) : Unit = {
+    val tmpFile = new File(indexFile.getPath() + ".tmp")
+    val writer = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(tmpFile), "utf-8"))
+    try {
+      for (entry <- entries) {
+        writer.println(List(entry.name, entry.className, entry.methodName,
+          entry.offset.toString, entry.size.toString).mkString("\t"))
+      }
+    }
+    finally {
+      writer.close()
+    }
+    Files.move(tmpFile.toPath(), indexFile.toPath(),
+      StandardCopyOption.REPLACE_EXISTING)
+  }
+
+  /* Writes value as a protobuf varint and returns its size */
+  private def writeVarint(out : OutputStream, value : Int) : Int = {
+    var v = value
+    var size = 1
+    while ((v & ~0x7f) != 0) {
+      out.write((v & 0x7f) | 0x80)
+      v = v >>> 7
+      size = size + 1
+    }
+    out.write(v)
+    size
+  }
+}
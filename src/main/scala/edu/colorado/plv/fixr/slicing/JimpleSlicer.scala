@@ -5,6 +5,7 @@ import soot.PatchingChain
 import soot.{Unit => SootUnit}
 import edu.colorado.plv.fixr.slicing.SlicingCriterion
 import edu.colorado.plv.fixr.SootHelper
+import edu.colorado.plv.fixr.CancellationToken
 import org.slf4j.LoggerFactory
 import soot.PatchingChain
 import soot.ValueBox
@@ -27,6 +28,7 @@ class JimpleSlicer(body : Body, sc: SlicingCriterion) {
       unitsToRemove: List[SootUnit],
       isEmpty : Boolean): (List[SootUnit], Boolean) = {
       if (unitIter.hasNext()) {
+        CancellationToken.check()
         val unit: SootUnit = unitIter.next()
         val unit_is_seed = sc.is_seed(unit)
 
@@ -18,16 +18,21 @@ import edu.colorado.plv.fixr.abstraction
   * Created by cuplv on 8/4/16.
   */
 class Visualizer(
-    graph1Stream : FileInputStream,
-    graph2Stream : FileInputStream,
-    isoStream : FileInputStream
+    val protoGraph1 : Acdfg,
+    val protoGraph2 : Acdfg,
+    val protoIso : Iso
   ) extends CFGToDotGraph {
-    val protoGraph1 : Acdfg = ProtoAcdfg.Acdfg.parseFrom(graph1Stream)
-    val protoGraph2 : Acdfg = ProtoAcdfg.Acdfg.parseFrom(graph2Stream)
-    val protoIso : Iso = Iso.parseFrom(isoStream)
     val graph1 : abstraction.Acdfg = new abstraction.Acdfg(protoGraph1)
     val graph2 : abstraction.Acdfg = new abstraction.Acdfg(protoGraph2)
 
+  def this(
+    graph1Stream : FileInputStream,
+    graph2Stream : FileInputStream,
+    isoStream : FileInputStream
+  ) = this(ProtoAcdfg.Acdfg.parseFrom(graph1Stream),
+    ProtoAcdfg.Acdfg.parseFrom(graph2Stream),
+    Iso.parseFrom(isoStream))
+
   def drawEdge(e : (Long, Edge), canvas : DotGraph, graphNum : Int) = {
     //println("$$$ edge " + graphNum.toString + " id: " + e._2.id.toString)
     //println("$$$   edge " + graphNum.toString + " from: " + e._2.from.toString)
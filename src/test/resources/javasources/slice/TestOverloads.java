@@ -0,0 +1,43 @@
+package slice;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class TestOverloads {
+
+  /* the overloads share the graph name slice.TestOverloads_use */
+  public int use(int size) {
+    List<Integer> values = new ArrayList<Integer>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(i);
+    }
+    values.remove(0);
+    return values.size();
+  }
+
+  public int use(String name) {
+    BitSet set = new BitSet();
+    for (int i = 0; i < name.length(); i++) {
+      set.set(name.charAt(i));
+    }
+    set.clear(0);
+    return set.cardinality();
+  }
+
+  public int use(int size, String name) {
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < size; i++) {
+      names.add(name);
+    }
+    names.clear();
+    return names.size();
+  }
+
+  public int use(long size) {
+    BitSet set = new BitSet();
+    set.set(0, (int) size);
+    set.flip(1);
+    return set.length();
+  }
+}
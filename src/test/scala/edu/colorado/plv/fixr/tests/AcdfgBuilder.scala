@@ -0,0 +1,144 @@
+package edu.colorado.plv.fixr.tests
+
+import edu.colorado.plv.fixr.abstraction.Acdfg
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+/**
+  * Builds the protobuf of the ACDFGs used in the tests.
+  *
+  * The methods add the nodes and edges in the order they are called, e.g.
+  * AcdfgBuilder().varNode(1, "x", "int").methodNode(2, "m", invokee = 1).
+  * controlEdge(3, 2, 2).acdfg
+  */
+class AcdfgBuilder {
+  private val builder = ProtoAcdfg.Acdfg.newBuilder()
+
+  def varNode(id : Long, name : String, typeName : String) : AcdfgBuilder =
+    dataNode(id, name, typeName, ProtoAcdfg.Acdfg.DataNode.DataType.DATA_VAR)
+
+  def constNode(id : Long, name : String, typeName : String) : AcdfgBuilder =
+    dataNode(id, name, typeName, ProtoAcdfg.Acdfg.DataNode.DataType.DATA_CONST)
+
+  /* invokee and assignee are not set when negative */
+  def methodNode(id : Long, name : String, invokee : Long = -1,
+    assignee : Long = -1, arguments : List[Long] = Nil) : AcdfgBuilder = {
+    val node = ProtoAcdfg.Acdfg.MethodNode.newBuilder().setId(id).setName(name)
+    if (invokee >= 0) node.setInvokee(invokee)
+    if (assignee >= 0) node.setAssignee(assignee)
+    arguments.foreach(a => node.addArgument(a))
+    builder.addMethodNode(node)
+    this
+  }
+
+  def miscNode(id : Long) : AcdfgBuilder = {
+    builder.addMiscNode(ProtoAcdfg.Acdfg.MiscNode.newBuilder().setId(id))
+    this
+  }
+
+  def controlEdge(id : Long, from : Long, to : Long) : AcdfgBuilder = {
+    builder.addControlEdge(ProtoAcdfg.Acdfg.ControlEdge.newBuilder().
+      setId(id).setFrom(from).setTo(to))
+    this
+  }
+
+  def transEdge(id : Long, from : Long, to : Long) : AcdfgBuilder = {
+    builder.addTransEdge(ProtoAcdfg.Acdfg.TransEdge.newBuilder().
+      setId(id).setFrom(from).setTo(to))
+    this
+  }
+
+  def defEdge(id : Long, from : Long, to : Long) : AcdfgBuilder = {
+    builder.addDefEdge(ProtoAcdfg.Acdfg.DefEdge.newBuilder().
+      setId(id).setFrom(from).setTo(to))
+    this
+  }
+
+  def useEdge(id : Long, from : Long, to : Long) : AcdfgBuilder = {
+    builder.addUseEdge(ProtoAcdfg.Acdfg.UseEdge.newBuilder().
+      setId(id).setFrom(from).setTo(to))
+    this
+  }
+
+  def exceptionalEdge(id : Long, from : Long, to : Long,
+    exceptions : String*) : AcdfgBuilder = {
+    val edge = ProtoAcdfg.Acdfg.ExceptionalControlEdge.newBuilder().
+      setId(id).setFrom(from).setTo(to)
+    exceptions.foreach(e => edge.addExceptions(e))
+    builder.addExceptionalEdge(edge)
+    this
+  }
+
+  def labels(edgeId : Long, labels : ProtoAcdfg.Acdfg.EdgeLabel*) : AcdfgBuilder = {
+    val labelMap = ProtoAcdfg.Acdfg.LabelMap.newBuilder().setEdgeId(edgeId)
+    labels.foreach(l => labelMap.addLabels(l))
+    builder.addEdgeLabels(labelMap)
+    this
+  }
+
+  def line(id : Long, line : Int) : AcdfgBuilder = {
+    builder.addNodeLines(ProtoAcdfg.Acdfg.LineNum.newBuilder().setId(id).setLine(line))
+    this
+  }
+
+  def sourceInfo(packageName : String, className : String,
+    methodName : String) : AcdfgBuilder = {
+    val info = ProtoAcdfg.Acdfg.SourceInfo.newBuilder()
+    if (null != packageName) info.setPackageName(packageName)
+    if (null != className) info.setClassName(className)
+    if (null != methodName) info.setMethodName(methodName)
+    builder.setSourceInfo(info)
+    this
+  }
+
+  def repoTag(userName : String, repoName : String, url : String,
+    commitHash : String) : AcdfgBuilder = {
+    builder.setRepoTag(ProtoAcdfg.Acdfg.RepoTag.newBuilder().
+      setUserName(userName).setRepoName(repoName).setUrl(url).
+      setCommitHash(commitHash))
+    this
+  }
+
+  def provenancePath(path : String) : AcdfgBuilder = {
+    builder.setProvenancePath(path)
+    this
+  }
+
+  def methodBag(methods : String*) : AcdfgBuilder = {
+    val bag = ProtoAcdfg.Acdfg.MethodBag.newBuilder()
+    methods.foreach(m => bag.addMethod(m))
+    builder.setMethodBag(bag)
+    this
+  }
+
+  def build : ProtoAcdfg.Acdfg = builder.build()
+
+  def acdfg : Acdfg = new Acdfg(build)
+
+  private def dataNode(id : Long, name : String, typeName : String,
+    dataType : ProtoAcdfg.Acdfg.DataNode.DataType) : AcdfgBuilder = {
+    builder.addDataNode(ProtoAcdfg.Acdfg.DataNode.newBuilder().
+      setId(id).setName(name).setType(typeName).setDataType(dataType))
+    this
+  }
+}
+
+object AcdfgBuilder {
+  def apply() : AcdfgBuilder = new AcdfgBuilder()
+
+  /** Graph without nodes, identified by its provenance path */
+  def named(name : String) : ProtoAcdfg.Acdfg =
+    AcdfgBuilder().provenancePath(name).build
+
+  /**
+    * Chain of the method nodes from first to last, connected by control
+    * edges (the edge from id has id 1000000 + id).
+    */
+  def chain(first : Int, last : Int, name : String) : Acdfg = {
+    val builder = AcdfgBuilder()
+    for (id <- first to last) {
+      builder.methodNode(id, name + (id % 7))
+      if (id < last) builder.controlEdge(1000000 + id, id, id + 1)
+    }
+    builder.acdfg
+  }
+}
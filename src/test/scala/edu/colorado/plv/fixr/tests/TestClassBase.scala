@@ -9,6 +9,8 @@ import soot.options.Options
 import org.scalatest.Tag
 
 object TestParseSources extends Tag("edu.colorado.plv.fixr.tests.TestParseSources")
+/* Long running benchmarks, excluded from sbt test (see build.sbt) */
+object Benchmark extends Tag("edu.colorado.plv.fixr.tests.Benchmark")
 
 /**
   * Basic class to be used for testing.
@@ -0,0 +1,52 @@
+package edu.colorado.plv.fixr.tests.acdfg
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.abstraction.{Acdfg, EdgeKind}
+import edu.colorado.plv.fixr.abstraction.{ControlEdge, DefEdge, TransControlEdge, UseEdge}
+import edu.colorado.plv.fixr.tests.AcdfgBuilder
+
+class TestAcdfgAdjacency extends FunSuite {
+
+  /* Graph with the method nodes 1, 2, 3 and the data node 4 */
+  def getAcdfg() : Acdfg =
+    AcdfgBuilder().methodNode(1, "m1").methodNode(2, "m2").methodNode(3, "m3").
+      varNode(4, "x", "int").
+      controlEdge(5, 1, 2).controlEdge(6, 2, 3).transEdge(7, 1, 3).
+      defEdge(8, 1, 4).useEdge(9, 4, 3).acdfg
+
+  test("successors and predecessors by edge kind") {
+    val acdfg = getAcdfg()
+
+    assert(acdfg.succs(1, EdgeKind.CONTROL) == List(2L))
+    assert(acdfg.succs(1, EdgeKind.TRANS) == List(3L))
+    assert(acdfg.succs(1, EdgeKind.DEF) == List(4L))
+    assert(acdfg.succs(1).toSet == Set(2L, 3L, 4L))
+    assert(acdfg.preds(3, EdgeKind.USE) == List(4L))
+    assert(acdfg.preds(3).toSet == Set(2L, 1L, 4L))
+    assert(acdfg.succs(3).isEmpty)
+    assert(acdfg.preds(42).isEmpty)
+    assert(acdfg.outEdges(2, EdgeKind.CONTROL) == List(ControlEdge(6, 2, 3)))
+    assert(acdfg.inEdges(4) == List(DefEdge(8, 1, 4)))
+  }
+
+  test("the index follows the changes of the edges") {
+    val acdfg = getAcdfg()
+
+    acdfg.removeEdge(3, 2)
+    assert(! acdfg.edges.contains(6))
+    assert(! acdfg.edgesLabel.contains(6))
+    assert(acdfg.succs(2).isEmpty)
+    assert(acdfg.preds(3).toSet == Set(1L, 4L))
+
+    acdfg.removeEdgesOf(1)
+    assert(acdfg.edges.keySet == Set(9L))
+    assert(acdfg.preds(2).isEmpty)
+    assert(acdfg.inEdges(3) == List(UseEdge(9, 4, 3)))
+
+    /* an edge with an existing id replaces the old one */
+    acdfg.addEdge(TransControlEdge(9, 2, 3))
+    assert(acdfg.succs(4).isEmpty)
+    assert(acdfg.preds(3, EdgeKind.TRANS) == List(2L))
+  }
+}
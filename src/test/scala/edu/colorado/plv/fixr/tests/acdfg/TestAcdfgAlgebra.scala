@@ -0,0 +1,81 @@
+package edu.colorado.plv.fixr.tests.acdfg
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.abstraction.{Acdfg, AdjacencyList, Edge, Node}
+import edu.colorado.plv.fixr.tests.AcdfgBuilder.chain
+import edu.colorado.plv.fixr.tests.Benchmark
+
+class TestAcdfgAlgebra extends FunSuite {
+
+  def nodeSet(l : AdjacencyList) : Set[Node] = l.nodes.toSet
+  def edgeSet(l : AdjacencyList) : Set[Edge] = l.edges.toSet
+
+  /* Checks the operations against the sets of nodes and edges */
+  def checkOperations(a : Acdfg, b : Acdfg) : Unit = {
+    val (na, nb) = (a.nodes.values.toSet, b.nodes.values.toSet)
+    val (ea, eb) = (a.edges.values.toSet, b.edges.values.toSet)
+
+    assert(nodeSet(a | b) == (na | nb))
+    assert(edgeSet(a | b) == (ea | eb))
+    assert((a | b).nodes.size == (na | nb).size)
+    assert(nodeSet(a & b) == (na & nb))
+    assert(edgeSet(a & b) == (ea & eb))
+    assert(nodeSet(a -- b) == (na -- nb))
+    assert(edgeSet(a -- b) == (ea -- eb))
+    assert(nodeSet(a +| b) == ((na -- nb) | (nb -- na)))
+    assert(edgeSet(a +| b) == ((ea -- eb) | (eb -- ea)))
+  }
+
+  test("operations on overlapping graphs") {
+    val a = chain(0, 10, "m")
+    val b = chain(5, 15, "m")
+    checkOperations(a, b)
+
+    assert((a & b).nodes.map(_.id).toSet == (5L to 10L).toSet)
+    assert((a -- b).nodes.map(_.id).toSet == (0L to 4L).toSet)
+  }
+
+  test("nodes with the same id and different content") {
+    val a = chain(0, 10, "m")
+    val b = chain(0, 10, "n")
+    checkOperations(a, b)
+
+    assert((a & b).nodes.isEmpty)
+    assert((a & b).edges.size == 10)
+    assert((a | b).nodes.size == 22)
+  }
+
+  test("equality") {
+    assert(chain(0, 10, "m") == chain(0, 10, "m"))
+    assert(! (chain(0, 10, "m") == chain(0, 10, "n")))
+    assert(! (chain(0, 10, "m") == chain(0, 11, "m")))
+    assert(! (chain(0, 10, "m") == null))
+  }
+
+  test("benchmark of the operations on large graphs", Benchmark) {
+    val a = chain(0, 200000, "m")
+    val b = chain(100000, 300000, "m")
+
+    def time[T](name : String, op : => T) : T = {
+      val start = System.nanoTime()
+      val result = op
+      info(name + ": " + ((System.nanoTime() - start) / 1000000) + " ms")
+      result
+    }
+
+    val union = time("union", a | b)
+    val intersection = time("intersection", a & b)
+    val difference = time("diff", a -- b)
+    val disjointUnion = time("disjoint union", a +| b)
+    time("equals (same graph)", a == chain(0, 200000, "m"))
+    time("equals (different sizes)", a == b)
+    time("reference union of the sets",
+      (a.nodes.values.toSet | b.nodes.values.toSet, a.edges.values.toSet | b.edges.values.toSet))
+
+    assert(union.nodes.size == 300001)
+    assert(intersection.nodes.size == 100001)
+    assert(difference.nodes.size == 100000)
+    assert(disjointUnion.nodes.size == 200000)
+  }
+}
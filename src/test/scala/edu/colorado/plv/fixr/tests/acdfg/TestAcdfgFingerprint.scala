@@ -0,0 +1,51 @@
+package edu.colorado.plv.fixr.tests.acdfg
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.abstraction.{Acdfg, AcdfgView}
+import edu.colorado.plv.fixr.abstraction.{ControlEdge, MiscNode}
+import edu.colorado.plv.fixr.tests.AcdfgBuilder
+
+class TestAcdfgFingerprint extends FunSuite {
+
+  /* x = a.m(); b.n(x); (the ids start from base) */
+  def getAcdfg(base : Int, varName : String, methodName : String) : Acdfg =
+    AcdfgBuilder().varNode(base, varName, "int").
+      methodNode(base + 1, "a.m", assignee = base).
+      methodNode(base + 2, methodName, arguments = List(base)).
+      controlEdge(base + 3, base + 1, base + 2).defEdge(base + 4, base + 1, base).
+      useEdge(base + 5, base, base + 2).
+      sourceInfo(null, "C" + base, null).acdfg
+
+  test("the fingerprint does not depend on ids, variables and source") {
+    val fp = getAcdfg(1, "x", "b.n").fingerprint
+    assert(getAcdfg(100, "y", "b.n").fingerprint == fp)
+
+    val compacted = getAcdfg(100, "y", "b.n")
+    compacted.compactIds()
+    assert(compacted.fingerprint == fp)
+  }
+
+  test("the fingerprint depends on the structure and the methods") {
+    val acdfg = getAcdfg(1, "x", "b.n")
+    val fp = acdfg.fingerprint
+    assert(getAcdfg(1, "x", "b.o").fingerprint != fp)
+
+    /* reversed control edge */
+    acdfg.removeEdge(3, 2)
+    acdfg.addEdge(ControlEdge(4, 3, 2))
+    assert(acdfg.fingerprint != fp)
+
+    acdfg.addNode(MiscNode(10))
+    assert(acdfg.fingerprint != fp)
+  }
+
+  test("the fingerprint is stored in the protobuf") {
+    val acdfg = getAcdfg(1, "x", "b.n")
+    val protobuf = acdfg.toProtobuf
+    assert(protobuf.getFingerprint == acdfg.fingerprint)
+    assert(new Acdfg(protobuf).fingerprint == acdfg.fingerprint)
+    assert(AcdfgView(java.nio.ByteBuffer.wrap(protobuf.toByteArray)).fingerprint ==
+      Some(acdfg.fingerprint))
+  }
+}
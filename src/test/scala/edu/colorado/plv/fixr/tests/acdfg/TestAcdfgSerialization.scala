@@ -0,0 +1,63 @@
+package edu.colorado.plv.fixr.tests.acdfg
+
+import java.io.FileInputStream
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.abstraction.{Acdfg, ControlEdge, MiscNode}
+import edu.colorado.plv.fixr.extractors.{FileAcdfgSink, SegmentAcdfgReader, SegmentAcdfgSink}
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+import edu.colorado.plv.fixr.tests.AcdfgBuilder
+
+class TestAcdfgSerialization extends FunSuite {
+
+  def getAcdfg() : Acdfg =
+    AcdfgBuilder().varNode(1, "x", "int").
+      methodNode(2, "m", invokee = 1).methodNode(3, "n", arguments = List(1)).
+      controlEdge(4, 2, 3).useEdge(5, 1, 3).
+      exceptionalEdge(6, 2, 3, "java.io.IOException").
+      labels(4, ProtoAcdfg.Acdfg.EdgeLabel.DOMINATE).line(2, 10).
+      provenancePath("a.A_m").acdfg
+
+  test("the streamed graph is the same of the protobuf message") {
+    val acdfg = getAcdfg()
+    val streamed = acdfg.toByteArray
+    assert(streamed.toList == acdfg.toProtobuf.toByteArray.toList)
+    /* from the cached message */
+    assert(acdfg.toByteArray.toList == streamed.toList)
+  }
+
+  test("the protobuf message follows the changes of the graph") {
+    val acdfg = getAcdfg()
+    assert(acdfg.toProtobuf.getMiscNodeCount == 0)
+
+    acdfg.addNode(MiscNode(7))
+    acdfg.addEdge(ControlEdge(8, 3, 7))
+    assert(acdfg.toProtobuf.getMiscNodeCount == 1)
+    assert(acdfg.toProtobuf.getControlEdgeCount == 2)
+    assert(acdfg.toByteArray.toList == acdfg.toProtobuf.toByteArray.toList)
+
+    acdfg.removeEdge(7, 3)
+    assert(acdfg.toProtobuf.getControlEdgeCount == 1)
+  }
+
+  test("the sinks stream the graph") {
+    val acdfg = getAcdfg()
+    val outputDir = Files.createTempDirectory("graphs").toFile()
+
+    val fileSink = new FileAcdfgSink(outputDir.getPath())
+    fileSink.write("a.A", "m", "a.A_m", acdfg)
+    val input = new FileInputStream(FileAcdfgSink.getFile(outputDir.getPath(), "a.A_m"))
+    try assert(ProtoAcdfg.Acdfg.parseFrom(input) == acdfg.toProtobuf)
+    finally input.close()
+
+    val segmentSink = new SegmentAcdfgSink(outputDir.getPath(),
+      SegmentAcdfgSink.MAX_SEGMENT_SIZE)
+    segmentSink.write("a.A", "m", "a.A_m", acdfg)
+    segmentSink.close()
+    val reader = SegmentAcdfgReader.openAll(outputDir.getPath()).head
+    try assert(reader.get("a.A_m") == Some(acdfg.toProtobuf))
+    finally reader.close()
+  }
+}
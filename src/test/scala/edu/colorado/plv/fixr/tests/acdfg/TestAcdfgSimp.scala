@@ -1,6 +1,6 @@
 package edu.colorado.plv.fixr.tests.acdfg
 
-import edu.colorado.plv.fixr.graphs.UnitCdfgGraph
+import edu.colorado.plv.fixr.graphs.{BodyAnalysisCache, UnitCdfgGraph}
 import edu.colorado.plv.fixr.abstraction.MiscNode
 import edu.colorado.plv.fixr.abstraction.ConstDataNode
 import edu.colorado.plv.fixr.abstraction.VarDataNode
@@ -98,4 +98,18 @@ class TestAcdfgSimp  extends TestClassBase("./src/test/resources/javasources",
         List(),
         List("baseList = null"))
   }
+
+  test("SharedAnalyses",TestParseSources) {
+    val sootMethod = this.getTestClass().getMethodByName("testAssignments2")
+    val analyses = new BodyAnalysisCache(sootMethod.retrieveActiveBody())
+    val cfg = analyses.getCfg()
+    val simp : BodySimplifier = new BodySimplifier(analyses, List("java."))
+    val cdfg: UnitCdfgGraph = new UnitCdfgGraph(simp.getSimplifiedBody(), analyses)
+
+    /* the simplification changed the body, invalidating the analyses */
+    assert(! (analyses.getCfg() eq cfg))
+    assert(analyses.getCfg() eq cdfg)
+    assert(cdfg.getAnalyses().getDdg() eq analyses.getDdg())
+    testRes(cdfg, List("x = 1", "y = x", "z = y", "temp$0 = "), List("z = 1"))
+  }
 }
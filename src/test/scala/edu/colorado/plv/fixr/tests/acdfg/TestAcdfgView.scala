@@ -0,0 +1,67 @@
+package edu.colorado.plv.fixr.tests.acdfg
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.abstraction.{AcdfgView, GitHubRecord}
+import edu.colorado.plv.fixr.extractors.{SegmentAcdfgReader, SegmentAcdfgSink}
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+import edu.colorado.plv.fixr.tests.AcdfgBuilder
+
+class TestAcdfgView extends FunSuite {
+
+  def graph(name : String, withBag : Boolean) : ProtoAcdfg.Acdfg = {
+    val builder = AcdfgBuilder().varNode(1, "x", "int").
+      methodNode(2, "b.m", invokee = 1).methodNode(3, "a.n", arguments = List(1)).
+      controlEdge(4, 2, 3).
+      repoTag("user", "repo", "url", "hash").sourceInfo("a", "a.A", name).
+      provenancePath(name)
+    if (withBag) builder.methodBag("a.n", "b.m")
+    builder.build
+  }
+
+  test("read the header without loading the graph") {
+    val protobuf = graph("m", true)
+    val view = AcdfgView(ByteBuffer.wrap(protobuf.toByteArray))
+
+    assert(view.gitHubRecord == GitHubRecord("user", "repo", "url", "hash"))
+    assert(view.sourceInfo.className == "a.A")
+    assert(view.sourceInfo.methodName == "m")
+    assert(view.provenancePath == "m")
+    assert(view.methodBag == List("a.n", "b.m"))
+    assert(! view.isLoaded)
+
+    assert(view.nodes.keySet == Set(1L, 2L, 3L))
+    assert(view.isLoaded)
+    assert(view.protobuf == protobuf)
+  }
+
+  test("compute the bag of methods from the graph") {
+    val view = AcdfgView(ByteBuffer.wrap(graph("m", false).toByteArray))
+    assert(view.methodBag == List("a.n", "b.m"))
+    assert(view.isLoaded)
+  }
+
+  test("views of the graphs of a segment with a dictionary") {
+    val outputDir = Files.createTempDirectory("segments").toFile()
+    val sink = new SegmentAcdfgSink(outputDir.getPath(),
+      SegmentAcdfgSink.MAX_SEGMENT_SIZE, true)
+    sink.write("a.A", "m", "a.A_m", graph("m", true))
+    sink.write("a.A", "n", "a.A_n", graph("n", true))
+    sink.close()
+
+    val reader = SegmentAcdfgReader.openAll(outputDir.getPath()).head
+    try {
+      val views = reader.views.toList
+      assert(views.map(_._1) == List("a.A_m", "a.A_n"))
+      assert(views.forall(_._2.methodBag == List("a.n", "b.m")))
+      assert(views.forall(! _._2.isLoaded))
+      assert(reader.view("a.A_n").get.protobuf == graph("n", true))
+    }
+    finally {
+      reader.close()
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package edu.colorado.plv.fixr.tests.acdfg
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.abstraction.{Acdfg, EdgeKind, EdgeLabel, FrozenAcdfg, StringPool}
+import edu.colorado.plv.fixr.abstraction.{ExceptionalControlEdge, MethodNode}
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+import edu.colorado.plv.fixr.tests.AcdfgBuilder
+
+class TestFrozenAcdfg extends FunSuite {
+
+  def getProtobuf() : ProtoAcdfg.Acdfg =
+    AcdfgBuilder().varNode(1, "x", "android.view.View").constNode(2, "0", "int").
+      methodNode(3, "android.view.View.setVisibility", invokee = 1, arguments = List(2)).
+      methodNode(4, "android.view.View.getId", invokee = 1, assignee = 2).
+      miscNode(5).
+      controlEdge(6, 3, 4).transEdge(7, 3, 5).useEdge(8, 1, 3).defEdge(9, 4, 2).
+      exceptionalEdge(10, 4, 5, "java.lang.Exception").
+      labels(7, ProtoAcdfg.Acdfg.EdgeLabel.DOMINATE, ProtoAcdfg.Acdfg.EdgeLabel.POSTDOMINATED).
+      line(3, 42).
+      sourceInfo(null, "a.A", "m").provenancePath("a.A_m.html").build
+
+  def assertSameGraph(a : Acdfg, b : Acdfg) : Unit = {
+    assert(a.nodes == b.nodes)
+    assert(a.edges == b.edges)
+    for (id <- a.edges.keys) {
+      assert(a.edgesLabel.getOrElse(id, Set()) == b.edgesLabel.getOrElse(id, Set()))
+    }
+    assert(a.nodesToLineNumber == b.nodesToLineNumber)
+    assert(a.methodBag.sorted == b.methodBag.sorted)
+    assert(a.getSourceInfo == b.getSourceInfo)
+    assert(a.getGitHubRecord == b.getGitHubRecord)
+    assert(a.getProvenancePath == b.getProvenancePath)
+  }
+
+  test("conversion from and to the acdfg and the protobuf") {
+    val pool = new StringPool()
+    val acdfg = new Acdfg(getProtobuf())
+    val frozen = FrozenAcdfg(acdfg, pool)
+
+    assert(frozen.nodeCount == 5)
+    assert(frozen.edgeCount == 5)
+    assertSameGraph(acdfg, frozen.toAcdfg)
+    assertSameGraph(acdfg, new Acdfg(frozen.toProtobuf))
+    assertSameGraph(acdfg, FrozenAcdfg(getProtobuf(), pool).toAcdfg)
+  }
+
+  test("access to the compact graph") {
+    val pool = new StringPool()
+    val frozen = FrozenAcdfg(getProtobuf(), pool)
+
+    val method = frozen.indexOf(3)
+    assert(frozen.nodeKind(method) == FrozenAcdfg.METHOD)
+    assert(frozen.nodeName(method) == "android.view.View.setVisibility")
+    assert(frozen.getLine(method) == Some(42))
+    assert(frozen.node(method) == MethodNode(3, None, Some(1), "android.view.View.setVisibility",
+      Vector(2L)))
+    assert(frozen.nodeType(frozen.indexOf(1)) == "android.view.View")
+    assert(frozen.nodeKind(frozen.indexOf(2)) == FrozenAcdfg.CONST_DATA)
+    assert(frozen.nodeKind(frozen.indexOf(5)) == FrozenAcdfg.MISC)
+    assert(frozen.indexOf(42) == -1)
+
+    assert(frozen.succs(3, EdgeKind.CONTROL) == List(4L))
+    assert(frozen.succs(3, EdgeKind.TRANS) == List(5L))
+    assert(frozen.preds(5, EdgeKind.EXCEPTIONAL) == List(4L))
+    assert(frozen.preds(3, EdgeKind.USE) == List(1L))
+    assert(frozen.succs(42, EdgeKind.CONTROL).isEmpty)
+
+    val trans = frozen.outEdgePositions(method).find(frozen.edgeId(_) == 7).get
+    assert(frozen.labels(trans) == Set(EdgeLabel.SRC_DOMINATE_DST,
+      EdgeLabel.DST_POSDOMINATE_SRC))
+    val exceptional = frozen.inEdgePositions(frozen.indexOf(5)).find(frozen.edgeId(_) == 10).get
+    assert(frozen.edge(exceptional) == ExceptionalControlEdge(10, 4, 5,
+      List("java.lang.Exception")))
+  }
+
+  test("the string pool is shared") {
+    val pool = new StringPool()
+    FrozenAcdfg(getProtobuf(), pool)
+    val size = pool.size
+    FrozenAcdfg(getProtobuf(), pool)
+    assert(pool.size == size)
+    assert(pool.get(pool.intern("int")) == "int")
+    assert(pool.getId("not in the pool").isEmpty)
+
+    val name = StringPool.share(new String("android.view.View.getId"))
+    assert(StringPool.share(new String("android.view.View.getId")) eq name)
+    assert(null == StringPool.share(null))
+  }
+}
@@ -0,0 +1,59 @@
+package edu.colorado.plv.fixr.tests.acdfg
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.abstraction.IdAllocator
+import edu.colorado.plv.fixr.abstraction.{ControlEdge, MethodNode, UseEdge, VarDataNode}
+import edu.colorado.plv.fixr.abstraction.EdgeLabel
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+import edu.colorado.plv.fixr.tests.AcdfgBuilder
+
+class TestIdAllocator extends FunSuite {
+
+  test("dense ids and reuse of the released ids") {
+    val ids = new IdAllocator()
+    assert((0 until 5).map(_ => ids.fresh()).toList == List(0L, 1L, 2L, 3L, 4L))
+
+    ids.release(1)
+    ids.release(3)
+    assert(ids.fresh() == 3L)
+    assert(ids.fresh() == 1L)
+    assert(ids.fresh() == 5L)
+
+    ids.reserve(10)
+    assert(ids.fresh() == 11L)
+    assert(ids.bound == 12L)
+
+    val noReuse = new IdAllocator(false)
+    noReuse.fresh()
+    noReuse.release(0)
+    assert(noReuse.fresh() == 1L)
+  }
+
+  test("new ids do not clash with the ids of a loaded graph") {
+    val acdfg = AcdfgBuilder().methodNode(3, "m").controlEdge(7, 3, 3).acdfg
+
+    assert(acdfg.getNewId == 8L)
+  }
+
+  test("compact the ids") {
+    val acdfg = AcdfgBuilder().varNode(10, "x", "int").
+      methodNode(4, "m", invokee = 10).methodNode(20, "n", arguments = List(10)).
+      controlEdge(30, 4, 20).useEdge(15, 10, 20).
+      labels(30, ProtoAcdfg.Acdfg.EdgeLabel.DOMINATE).line(20, 42).acdfg
+
+    acdfg.compactIds()
+
+    assert(acdfg.nodes.keySet == Set(0L, 1L, 2L))
+    assert(acdfg.nodes(0) == MethodNode(0, None, Some(1), "m", Vector()))
+    assert(acdfg.nodes(1) == VarDataNode(1, "x", "int"))
+    assert(acdfg.nodes(2) == MethodNode(2, None, None, "n", Vector(1L)))
+    assert(acdfg.edges.keySet == Set(3L, 4L))
+    assert(acdfg.edges(3) == UseEdge(3, 1, 2))
+    assert(acdfg.edges(4) == ControlEdge(4, 0, 2))
+    assert(acdfg.edgesLabel(4) == Set(EdgeLabel.SRC_DOMINATE_DST))
+    assert(acdfg.getLine(2) == Some(42))
+    assert(acdfg.succs(0) == List(2L))
+    assert(acdfg.getNewId == 5L)
+  }
+}
@@ -0,0 +1,65 @@
+package edu.colorado.plv.fixr.tests.acdfg
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.abstraction.TransitiveClosure
+
+class TestTransitiveClosure extends FunSuite {
+
+  /* Reference closure computed with Floyd-Warshall */
+  def floydWarshall(succs : Array[Array[Int]]) : Array[Array[Boolean]] = {
+    val n = succs.length
+    val reach = Array.ofDim[Boolean](n, n)
+    for (i <- 0 until n; j <- succs(i)) reach(i)(j) = true
+    for (k <- 0 until n; i <- 0 until n; j <- 0 until n) {
+      if (reach(i)(k) && reach(k)(j)) reach(i)(j) = true
+    }
+    reach
+  }
+
+  def checkClosure(succs : Array[Array[Int]]) : Unit = {
+    val closure = new TransitiveClosure(succs)
+    val expected = floydWarshall(succs)
+    for (i <- 0 until succs.length; j <- 0 until succs.length) {
+      assert(closure.reaches(i, j) == expected(i)(j), s"($i, $j)")
+    }
+  }
+
+  test("chain") {
+    checkClosure(Array(Array(1), Array(2), Array(3), Array()))
+  }
+
+  test("cycles and self loops") {
+    checkClosure(Array(Array(1), Array(2, 3), Array(0), Array(3), Array(),
+      Array(4, 0)))
+  }
+
+  test("more than 64 nodes") {
+    val n = 150
+    val succs = Array.tabulate(n) { i =>
+      if (i % 10 == 9) Array((i + 1) % n, i - 9) else Array((i + 1) % n)
+    }
+    succs(n - 1) = Array()
+    checkClosure(succs)
+  }
+
+  test("random graphs") {
+    val rand = new scala.util.Random(42)
+    for (n <- List(1, 5, 63, 64, 65, 130)) {
+      val succs = Array.tabulate(n) { _ =>
+        Array.fill(rand.nextInt(3))(rand.nextInt(n))
+      }
+      checkClosure(succs)
+    }
+  }
+
+  test("edges not in the mask") {
+    val bits = new Array[Long](TransitiveClosure.words(70))
+    val mask = new Array[Long](TransitiveClosure.words(70))
+    List(0, 3, 64, 69).foreach(TransitiveClosure.set(bits, _))
+    TransitiveClosure.set(mask, 3)
+    val found = scala.collection.mutable.ArrayBuffer[Int]()
+    TransitiveClosure.foreachAndNot(bits, mask) { i => found += i }
+    assert(found.toList == List(0, 64, 69))
+  }
+}
@@ -0,0 +1,63 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.abstraction.StringPool
+import edu.colorado.plv.fixr.extractors.AcdfgDictionary
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgReader
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgSink
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+import edu.colorado.plv.fixr.tests.AcdfgBuilder
+
+class TestAcdfgDictionary extends FunSuite {
+
+  def graph(name : String) : ProtoAcdfg.Acdfg =
+    AcdfgBuilder().provenancePath(name).
+      varNode(1, "$r0", "java.lang.String").varNode(2, "$r1", "java.lang.String").
+      methodNode(3, "java.lang.String.length", invokee = 1).
+      methodBag("java.lang.String.length").build
+
+  test("encode and decode") {
+    val pool = new StringPool()
+    val encoded = AcdfgDictionary.encode(graph("a.A_m"), pool)
+
+    assert(pool.size == 2)
+    assert(encoded.getDataNode(0).getType() == "")
+    assert(encoded.getDataNode(0).getTypeId() == encoded.getDataNode(1).getTypeId())
+    assert(encoded.getMethodNode(0).getName() == "")
+    assert(encoded.getMethodBag().getMethodCount() == 0)
+    assert(encoded.getMethodBag().getMethodId(0) == encoded.getMethodNode(0).getNameId())
+
+    assert(AcdfgDictionary.decode(encoded, pool.toArray) == graph("a.A_m"))
+  }
+
+  test("write and read a dictionary") {
+    val file = Files.createTempFile("graphs", AcdfgDictionary.EXT).toFile()
+    val strings = Array("java.lang.String", "", "è")
+    AcdfgDictionary.write(file, strings)
+    assert(AcdfgDictionary.read(file).toList == strings.toList)
+  }
+
+  test("read the graphs of a segment with a dictionary") {
+    val outputDir = Files.createTempDirectory("segments").toFile()
+    val names = (0 until 10).map(i => "a.A_m" + i).toList
+
+    val sink = new SegmentAcdfgSink(outputDir.getPath(),
+      SegmentAcdfgSink.MAX_SEGMENT_SIZE, true)
+    names.foreach(n => sink.write("a.A", n.substring(4), n, graph(n)))
+    sink.close()
+
+    val readers = SegmentAcdfgReader.openAll(outputDir.getPath())
+    assert(readers.size == 1)
+    val reader = readers.head
+    try {
+      assert(reader.get("a.A_m3") == Some(graph("a.A_m3")))
+      assert(reader.iterator.toList == names.map(n => (n, graph(n))))
+    }
+    finally {
+      reader.close()
+    }
+  }
+}
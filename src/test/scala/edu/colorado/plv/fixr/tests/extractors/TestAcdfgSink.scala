@@ -0,0 +1,86 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.io.File
+import java.io.FileInputStream
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.extractors.FileAcdfgSink
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgSink
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+import edu.colorado.plv.fixr.tests.AcdfgBuilder.{named => graph}
+
+class TestAcdfgSink extends FunSuite {
+
+  /* Reads the graph at offset in the segment */
+  def readGraph(segment : File, offset : Long, size : Int) : ProtoAcdfg.Acdfg = {
+    val input = new FileInputStream(segment)
+    try {
+      input.skip(offset)
+      val bytes = new Array[Byte](size)
+      assert(input.read(bytes) == size)
+      ProtoAcdfg.Acdfg.parseFrom(bytes)
+    }
+    finally {
+      input.close()
+    }
+  }
+
+  test("one file per graph") {
+    val outputDir = Files.createTempDirectory("sink").toFile()
+    val sink = new FileAcdfgSink(outputDir.getPath())
+
+    assert(! sink.contains("a.A_m"))
+    assert(sink.write("a.A", "m", "a.A_m", graph("a.A_m")) == "a.A_m.acdfg.bin")
+    sink.close()
+
+    assert(sink.contains("a.A_m"))
+    val file = new File(outputDir, "a.A_m.acdfg.bin")
+    assert(ProtoAcdfg.Acdfg.parseFrom(Files.readAllBytes(file.toPath())) == graph("a.A_m"))
+  }
+
+  test("segments and index") {
+    val outputDir = Files.createTempDirectory("sink").toFile()
+    val names = (0 until 50).map(i => "a.A_m" + i).toList
+
+    /* small segments to test the rollover */
+    val sink = new SegmentAcdfgSink(outputDir.getPath(), 200)
+    names.foreach(n => sink.write("a.A", n.substring(4), n, graph(n)))
+    assert(SegmentAcdfgSink.listIndexes(outputDir.getPath()).isEmpty)
+    sink.close()
+
+    val indexes = SegmentAcdfgSink.listIndexes(outputDir.getPath())
+    assert(indexes.size > 1)
+    val entries = indexes.flatMap(SegmentAcdfgSink.readIndex(_))
+    assert(entries.map(_.name) == names)
+    for (entry <- entries) {
+      assert(entry.className == "a.A")
+      assert(readGraph(new File(outputDir, entry.segment), entry.offset,
+        entry.size) == graph(entry.name))
+    }
+
+    /* the segments are sequences of length delimited messages */
+    val segment = new FileInputStream(SegmentAcdfgSink.segmentOfIndex(indexes.head))
+    try {
+      var read = ProtoAcdfg.Acdfg.parseDelimitedFrom(segment)
+      var count = 0
+      while (null != read) {
+        assert(read == graph(names(count)))
+        count = count + 1
+        read = ProtoAcdfg.Acdfg.parseDelimitedFrom(segment)
+      }
+      assert(count == SegmentAcdfgSink.readIndex(indexes.head).size)
+    }
+    finally {
+      segment.close()
+    }
+
+    /* a new sink sees the graphs and appends new segments */
+    val second = new SegmentAcdfgSink(outputDir.getPath(), 200)
+    assert(second.contains("a.A_m0"))
+    second.write("b.B", "m", "b.B_m", graph("b.B_m"))
+    second.close()
+    assert(SegmentAcdfgSink.listIndexes(outputDir.getPath()).size == indexes.size + 1)
+  }
+}
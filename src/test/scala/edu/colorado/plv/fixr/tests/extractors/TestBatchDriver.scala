@@ -0,0 +1,61 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.BatchDriver
+import edu.colorado.plv.fixr.extractors.FileAcdfgSink
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgReader
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgSink
+import edu.colorado.plv.fixr.tests.AcdfgBuilder
+
+class TestBatchDriver extends FunSuite {
+
+  test("split the options of a job") {
+    assert(BatchDriver.splitArgs("-p  in -o out").toList ==
+      List("-p", "in", "-o", "out"))
+    assert(BatchDriver.splitArgs("-p \"my dir/classes\" -h \"\"").toList ==
+      List("-p", "my dir/classes", "-h", ""))
+  }
+
+  test("read the job file") {
+    val jobFile = File.createTempFile("jobs", ".txt")
+    val out = new FileOutputStream(jobFile)
+    out.write(("# first app\n" +
+      "-p app1 -o out1\n" +
+      "\n" +
+      "  -p app2 -o out2 -n user\n").getBytes("utf-8"))
+    out.close()
+
+    val jobs = BatchDriver.readJobs(jobFile.getPath()).map(_.toList)
+    assert(jobs == List(List("-p", "app1", "-o", "out1"),
+      List("-p", "app2", "-o", "out2", "-n", "user")))
+  }
+
+  test("list the graphs of the files and of the segments") {
+    val outputDir = Files.createTempDirectory("graphs").toFile()
+    val graph = AcdfgBuilder.named("g")
+
+    val segmentSink = new SegmentAcdfgSink(outputDir.getPath(), SegmentAcdfgSink.MAX_SEGMENT_SIZE)
+    segmentSink.write("a.A", "m", "a.A_m", graph)
+    segmentSink.write("a.A", "n", "a.A_n", graph)
+    segmentSink.close()
+    new FileAcdfgSink(outputDir.getPath()).write("b.B", "m", "b.B_m", graph)
+
+    val graphs = BatchDriver.listGraphs(outputDir.getPath())
+    assert(graphs.size == 3)
+    assert(graphs.contains(FileAcdfgSink.getFile(outputDir.getPath(), "b.B_m").getPath()))
+    for (reference <- graphs) {
+      assert(SegmentAcdfgReader.loadGraph(reference) == graph)
+    }
+    assert(BatchDriver.listGraphs(null).isEmpty)
+
+    assert(BatchDriver.findGraphs(outputDir.getPath(), List("b.B_m", "a.A_n", "c.C_m")).map(
+      reference => SegmentAcdfgReader.loadGraph(reference)).size == 2)
+    assert(BatchDriver.findGraphs(outputDir.getPath(), List("a.A_m")).head.endsWith(
+      SegmentAcdfgReader.SEPARATOR + "a.A_m"))
+  }
+}
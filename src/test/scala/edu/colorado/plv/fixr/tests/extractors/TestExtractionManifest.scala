@@ -0,0 +1,90 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.extractors.ExtractionManifest
+
+class TestExtractionManifest extends FunSuite {
+
+  def writeFile(file : File, content : String) : Unit = {
+    file.getParentFile().mkdirs()
+    val out = new FileOutputStream(file)
+    out.write(content.getBytes("utf-8"))
+    out.close()
+  }
+
+  test("hash of the classes in a directory") {
+    val inputDir = Files.createTempDirectory("classes").toFile()
+    writeFile(new File(inputDir, "a/b/C.class"), "C")
+    writeFile(new File(inputDir, "a/b/C$D.class"), "D")
+    writeFile(new File(inputDir, "a/b/notes.txt"), "not a class")
+
+    val hashes = ExtractionManifest.hashClasses(List(inputDir.getPath())).get
+    assert(hashes.keySet == Set("a.b.C", "a.b.C$D"))
+    assert(hashes("a.b.C") != hashes("a.b.C$D"))
+
+    assert(ExtractionManifest.hashClasses(List("app.apk")).isEmpty)
+    assert(ExtractionManifest.listClasses(List(inputDir.getPath())).get.toSet ==
+      hashes.keySet)
+  }
+
+  test("unchanged classes are skipped and stale graphs removed") {
+    val outputDir = Files.createTempDirectory("output").toFile()
+    val graphC = new File(outputDir, "a.C_m.acdfg.bin")
+    val graphD = new File(outputDir, "a.D_m.acdfg.bin")
+    val graphE = new File(outputDir, "a.E_m.acdfg.bin")
+
+    val first = ExtractionManifest.load(outputDir.getPath(), "key")
+    assert(first.update(Map("a.C" -> "1", "a.D" -> "1", "a.E" -> "1")).isEmpty)
+    for ((c, g) <- List(("a.C", graphC), ("a.D", graphD), ("a.E", graphE))) {
+      writeFile(g, "graph")
+      first.addGraph(c, g.getName())
+    }
+    first.setFailed("a.E")
+    first.save()
+
+    /* a.D changed, a.E failed in the previous extraction */
+    val second = ExtractionManifest.load(outputDir.getPath(), "key")
+    val unchanged = second.update(Map("a.C" -> "1", "a.D" -> "2", "a.E" -> "1"))
+    assert(unchanged == Set("a.C"))
+    assert(graphC.exists())
+    assert(! graphD.exists())
+    assert(graphE.exists())
+    assert(second.deletedGraphs == Set(graphD.getName()))
+    second.save()
+
+    /* different options invalidate everything */
+    val third = ExtractionManifest.load(outputDir.getPath(), "other key")
+    assert(third.update(Map("a.C" -> "1")).isEmpty)
+    assert(! graphC.exists())
+    assert(! graphE.exists())
+    assert(third.deletedGraphs == Set(graphC.getName(), graphE.getName()))
+  }
+
+  test("duplicates of the deleted graphs are extracted again") {
+    val outputDir = Files.createTempDirectory("output").toFile()
+    val graphC = new File(outputDir, "a.C_m.acdfg.bin")
+
+    val first = ExtractionManifest.load(outputDir.getPath(), "key")
+    first.update(Map("a.C" -> "1", "a.D" -> "1", "a.E" -> "1"))
+    writeFile(graphC, "graph")
+    first.addGraph("a.C", graphC.getName())
+    /* the graph of a.D was not written, being a duplicate of a.C_m */
+    first.addDuplicate("a.D", graphC.getName())
+    first.save()
+
+    val second = ExtractionManifest.load(outputDir.getPath(), "key")
+    assert(second.update(Map("a.C" -> "1", "a.D" -> "1", "a.E" -> "1")) ==
+      Set("a.C", "a.D", "a.E"))
+    second.save()
+
+    /* a.C changed, so the duplicate of its graph must be written */
+    val third = ExtractionManifest.load(outputDir.getPath(), "key")
+    assert(third.update(Map("a.C" -> "2", "a.D" -> "1", "a.E" -> "1")) == Set("a.E"))
+    assert(! graphC.exists())
+  }
+}
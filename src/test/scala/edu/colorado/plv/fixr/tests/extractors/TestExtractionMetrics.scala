@@ -0,0 +1,52 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.io.File
+import java.nio.file.Files
+
+import scala.collection.JavaConversions._
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.extractors.{ExtractionMetrics, ExtractionStage}
+
+class TestExtractionMetrics extends FunSuite {
+
+  test("stages are timed and written in the report") {
+    val report = new File(Files.createTempDirectory("metrics").toFile(), "metrics.csv")
+
+    val metrics = new ExtractionMetrics()
+    val m = metrics.start("a.A", "m")
+    m.units = 10
+    assert(m.time(ExtractionStage.CDFG) { 1 + 1 } == 2)
+    intercept[RuntimeException] {
+      m.time(ExtractionStage.WRITE) { throw new RuntimeException("write") }
+    }
+    assert(m.wallTime(ExtractionStage.CDFG.id) >= 0)
+    assert(m.wallTime(ExtractionStage.WRITE.id) >= 0)
+    assert(m.wallTime(ExtractionStage.ACDFG.id) == -1)
+
+    val n = metrics.start("a.A", "n,o")
+    n.status = ExtractionMetrics.EMPTY
+    assert(metrics.size == 2)
+
+    metrics.writeReport(report)
+    metrics.writeReport(report)
+
+    val lines = Files.readAllLines(report.toPath()).toList
+    assert(lines.size == 5)
+    assert(lines.head == ExtractionMetrics.CSV_HEADER)
+    assert(lines.count(_ == ExtractionMetrics.CSV_HEADER) == 1)
+    val columns = ExtractionMetrics.CSV_HEADER.split(",").length
+    assert(lines(1).split(",").length == columns)
+    assert(lines(1).startsWith("a.A,m,failed,10,-1,"))
+    assert(lines(2).startsWith("a.A,\"n,o\",empty,"))
+  }
+
+  test("percentile") {
+    val values = Array[Long](1, 2, 3, 4, 5, 6, 7, 8, 9, 10)
+    assert(ExtractionMetrics.percentile(values, 50) == 5)
+    assert(ExtractionMetrics.percentile(values, 90) == 9)
+    assert(ExtractionMetrics.percentile(values, 99) == 10)
+    assert(ExtractionMetrics.percentile(Array[Long](3), 50) == 3)
+  }
+}
@@ -0,0 +1,78 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.io.DataInputStream
+import java.io.File
+import java.io.OutputStreamWriter
+import java.net.InetAddress
+import java.net.Socket
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.BatchDriver
+import edu.colorado.plv.fixr.ExtractionServer
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+class TestExtractionServer extends FunSuite {
+
+  /* Stand-in client: sends a request and reads the response */
+  def request(port : Int, line : String) : (String, String, List[(String, Array[Byte])]) = {
+    val socket = new Socket(InetAddress.getLoopbackAddress(), port)
+    try {
+      val out = new OutputStreamWriter(socket.getOutputStream(), "utf-8")
+      out.write(line + "\n")
+      out.flush()
+
+      val in = new DataInputStream(socket.getInputStream())
+      val status = in.readUTF()
+      val message = in.readUTF()
+      val graphs = List.fill(in.readInt()) {
+        val name = in.readUTF()
+        val bytes = new Array[Byte](in.readInt())
+        in.readFully(bytes)
+        (name, bytes)
+      }
+      (status, message, graphs)
+    }
+    finally {
+      socket.close()
+    }
+  }
+
+  test("serve extraction jobs") {
+    val server = new ExtractionServer(0)
+    val serverThread = new Thread(new Runnable() {
+      override def run() : Unit = server.serve()
+    })
+    serverThread.start()
+
+    try {
+      val (invalidStatus, _, invalidGraphs) = request(server.getPort, "--no-such-option")
+      assert(invalidStatus == BatchDriver.INVALID)
+      assert(invalidGraphs.isEmpty)
+
+      val outputDir = Files.createTempDirectory("server").toFile()
+      val job = List("-l",
+        "./src/test/resources/libs/android-17.jar:./src/test/resources/classes",
+        "-c", "bugs.Bug_046", "-m", "getLog", "-f", "android",
+        "-o", outputDir.getPath()).mkString(" ")
+
+      /* the second job reuses the JVM of the first one and finds the
+       * graphs written by the first job */
+      for (i <- 1 to 2) {
+        val (status, message, graphs) = request(server.getPort, job)
+        assert(status == BatchDriver.OK, message)
+        assert(graphs.nonEmpty)
+        assert(graphs.map(_._1).toSet ==
+          BatchDriver.listGraphs(outputDir.getPath()).map(new File(_).getName()))
+        for ((name, bytes) <- graphs) {
+          assert(null != ProtoAcdfg.Acdfg.parseFrom(bytes), name)
+        }
+      }
+    }
+    finally {
+      request(server.getPort, ExtractionServer.SHUTDOWN)
+      serverThread.join()
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.util.concurrent.RunnableScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.extractors.ExtractionWatchdog
+
+class TestExtractionWatchdog extends FunSuite {
+  /* the budgets are long enough that the scheduler never runs the timers,
+   * the tests run them */
+  private val BUDGET = TimeUnit.HOURS.toSeconds(1)
+  private val BUDGET_NANOS = TimeUnit.SECONDS.toNanos(BUDGET)
+
+  /* Watchdog that reads the time from now */
+  class Fixture {
+    var now = 0L
+    val scheduler = new ScheduledThreadPoolExecutor(1)
+    val watchdog = new ExtractionWatchdog(scheduler, () => now)
+
+    def timers : List[RunnableScheduledFuture[_]] =
+      scheduler.getQueue().toArray().toList.map(_.asInstanceOf[RunnableScheduledFuture[_]])
+  }
+
+  test("the budget does not run while paused") {
+    val f = new Fixture()
+    try {
+      val token = f.watchdog.start("a.A.m", BUDGET)
+      assert(token.getDeadline() == BUDGET_NANOS)
+      assert(f.timers.size == 1)
+
+      f.now = TimeUnit.MINUTES.toNanos(10)
+      f.watchdog.pause(token)
+      assert(f.timers.isEmpty)
+
+      /* the time spent in the queue is not counted */
+      f.now = TimeUnit.HOURS.toNanos(100)
+      f.watchdog.resume(token)
+      val remaining = BUDGET_NANOS - TimeUnit.MINUTES.toNanos(10)
+      assert(token.getDeadline() == f.now + remaining)
+      assert(f.timers.size == 1)
+      assert(f.timers.head.getDelay(TimeUnit.NANOSECONDS) <= remaining)
+
+      assert(! token.isCancelled())
+      f.timers.head.run()
+      assert(token.isCancelled())
+    }
+    finally {
+      f.scheduler.shutdownNow()
+    }
+  }
+
+  test("released tokens are not cancelled") {
+    val f = new Fixture()
+    try {
+      val token = f.watchdog.start("a.A.m", BUDGET)
+      f.watchdog.pause(token)
+      token.release()
+      f.watchdog.resume(token)
+      assert(f.timers.isEmpty)
+      assert(token.takeRemaining() == -1)
+      assert(! token.isCancelled())
+    }
+    finally {
+      f.scheduler.shutdownNow()
+    }
+  }
+}
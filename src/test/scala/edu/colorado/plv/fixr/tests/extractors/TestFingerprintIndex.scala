@@ -0,0 +1,105 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.io.File
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.extractors.FingerprintIndex
+
+class TestFingerprintIndex extends FunSuite {
+
+  private def newIndexFile() : File =
+    new File(Files.createTempDirectory("fingerprints").toFile(),
+      FingerprintIndex.INDEX_FILE)
+
+  test("duplicates in the same run and in the index file") {
+    val indexFile = newIndexFile()
+
+    val index = new FingerprintIndex(indexFile)
+    assert(index.reserve(42L, "a.A_m") == None)
+    index.commit(42L, "a.A_m")
+    assert(index.reserve(-1L, "a.A_n") == None)
+    index.commit(-1L, "a.A_n")
+    assert(index.reserve(42L, "b.B_m") == Some("a.A_m"))
+
+    val reloaded = new FingerprintIndex(indexFile)
+    assert(reloaded.size == 2)
+    assert(reloaded.reserve(-1L, "c.C_m") == Some("a.A_n"))
+    assert(reloaded.reserve(7L, "c.C_n") == None)
+    reloaded.commit(7L, "c.C_n")
+
+    assert(new FingerprintIndex(indexFile).size == 3)
+  }
+
+  test("released fingerprints are not recorded") {
+    val indexFile = newIndexFile()
+
+    val index = new FingerprintIndex(indexFile)
+    assert(index.reserve(42L, "a.A_m") == None)
+    index.release(42L, "a.A_m")
+    assert(index.size == 0)
+    assert(new FingerprintIndex(indexFile).size == 0)
+
+    /* the duplicate is written after the failed write */
+    assert(index.reserve(42L, "b.B_m") == None)
+    index.commit(42L, "b.B_m")
+    assert(index.reserve(42L, "c.C_m") == Some("b.B_m"))
+  }
+
+  test("fingerprints of the deleted graphs") {
+    val indexFile = newIndexFile()
+
+    val index = new FingerprintIndex(indexFile)
+    for ((fp, name) <- List((1L, "a.A_m"), (2L, "a.A_n"), (3L, "b.B_m"))) {
+      assert(index.reserve(fp, name) == None)
+      index.commit(fp, name)
+    }
+    index.remove(Set("a.A_m", "b.B_m"))
+    assert(index.size == 1)
+    assert(index.reserve(1L, "c.C_m") == None)
+    index.commit(1L, "c.C_m")
+
+    val reloaded = new FingerprintIndex(indexFile)
+    assert(reloaded.size == 2)
+    assert(reloaded.reserve(1L, "d.D_m") == Some("c.C_m"))
+    assert(reloaded.reserve(2L, "d.D_n") == Some("a.A_n"))
+  }
+
+  test("fingerprints committed by another process") {
+    val indexFile = newIndexFile()
+    val first = new FingerprintIndex(indexFile)
+    val second = new FingerprintIndex(indexFile)
+
+    assert(first.reserve(42L, "a.A_m") == None)
+    first.commit(42L, "a.A_m")
+    assert(second.reserve(42L, "b.B_m") == Some("a.A_m"))
+
+    assert(second.reserve(7L, "b.B_n") == None)
+    second.commit(7L, "b.B_n")
+    assert(first.reserve(7L, "c.C_m") == Some("b.B_n"))
+
+    /* the file rewritten by remove */
+    first.remove(Set("a.A_m"))
+    assert(first.reserve(1L, "c.C_n") == None)
+    first.commit(1L, "c.C_n")
+    assert(second.reserve(1L, "d.D_m") == Some("c.C_n"))
+    assert(second.size == 3)
+  }
+
+  test("a duplicate waits for the graph being written") {
+    val index = new FingerprintIndex(newIndexFile())
+    assert(index.reserve(42L, "a.A_m") == None)
+
+    var duplicateOf : Option[String] = None
+    val thread = new Thread(new Runnable() {
+      override def run() : Unit = { duplicateOf = index.reserve(42L, "b.B_m") }
+    })
+    thread.start()
+    Thread.sleep(100)
+    assert(thread.isAlive())
+    index.commit(42L, "a.A_m")
+    thread.join()
+    assert(duplicateOf == Some("a.A_m"))
+  }
+}
@@ -0,0 +1,79 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.io.File
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.extractors.FileAcdfgSink
+import edu.colorado.plv.fixr.extractors.MethodBagIndex
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgReader
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgSink
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+import edu.colorado.plv.fixr.tests.AcdfgBuilder
+
+class TestMethodBagIndex extends FunSuite {
+
+  def graph(name : String, methods : List[String]) : ProtoAcdfg.Acdfg =
+    AcdfgBuilder().provenancePath(name).methodBag(methods.sorted : _*).build
+
+  test("index the graphs in files and segments") {
+    val outputDir = Files.createTempDirectory("index").toFile().getPath()
+
+    val fileSink = new FileAcdfgSink(outputDir)
+    fileSink.write("a.A", "m", "a.A_m", graph("a.A_m", List("open", "read", "close")))
+    fileSink.write("a.A", "n", "a.A_n", graph("a.A_n", List("open", "open", "write")))
+
+    val segmentSink = new SegmentAcdfgSink(outputDir, SegmentAcdfgSink.MAX_SEGMENT_SIZE)
+    /* ids larger than 127 need several bytes */
+    for (i <- 0 until 300) {
+      val methods = if (i % 100 == 0) List("open", "close") else List("get" + (i % 3))
+      segmentSink.write("b.B", "m" + i, "b.B_m" + i, graph("b.B_m" + i, methods))
+    }
+    segmentSink.close()
+
+    assert(MethodBagIndex.build(outputDir) == 302)
+
+    val index = new MethodBagIndex(outputDir)
+    try {
+      assert(index.graphCount == 302)
+      assert(index.graph(0) == "a.A_m" + FileAcdfgSink.EXT)
+      assert(index.frequency("open") == 5)
+      assert(index.frequency("missing") == 0)
+      assert(index.postings("open").toList == List(0, 1, 2, 102, 202))
+
+      val withAll = index.withAll(List("close", "open"))
+      assert(withAll.toList == List(0, 2, 102, 202))
+      assert(index.withAll(List("open", "missing")).isEmpty)
+      assert(index.withAll(List("get1")).length == 99)
+
+      assert(SegmentAcdfgReader.loadGraph(index.graphPath(202)) ==
+        graph("b.B_m200", List("open", "close")))
+
+      val withSome = index.withSome(List("open", "read", "write"), 2)
+      assert(withSome.toList == List((0, 2), (1, 2)))
+      assert(index.withSome(List("read", "write")).map(_._1).toList == List(0, 1))
+    }
+    finally {
+      index.close()
+    }
+  }
+
+  test("an index with graphs of another build is not loaded") {
+    val outputDir = Files.createTempDirectory("index").toFile().getPath()
+    val fileSink = new FileAcdfgSink(outputDir)
+    fileSink.write("a.A", "m", "a.A_m", graph("a.A_m", List("open")))
+    assert(MethodBagIndex.build(outputDir) == 1)
+
+    /* crash after replacing the graphs file of a larger index */
+    val graphsFile = new File(outputDir, MethodBagIndex.GRAPHS_FILE)
+    Files.write(graphsFile.toPath(), "a.A_m.acdfg.bin\nb.B_m.acdfg.bin\n".getBytes("utf-8"))
+    intercept[Exception] { new MethodBagIndex(outputDir) }
+
+    fileSink.write("b.B", "m", "b.B_m", graph("b.B_m", List("open")))
+    assert(MethodBagIndex.build(outputDir) == 2)
+    val index = new MethodBagIndex(outputDir)
+    try assert(index.postings("open").toList == List(0, 1))
+    finally index.close()
+  }
+}
@@ -0,0 +1,64 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.nio.file.Files
+
+import org.scalatest.BeforeAndAfter
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.SootHelper
+import edu.colorado.plv.fixr.extractors.AcdfgSink
+import edu.colorado.plv.fixr.extractors.ExtractorOptions
+import edu.colorado.plv.fixr.extractors.FileAcdfgSink
+import edu.colorado.plv.fixr.extractors.MethodExtractor
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgReader
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgSink
+import edu.colorado.plv.fixr.protobuf.ProtoAcdfg
+
+class TestOverloadedMethods extends FunSuite with BeforeAndAfter {
+  before {
+    SootHelper.reset()
+  }
+
+  /* Extracts the overloads of slice.TestOverloads.use with 4 workers */
+  def extract(outputFormat : String) : String = {
+    val outputDir = Files.createTempDirectory("overloads").toFile().getPath()
+    val options = new ExtractorOptions()
+    options.className = "slice.TestOverloads"
+    options.methodName = "use"
+    options.configCode = SootHelper.READ_FROM_BYTECODE
+    options.sliceFilter = List("java.util")
+    options.sootClassPath = "./src/test/resources/classes"
+    options.outputDir = outputDir
+    options.outputFormat = outputFormat
+    options.workers = 4
+
+    new MethodExtractor(options).extract()
+    outputDir
+  }
+
+  test("the overloads are written once in a file") {
+    val outputDir = extract(AcdfgSink.FILES)
+
+    val files = new java.io.File(outputDir).listFiles().filter(
+      _.getName().endsWith(FileAcdfgSink.EXT))
+    assert(files.map(_.getName()).toList == List("slice.TestOverloads_use" + FileAcdfgSink.EXT))
+    val graph = ProtoAcdfg.Acdfg.parseFrom(Files.readAllBytes(files.head.toPath()))
+    assert(graph.getSourceInfo().getMethodName() == "use")
+  }
+
+  test("the overloads are written once in a segment") {
+    val outputDir = extract(AcdfgSink.SEGMENTS)
+
+    val indexes = SegmentAcdfgSink.listIndexes(outputDir)
+    assert(indexes.size == 1)
+    assert(SegmentAcdfgSink.readIndex(indexes.head).map(_.name) ==
+      List("slice.TestOverloads_use"))
+    val reader = SegmentAcdfgReader.openAll(outputDir).head
+    try {
+      assert(reader.get("slice.TestOverloads_use").get.getSourceInfo().getMethodName() == "use")
+    }
+    finally {
+      reader.close()
+    }
+  }
+}
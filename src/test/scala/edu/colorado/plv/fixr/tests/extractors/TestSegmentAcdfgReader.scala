@@ -0,0 +1,58 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.io.File
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.extractors.FileAcdfgSink
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgReader
+import edu.colorado.plv.fixr.extractors.SegmentAcdfgSink
+import edu.colorado.plv.fixr.tests.AcdfgBuilder.{named => graph}
+
+class TestSegmentAcdfgReader extends FunSuite {
+
+  test("random access and iteration") {
+    val outputDir = Files.createTempDirectory("segments").toFile()
+    val names = (0 until 100).map(i => "a.A_m" + i).toList
+
+    val sink = new SegmentAcdfgSink(outputDir.getPath(), SegmentAcdfgSink.MAX_SEGMENT_SIZE)
+    names.foreach(n => sink.write("a.A", n.substring(4), n, graph(n)))
+    sink.close()
+
+    val readers = SegmentAcdfgReader.openAll(outputDir.getPath())
+    assert(readers.size == 1)
+    val reader = readers.head
+    try {
+      assert(reader.names.toList == names)
+      assert(reader.get("a.A_m42") == Some(graph("a.A_m42")))
+      assert(reader.get("a.A_m0") == Some(graph("a.A_m0")))
+      assert(reader.get("missing").isEmpty)
+      assert(reader.iterator.drop(98).toList ==
+        List(("a.A_m98", graph("a.A_m98")), ("a.A_m99", graph("a.A_m99"))))
+    }
+    finally {
+      reader.close()
+    }
+  }
+
+  test("load a graph from a file or a segment") {
+    val outputDir = Files.createTempDirectory("segments").toFile()
+
+    val segmentSink = new SegmentAcdfgSink(outputDir.getPath(), SegmentAcdfgSink.MAX_SEGMENT_SIZE)
+    val segment = segmentSink.write("a.A", "m", "a.A_m", graph("a.A_m"))
+    segmentSink.close()
+
+    val fileSink = new FileAcdfgSink(outputDir.getPath())
+    val file = fileSink.write("b.B", "m", "b.B_m", graph("b.B_m"))
+
+    assert(SegmentAcdfgReader.loadGraph(new File(outputDir, segment).getPath() +
+      SegmentAcdfgReader.SEPARATOR + "a.A_m") == graph("a.A_m"))
+    assert(SegmentAcdfgReader.loadGraph(new File(outputDir, file).getPath()) ==
+      graph("b.B_m"))
+
+    assert(SegmentAcdfgReader.splitReference("out/" + segment + "#a.A_m") ==
+      Some(("out/" + segment, "a.A_m")))
+    assert(SegmentAcdfgReader.splitReference("out/" + file).isEmpty)
+  }
+}
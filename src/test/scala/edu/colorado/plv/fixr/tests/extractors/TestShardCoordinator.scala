@@ -0,0 +1,53 @@
+package edu.colorado.plv.fixr.tests.extractors
+
+import java.nio.file.Files
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.ShardCoordinator
+
+class TestShardCoordinator extends FunSuite {
+
+  def checkPartition(classes : List[String], shards : List[List[String]]) : Unit = {
+    assert(shards.flatten.sorted == classes.sorted)
+    for (c <- classes if c.contains("$")) {
+      val outer = c.takeWhile(_ != '$')
+      assert(shards.exists(s => s.contains(c) && s.contains(outer)), c)
+    }
+  }
+
+  test("packages and inner classes stay in the same shard") {
+    val classes = List("a.A", "a.A$1", "a.B", "b.C", "b.C$D", "b.C$D$E",
+      "c.F", "c.G")
+    val shards = ShardCoordinator.makeShards(classes, 3)
+
+    checkPartition(classes, shards)
+    assert(shards.size == 3)
+    for (pkg <- List("a.", "b.", "c.")) {
+      assert(shards.count(_.exists(_.startsWith(pkg))) == 1, pkg)
+    }
+  }
+
+  test("large packages are split") {
+    val classes = (0 until 100).map(i => "p.C" + i).toList ++
+      (0 until 20).map(i => "q.C" + i).toList
+    val shards = ShardCoordinator.makeShards(classes, 4)
+
+    checkPartition(classes, shards)
+    assert(shards.size == 4)
+    assert(shards.forall(_.size <= 30))
+    assert(shards.map(_.size) == shards.map(_.size).sortBy(- _))
+  }
+
+  test("fewer classes than shards") {
+    val classes = List("a.A", "a.A$1")
+    assert(ShardCoordinator.makeShards(classes, 8) == List(List("a.A", "a.A$1")))
+    assert(ShardCoordinator.makeShards(Nil, 8).isEmpty)
+  }
+
+  test("class list of a shard") {
+    val file = Files.createTempFile("shard", ".classes").toFile()
+    ShardCoordinator.writeClassList(file, List("a.A", "a.A$1"))
+    assert(ShardCoordinator.readClassList(file.getPath()) == Set("a.A", "a.A$1"))
+  }
+}
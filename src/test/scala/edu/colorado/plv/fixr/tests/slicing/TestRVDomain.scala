@@ -0,0 +1,59 @@
+package edu.colorado.plv.fixr.tests.slicing
+
+import scala.collection.JavaConversions._
+
+import org.scalatest.FunSuite
+
+import edu.colorado.plv.fixr.slicing.RVDomain
+import soot.IntType
+import soot.jimple.Jimple
+
+class TestRVDomain extends FunSuite {
+  private val locals = (0 until 70).map(i => Jimple.v().newLocal("l" + i, IntType.v()))
+
+  private def domain(indexes : Int*) : RVDomain = {
+    val d = new RVDomain()
+    indexes.foreach(i => d.add(locals(i)))
+    d
+  }
+
+  test("union, difference and intersection") {
+    val a = domain(0, 1, 69)
+    val b = domain(1, 2)
+
+    val union = new RVDomain()
+    a.union(b, union)
+    assert(union.size() == 4)
+    assert(union == domain(0, 1, 2, 69))
+
+    val diff = new RVDomain()
+    a.difference(b, diff)
+    assert(diff == domain(0, 69))
+    a.difference(b)
+    assert(a == domain(0, 69))
+    assert(a.hashCode() == domain(0, 69).hashCode())
+
+    assert(! a.intersect(b))
+    assert(union.intersect(b))
+    union.intersection(b)
+    assert(union == domain(1, 2))
+  }
+
+  test("iteration and bottom") {
+    val a = domain(69, 3)
+    assert(a.iterator().toSet == Set(locals(3), locals(69)))
+    assert(a.contains(locals(3)) && ! a.contains(locals(4)))
+    assert(a.hasVar(Jimple.v().newLocal("l69", IntType.v())))
+
+    /* bottom \ a = bottom and a \ bottom = a */
+    val bottom = new RVDomain()
+    val dest = new RVDomain()
+    bottom.difference(a, dest)
+    assert(! dest.isReachSeed() && dest.isEmpty())
+    a.difference(bottom, dest)
+    assert(dest == a)
+
+    a.clear()
+    assert(a == bottom)
+  }
+}